@@ -0,0 +1,41 @@
+package com.ratelimiter.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark Entry Point
+ * Runs the benchmarks once per thread count (1, 2, 4 ... up to the number of cores)
+ * with the GC profiler attached, so allocation rate is reported next to throughput
+ * and average time. Any regular JMH command line options are passed through,
+ * e.g. "java -jar target/benchmarks.jar CheckLimitBenchmark -p algorithm=TOKEN_BUCKET".
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        String selected = commandLine.getIncludes().isEmpty()
+            ? "ALL BENCHMARKS"
+            : String.join(", ", commandLine.getIncludes());
+        
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .build();
+            
+            System.out.println("=== " + selected + ", THREADS: " + threads + " ===");
+            new Runner(options).run();
+            
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+package com.ratelimiter.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitRule;
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.factory.StorageFactory;
+import com.ratelimiter.service.RateLimiter;
+import com.ratelimiter.storage.InMemoryRateLimitStorage;
+
+/**
+ * RateLimiter.checkLimit Benchmark
+ * Measures the hot path for every algorithm against the in-process storages
+ * 
+ * Every key is limited by one template rule, so each algorithm has a single instance holding the state
+ * of all keys, the way a per-user limit is deployed; a sketch in particular is shared by design.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class CheckLimitBenchmark {
+    private static final String KEY_PREFIX = "bench:key:";
+    
+    @Param({"TOKEN_BUCKET", "LOCK_FREE_TOKEN_BUCKET", "SLIDING_WINDOW_LOG", "SLIDING_WINDOW_COUNTER",
+        "COUNT_MIN_SKETCH", "GCRA"})
+    public String algorithm;
+    
+    /**
+     * 1 = a single hot key shared by every thread, otherwise distinct keys
+     */
+    @Param({"1", "1000000"})
+    public int keyCount;
+
+    
+    /**
+     * ALLOWED = limit is never reached, DENIED = every key is exhausted after its first request
+     */
+    @Param({"ALLOWED", "DENIED"})
+    public String traffic;
+    
+    @Param({"MEMORY", "OFF_HEAP"})
+    public String storageType;
+    
+    private RateLimitStorage storage;
+    private RateLimiter rateLimiter;
+    private String[] keys;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        storage = StorageFactory.createStorage(storageType);
+        rateLimiter = new RateLimiter.Builder()
+            .storage(storage)
+            .addRule(KEY_PREFIX + "{id}", createRule())
+            .build();
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = KEY_PREFIX + i;
+        }
+        
+        if ("DENIED".equals(traffic)) {
+            // Exhaust every key up front so the measurement only sees denials
+            for (String key : keys) {
+                rateLimiter.checkLimit(key);
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (storage instanceof InMemoryRateLimitStorage) {
+            ((InMemoryRateLimitStorage) storage).shutdown();
+        }
+    }
+    
+    private RateLimitRule createRule() {
+        switch (traffic) {
+            case "ALLOWED":
+                return new RateLimitRule.Builder()
+                    .maxRequests(Integer.MAX_VALUE)
+                    .timeWindow(Duration.ofSeconds(1))
+                    .algorithm(algorithm)
+                    .build();
+            
+            case "DENIED":
+                return new RateLimitRule.Builder()
+                    .maxRequests(1)
+                    .timeWindow(Duration.ofHours(1))
+                    .algorithm(algorithm)
+                    .build();
+            
+            default:
+                throw new IllegalArgumentException("Unknown traffic profile: " + traffic);
+        }
+    }
+    
+    /**
+     * Per-thread key cursor, started at a random offset so threads do not walk the keys in lockstep
+     */
+    @State(Scope.Thread)
+    public static class KeyCursor {
+        private int position;
+        
+        @Setup(Level.Trial)
+        public void setUp(CheckLimitBenchmark benchmark) {
+            position = ThreadLocalRandom.current().nextInt(benchmark.keyCount);
+        }
+        
+        int next(int keyCount) {
+            int current = position;
+            position = current + 1 == keyCount ? 0 : current + 1;
+            return current;
+        }
+    }
+    
+    @Benchmark
+    public RateLimitResponse checkLimit(KeyCursor cursor) {
+        return rateLimiter.checkLimit(keys[cursor.next(keyCount)]);
+    }
+}
\ No newline at end of file
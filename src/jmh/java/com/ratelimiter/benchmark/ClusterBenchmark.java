@@ -0,0 +1,100 @@
+package com.ratelimiter.benchmark;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ratelimiter.cluster.ClusterRateLimiter;
+import com.ratelimiter.cluster.LoopbackCluster;
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitRule;
+
+/**
+ * Cluster Mode Benchmark
+ * Measures checks spread over a loopback cluster, steady and while the ring is rebalancing
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ClusterBenchmark {
+    private static final int KEY_COUNT = 10_000;
+    
+    @Param({"1", "2", "4", "8"})
+    public int nodeCount;
+    
+    /**
+     * STEADY = fixed ring, REBALANCING = a node joins at the start of every iteration and leaves at its end,
+     * so every iteration runs inside a handoff
+     */
+    @Param({"STEADY", "REBALANCING"})
+    public String membership;
+    
+    private LoopbackCluster cluster;
+    private List<ClusterRateLimiter> nodes;
+    private String[] keys;
+    private String joinedNode;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, RateLimitRule> rules = new HashMap<>();
+        RateLimitRule rule = new RateLimitRule.Builder()
+            .maxRequests(Integer.MAX_VALUE)
+            .timeWindow(Duration.ofSeconds(1))
+            .algorithm("TOKEN_BUCKET")
+            .build();
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "bench:key:" + i;
+            rules.put(keys[i], rule);
+        }
+        cluster = new LoopbackCluster(rules, nodeCount, Duration.ofMinutes(1));
+        nodes = cluster.getNodes();
+    }
+    
+    @Setup(Level.Iteration)
+    public void join() {
+        if ("REBALANCING".equals(membership)) {
+            joinedNode = cluster.addNode().getNodeId();
+        }
+    }
+    
+    @TearDown(Level.Iteration)
+    public void leave() {
+        if (joinedNode != null) {
+            cluster.removeNode(joinedNode, true);
+            joinedNode = null;
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.close();
+    }
+    
+    @Benchmark
+    public RateLimitResponse checkLimit() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ClusterRateLimiter entry = nodes.get(random.nextInt(nodes.size()));
+        return entry.checkLimit(keys[random.nextInt(KEY_COUNT)]);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+package com.ratelimiter.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ratelimiter.clock.ManualTimeSource;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.storage.InMemoryRateLimitStorage;
+
+/**
+ * InMemoryRateLimitStorage Update Benchmark
+ * Measures each storage update on resident keys, the steady state of a busy limiter
+ * 
+ * The clock is manual and never advanced, so no key expires during a run and every operation
+ * updates an existing entry. Keys are storage keys, as the algorithms use them.
+ * Run through BenchmarkRunner, gc.alloc.rate.norm should stay at 0 B/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class StorageUpdateBenchmark {
+    private static final Duration EXPIRY = Duration.ofHours(1);
+    
+    /**
+     * 1 = a single hot key shared by every thread, otherwise distinct keys
+     */
+    @Param({"1", "100000"})
+    public int keyCount;
+    
+    private InMemoryRateLimitStorage storage;
+    private StorageKey[] keys;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        storage = new InMemoryRateLimitStorage(new ManualTimeSource());
+        keys = new StorageKey[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = StorageKey.of("bench:key:" + i, 'c');
+            storage.set(keys[i], 0, EXPIRY);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.shutdown();
+    }
+    
+    /**
+     * Per-thread key cursor, started at a random offset so threads do not walk the keys in lockstep
+     */
+    @State(Scope.Thread)
+    public static class KeyCursor {
+        private int position;
+        
+        @Setup(Level.Trial)
+        public void setUp(StorageUpdateBenchmark benchmark) {
+            position = ThreadLocalRandom.current().nextInt(benchmark.keyCount);
+        }
+        
+        int next(int keyCount) {
+            int current = position;
+            position = current + 1 == keyCount ? 0 : current + 1;
+            return current;
+        }
+    }
+    
+    @Benchmark
+    public void set(KeyCursor cursor) {
+        storage.set(keys[cursor.next(keyCount)], 1, EXPIRY);
+    }
+    
+    @Benchmark
+    public long incrementAndGet(KeyCursor cursor) {
+        return storage.incrementAndGet(keys[cursor.next(keyCount)], 1, EXPIRY);
+    }
+    
+    @Benchmark
+    public long incrementIfBelow(KeyCursor cursor) {
+        // The limit is never reached, so every call writes
+        return storage.incrementIfBelow(keys[cursor.next(keyCount)], 1, Long.MAX_VALUE, EXPIRY);
+    }
+    
+    @Benchmark
+    public long advanceIfBelow(KeyCursor cursor) {
+        return storage.advanceIfBelow(keys[cursor.next(keyCount)], 1, 0, Long.MAX_VALUE, EXPIRY);
+    }
+    
+    @Benchmark
+    public boolean compareAndSet(KeyCursor cursor) {
+        StorageKey key = keys[cursor.next(keyCount)];
+        long current = storage.get(key);
+        return storage.compareAndSet(key, current, current + 1, EXPIRY);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+package com.ratelimiter.algorithms;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.core.StorageOperation;
+
+/**
+ * Composite Algorithm
+ * Composite Pattern - Enforces several bands of a rule, such as per second and per day, as one decision
+ * 
+ * Each band is a storage-backed algorithm created for its band number, which keeps its state under the
+ * same base key as the other bands but a field of its own, see {@link #bandField(char, int)}. A request
+ * is decided by a single {@link StorageOperation#all(List)} of the bands' operations, so it costs one
+ * storage call and is admitted by all bands or consumes none of them. Being one operation, it is sent
+ * through the asynchronous storage and batched with other keys like any storage-backed decision.
+ * 
+ * The storage records every band's result in the operation, and the response combines the bands' own
+ * decisions: the fewest permits left of any band, the longest wait of the bands that denied, and the
+ * latest reset. The decision therefore needs the executed operation, not only its result.
+ */
+public class CompositeAlgorithm implements StorageBackedAlgorithm {
+    /**
+     * Most bands a rule may have, so that every band has a field of its own
+     */
+    public static final int MAX_BANDS = 64;
+    // Fields of further bands are the first band's field moved by this much per band
+    private static final int BAND_FIELD_STRIDE = 0x100;
+    
+    private final List<StorageBackedAlgorithm> bands;
+    private final RateLimitStorage storage;
+    
+    /**
+     * @param bands The algorithm of each band, created for its position in the list, all using the given storage
+     * @param storage The storage holding the bands' state
+     */
+    public CompositeAlgorithm(List<StorageBackedAlgorithm> bands, RateLimitStorage storage) {
+        if (bands == null || bands.isEmpty()) {
+            throw new IllegalArgumentException("Bands cannot be empty");
+        }
+        if (bands.size() > MAX_BANDS) {
+            throw new IllegalArgumentException("At most " + MAX_BANDS + " bands are supported");
+        }
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage cannot be null");
+        }
+        this.bands = Collections.unmodifiableList(new ArrayList<>(bands));
+        this.storage = storage;
+    }
+    
+    @Override
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        StorageOperation operation = operationFor(key, timestamp, permits);
+        return decisionFor(key, operation, storage.execute(operation), timestamp, permits);
+    }
+    
+    @Override
+    public StorageOperation operationFor(String key, long timestamp, int permits) {
+        List<StorageOperation> operations = new ArrayList<>(bands.size());
+        for (int i = 0; i < bands.size(); i++) {
+            operations.add(bands.get(i).operationFor(key, timestamp, permits));
+        }
+        return StorageOperation.all(operations);
+    }
+    
+    @Override
+    public RateLimitResponse decisionFor(String key, StorageOperation operation, long result, long timestamp,
+                                         int permits) {
+        long[] results = operation.getResults();
+        if (results == null) {
+            throw new IllegalStateException("Operation has not been executed: " + operation);
+        }
+        
+        boolean allowed = true;
+        long remaining = Long.MAX_VALUE;
+        Duration retryAfter = Duration.ZERO;
+        long resetTime = timestamp;
+        for (int i = 0; i < bands.size(); i++) {
+            RateLimitResponse band = bands.get(i).decisionFor(key, operation.getOperations().get(i),
+                results[i], timestamp, permits);
+            resetTime = Math.max(resetTime, band.getResetTime());
+            if (band.isAllowed()) {
+                remaining = Math.min(remaining, band.getRemainingRequests());
+            } else {
+                allowed = false;
+                if (band.getRetryAfter().compareTo(retryAfter) > 0) {
+                    retryAfter = band.getRetryAfter();
+                }
+            }
+        }
+        if (!allowed) {
+            return RateLimitResponse.denied(retryAfter, resetTime);
+        }
+        return RateLimitResponse.allowed(remaining, resetTime);
+    }
+    
+    @Override
+    public void reset(String key) {
+        for (int i = 0; i < bands.size(); i++) {
+            bands.get(i).reset(key);
+        }
+    }
+    
+    @Override
+    public String getAlgorithmName() {
+        return "COMPOSITE";
+    }
+    
+    /**
+     * Get the algorithms of the bands, in the order of the rule's bands
+     * 
+     * @return The band algorithms
+     */
+    public List<StorageBackedAlgorithm> getBands() {
+        return bands;
+    }
+    
+    /**
+     * Get the storage key field a band keeps its state under
+     * The first band keeps the algorithm's own field, so a rule that gains bands keeps its state.
+     * 
+     * @param field The field the algorithm uses for a single-band rule, below 0x100
+     * @param band The band number
+     * @return The band's field
+     * @throws IllegalArgumentException if the band number is negative or not below {@link #MAX_BANDS}
+     */
+    public static char bandField(char field, int band) {
+        if (band < 0 || band >= MAX_BANDS) {
+            throw new IllegalArgumentException("Band must be between 0 and " + (MAX_BANDS - 1) + ": " + band);
+        }
+        return (char) (field + band * BAND_FIELD_STRIDE);
+    }
+}
\ No newline at end of file
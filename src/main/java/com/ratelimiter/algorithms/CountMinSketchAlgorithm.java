@@ -0,0 +1,286 @@
+package com.ratelimiter.algorithms;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Count-Min Sketch Algorithm
+ * Advanced: Approximate sliding window counts for any number of keys in a fixed amount of memory
+ * 
+ * The window is split into slices and each slice counts requests in its own Count-Min sketch of
+ * depth rows by width counters; a ring of slices + 1 sketches is rotated as time moves on. A key's
+ * count in the window is the sum of its estimates in the current and the previous full slices plus
+ * the still overlapping part of the oldest one, as in the sliding window counter.
+ * 
+ * Estimates never undercount a key. With width = ceil(e / epsilon) and depth = ceil(ln(1 / delta)),
+ * a slice overcounts a key by more than epsilon times the requests of all keys in that slice with
+ * probability at most delta, so heavy traffic of other keys can only make a key's limit stricter.
+ * Counters use conservative update: only the rows below the key's new estimate are raised. The check
+ * and the update happen in one CAS loop per request whatever its cost, there are no per-key locks or
+ * per-key state. Remaining permits and retry-after are exact with respect to the same estimates.
+ */
+public class CountMinSketchAlgorithm implements RateLimitingAlgorithm {
+    public static final double DEFAULT_EPSILON = 0.001;
+    public static final double DEFAULT_DELTA = 0.01;
+    public static final int DEFAULT_SLICES = 4;
+    
+    private final int maxRequests;
+    private final long sliceMillis;
+    private final int slices;
+    private final int width;
+    private final int depth;
+    // Hashes are seeded per instance so colliding keys cannot be precomputed
+    private final long seed;
+    private final AtomicReferenceArray<Slice> ring;
+    private final TimeSource timeSource;
+    
+    /**
+     * Sketch of the requests in one slice of time, replaced as a whole when its ring slot is reused
+     */
+    private static final class Slice {
+        final long id;
+        final AtomicIntegerArray counters;
+        
+        Slice(long id, int size) {
+            this.id = id;
+            this.counters = new AtomicIntegerArray(size);
+        }
+    }
+    
+    public CountMinSketchAlgorithm(int maxRequests, Duration timeWindow) {
+        this(maxRequests, timeWindow, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * @param maxRequests Most requests admitted per key and window
+     * @param timeWindow Length of the sliding window
+     * @param timeSource The clock used when no request timestamp is given, as in monitoring
+     */
+    public CountMinSketchAlgorithm(int maxRequests, Duration timeWindow, TimeSource timeSource) {
+        this(maxRequests, timeWindow, DEFAULT_EPSILON, DEFAULT_DELTA, DEFAULT_SLICES, timeSource);
+    }
+    
+    /**
+     * @param maxRequests Most requests admitted per key and window
+     * @param timeWindow Length of the sliding window
+     * @param epsilon Overcount bound as a share of all requests in a slice, in (0, 1)
+     * @param delta Probability of exceeding the overcount bound, in (0, 1)
+     * @param slices Number of slices the window is split into, more slices follow the window more closely
+     */
+    public CountMinSketchAlgorithm(int maxRequests, Duration timeWindow, double epsilon, double delta, int slices) {
+        this(maxRequests, timeWindow, epsilon, delta, slices, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * @param maxRequests Most requests admitted per key and window
+     * @param timeWindow Length of the sliding window
+     * @param epsilon Overcount bound as a share of all requests in a slice, in (0, 1)
+     * @param delta Probability of exceeding the overcount bound, in (0, 1)
+     * @param slices Number of slices the window is split into, more slices follow the window more closely
+     * @param timeSource The clock used when no request timestamp is given, as in monitoring
+     */
+    public CountMinSketchAlgorithm(int maxRequests, Duration timeWindow, double epsilon, double delta, int slices,
+                                   TimeSource timeSource) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("Max requests must be positive");
+        }
+        if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("Epsilon and delta must be in (0, 1)");
+        }
+        if (slices <= 0 || timeWindow == null || timeWindow.toMillis() < slices) {
+            throw new IllegalArgumentException("Time window must be at least one millisecond per slice");
+        }
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        this.maxRequests = maxRequests;
+        this.sliceMillis = timeWindow.toMillis() / slices;
+        this.slices = slices;
+        this.width = (int) Math.min(Integer.MAX_VALUE / 64, Math.ceil(Math.E / epsilon));
+        this.depth = (int) Math.min(16, Math.ceil(Math.log(1 / delta)));
+        this.seed = ThreadLocalRandom.current().nextLong();
+        this.ring = new AtomicReferenceArray<>(slices + 1);
+        this.timeSource = timeSource;
+    }
+    
+    @Override
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        long sliceId = timestamp / sliceMillis;
+        Slice current = slice(sliceId);
+        int[] cells = cells(key);
+        
+        // Full slices before the current one, and the part of the oldest one still in the window
+        double older = 0;
+        for (int i = 1; i < slices; i++) {
+            older += estimate(existingSlice(sliceId - i), cells);
+        }
+        double overlap = 1 - (timestamp % sliceMillis) / (double) sliceMillis;
+        older += estimate(existingSlice(sliceId - slices), cells) * overlap;
+        // The current slice stops counting once it has slid out of the window
+        long resetTime = (sliceId + slices + 1) * sliceMillis;
+        
+        AtomicIntegerArray counters = current.counters;
+        int[] seen = new int[depth];
+        retry:
+        while (true) {
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                seen[row] = counters.get(cells[row]);
+                min = Math.min(min, seen[row]);
+            }
+            if (older + min + permits > maxRequests) {
+                return RateLimitResponse.denied(retryAfter(sliceId, timestamp, cells, permits), resetTime);
+            }
+            // Conservative update: raise only the rows below the new estimate. Counters only grow,
+            // so a failed CAS means another request was counted first and the check is repeated.
+            for (int row = 0; row < depth; row++) {
+                if (seen[row] < min + permits && !counters.compareAndSet(cells[row], seen[row], min + permits)) {
+                    continue retry;
+                }
+            }
+            long remaining = (long) Math.floor(maxRequests - older - min - permits);
+            return RateLimitResponse.allowed(Math.max(0, remaining), resetTime);
+        }
+    }
+    
+    /**
+     * Get the wait until the estimate leaves room for the permits, assuming no further requests
+     * While slice k from now is the current one, the full slices are those of age 0 to slices - 1 - k
+     * and the one of age slices - k is sliding out linearly, so the estimate is piecewise linear in time.
+     */
+    private Duration retryAfter(long sliceId, long timestamp, int[] cells, int permits) {
+        if (permits > maxRequests) {
+            // Never fits, however long the caller waits
+            return Duration.ofMillis(sliceMillis * slices);
+        }
+        int[] byAge = new int[slices + 1];
+        for (int age = 0; age <= slices; age++) {
+            byAge[age] = estimate(existingSlice(sliceId - age), cells);
+        }
+        
+        long full = 0;
+        for (int age = 0; age < slices; age++) {
+            full += byAge[age];
+        }
+        for (int k = 0; k <= slices; k++) {
+            if (k > 0) {
+                full -= byAge[slices - k];
+            }
+            long room = maxRequests - permits - full;
+            if (room < 0) {
+                continue;
+            }
+            long sliceStart = (sliceId + k) * sliceMillis;
+            long from = Math.max(sliceStart, timestamp);
+            int sliding = byAge[slices - k];
+            // Fraction of the slice after which the sliding slice's share fits in the room left
+            double fraction = sliding == 0 ? 0 : 1 - room / (double) sliding;
+            long at = Math.max(from, sliceStart + (long) Math.ceil(fraction * sliceMillis));
+            return Duration.ofMillis(at - timestamp);
+        }
+        return Duration.ofMillis(sliceMillis * slices);
+    }
+    
+    /**
+     * Get the sketch of a slice, replacing the one of an earlier slice held in its ring slot
+     */
+    private Slice slice(long sliceId) {
+        int index = (int) Math.floorMod(sliceId, (long) ring.length());
+        while (true) {
+            Slice slice = ring.get(index);
+            if (slice != null && slice.id >= sliceId) {
+                // A request older than the slot's slice is counted in the newer slice, never lost
+                return slice;
+            }
+            Slice fresh = new Slice(sliceId, width * depth);
+            if (ring.compareAndSet(index, slice, fresh)) {
+                return fresh;
+            }
+        }
+    }
+    
+    private Slice existingSlice(long sliceId) {
+        Slice slice = ring.get((int) Math.floorMod(sliceId, (long) ring.length()));
+        return slice != null && slice.id == sliceId ? slice : null;
+    }
+    
+    private int estimate(Slice slice, int[] cells) {
+        if (slice == null) {
+            return 0;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, slice.counters.get(cells[row]));
+        }
+        return min;
+    }
+    
+    /**
+     * Counter index of the key in each row, derived from two halves of one 64-bit hash
+     */
+    private int[] cells(String key) {
+        long hash = seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int[] cells = new int[depth];
+        for (int row = 0; row < depth; row++) {
+            cells[row] = row * width + Math.floorMod(h1 + row * h2, width);
+        }
+        return cells;
+    }
+    
+    /**
+     * A sketch cannot forget a single key, its counts age out with the window instead
+     */
+    @Override
+    public void reset(String key) {
+        // Nothing is stored per key
+    }
+    
+    @Override
+    public String getAlgorithmName() {
+        return "COUNT_MIN_SKETCH";
+    }
+    
+    /**
+     * Get the estimated request count of a key in the current window (for testing/monitoring)
+     * 
+     * @param key The key to check
+     * @return Estimated request count, never below the true count
+     */
+    public double getEstimatedRequestCount(String key) {
+        long timestamp = timeSource.currentTimeMillis();
+        long sliceId = timestamp / sliceMillis;
+        int[] cells = cells(key);
+        double count = 0;
+        for (int i = 0; i < slices; i++) {
+            count += estimate(existingSlice(sliceId - i), cells);
+        }
+        double overlap = 1 - (timestamp % sliceMillis) / (double) sliceMillis;
+        return count + estimate(existingSlice(sliceId - slices), cells) * overlap;
+    }
+    
+    /**
+     * Get the fixed memory used by the counters, independent of the number of keys
+     * 
+     * @return Counter bytes across all slices of the ring
+     */
+    public long getMemoryBytes() {
+        return 4L * width * depth * ring.length();
+    }
+}
\ No newline at end of file
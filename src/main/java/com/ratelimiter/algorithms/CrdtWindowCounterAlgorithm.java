@@ -0,0 +1,30 @@
+package com.ratelimiter.algorithms;
+
+import java.time.Duration;
+
+import com.ratelimiter.crdt.CrdtCounterStorage;
+
+/**
+ * CRDT Window Counter Algorithm
+ * Advanced: The sliding window counter over per-node PN-counter shards; every decision is local
+ * and the nodes' counts converge through background gossip
+ * 
+ * Window counts are only ever incremented and the previous window is only read, which is exactly
+ * what a grow-only counter merges without coordination. The limit is approximately global: a node
+ * may over-admit by what the other nodes admitted since their last gossip round reached it.
+ */
+public class CrdtWindowCounterAlgorithm extends SlidingWindowCounterAlgorithm {
+    
+    public CrdtWindowCounterAlgorithm(int maxRequests, Duration timeWindow, CrdtCounterStorage storage) {
+        super(maxRequests, timeWindow, storage);
+    }
+    
+    public CrdtWindowCounterAlgorithm(int maxRequests, Duration timeWindow, CrdtCounterStorage storage, int band) {
+        super(maxRequests, timeWindow, storage, band);
+    }
+    
+    @Override
+    public String getAlgorithmName() {
+        return "CRDT_WINDOW_COUNTER";
+    }
+}
\ No newline at end of file
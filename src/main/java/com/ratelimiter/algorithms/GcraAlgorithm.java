@@ -0,0 +1,190 @@
+package com.ratelimiter.algorithms;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.ratelimiter.core.PacedAlgorithm;
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.StorageOperation;
+
+/**
+ * Generic Cell Rate Algorithm
+ * Advanced: Stores one theoretical arrival time per key and decides with one atomic storage operation
+ * 
+ * Requests are spaced by the emission interval T = period / limit. The theoretical arrival time (TAT)
+ * is when the key would be idle again if requests kept arriving at exactly that spacing. A request at
+ * time t moves it to max(TAT, t) + T and is admitted if that stays within the burst tolerance,
+ * i.e. at or below t + burst * T. This is {@link RateLimitStorage#advanceIfBelow} with t as the floor,
+ * so in-memory storage updates it in place and remote backends in a single script call.
+ * 
+ * The stored TAT answers the remaining and retry-after questions exactly: a key has
+ * (t + burst * T - TAT) / T permits left, a denied request can be retried once TAT - burst * T
+ * has passed, and the key is back to its full burst once the stored TAT has passed.
+ */
+public class GcraAlgorithm implements StorageBackedAlgorithm, PacedAlgorithm {
+    // Field of the key holding a theoretical arrival time
+    private static final char TAT = 't';
+    
+    private final RateLimitStorage storage;
+    private final long emissionNanos;
+    private final long toleranceNanos;
+    private final Duration stateExpiry;
+    private final char field;
+    
+    /**
+     * GCRA whose burst equals the limit, the same shape as a token bucket of that capacity
+     * 
+     * @param limit Requests admitted per period
+     * @param period Length of the period
+     * @param storage The storage holding the arrival times
+     */
+    public GcraAlgorithm(int limit, Duration period, RateLimitStorage storage) {
+        this(limit, period, limit, storage);
+    }
+    
+    /**
+     * @param limit Requests admitted per period
+     * @param period Length of the period
+     * @param burst Requests admitted back to back after the key was idle
+     * @param storage The storage holding the arrival times
+     */
+    public GcraAlgorithm(int limit, Duration period, int burst, RateLimitStorage storage) {
+        this(limit, period, burst, storage, 0);
+    }
+    
+    /**
+     * @param limit Requests admitted per period
+     * @param period Length of the period
+     * @param burst Requests admitted back to back after the key was idle
+     * @param storage The storage holding the arrival times
+     * @param band The band of a multi-band rule this algorithm enforces, 0 for a single-band rule
+     */
+    public GcraAlgorithm(int limit, Duration period, int burst, RateLimitStorage storage, int band) {
+        if (limit <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Limit and burst must be positive");
+        }
+        if (period == null || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage cannot be null");
+        }
+        this.storage = storage;
+        this.field = CompositeAlgorithm.bandField(TAT, band);
+        this.emissionNanos = Math.max(1, period.toNanos() / limit);
+        // Saturated so that "now + toleranceNanos" cannot overflow
+        this.toleranceNanos = (long) Math.min((double) burst * emissionNanos, Long.MAX_VALUE / 4);
+        // Once the TAT is in the past the key is idle, which is the same as a missing one
+        this.stateExpiry = Duration.ofNanos(toleranceNanos).plusMillis(1);
+    }
+    
+    @Override
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        long tat = storage.advanceIfBelow(StorageKey.of(key, field), emissionNanos(permits), now, now + toleranceNanos,
+            stateExpiry);
+        return decisionFor(tat, timestamp, permits);
+    }
+    
+    @Override
+    public StorageOperation operationFor(String key, long timestamp, int permits) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        return StorageOperation.advanceIfBelow(StorageKey.of(key, field), emissionNanos(permits), now,
+            now + toleranceNanos, stateExpiry);
+    }
+    
+    /**
+     * Spacing taken by a request of several permits, saturated like the tolerance since a cost
+     * beyond the burst is never admitted anyway
+     */
+    private long emissionNanos(int permits) {
+        return (long) Math.min((double) permits * emissionNanos, Long.MAX_VALUE / 4);
+    }
+    
+    @Override
+    public RateLimitResponse decisionFor(String key, StorageOperation operation, long result, long timestamp,
+                                         int permits) {
+        return decisionFor(result, timestamp, permits);
+    }
+    
+    /**
+     * Turn the result of the operation from {@link #operationFor(String, long, int)} into the decision
+     * 
+     * @param tat The theoretical arrival time the storage returned
+     * @param timestamp The timestamp the operation was described for
+     * @param permits The permits the operation was described for
+     * @return The decision with remaining permits, retry-after and reset time
+     */
+    public RateLimitResponse decisionFor(long tat, long timestamp, int permits) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        if (tat <= now + toleranceNanos) {
+            return RateLimitResponse.allowed(remainingAfter(tat, timestamp), idleAt(tat));
+        }
+        // Not stored: the key keeps the TAT from before this request
+        return RateLimitResponse.denied(retryAfter(tat, timestamp), idleAt(tat - emissionNanos(permits)));
+    }
+    
+    /**
+     * Timestamp in milliseconds at which a key with the given TAT is idle and has its full burst again
+     */
+    private static long idleAt(long tat) {
+        return -Math.floorDiv(-tat, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    
+    @Override
+    public long reserve(String key, long timestamp, long maxWaitNanos) {
+        // A permit maxWait ahead is one whose TAT fits within the tolerance from then on
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        long maxWait = Math.min(Math.max(0, maxWaitNanos), Long.MAX_VALUE / 4);
+        long tat = storage.advanceIfBelow(StorageKey.of(key, field), emissionNanos, now, now + maxWait + toleranceNanos,
+            stateExpiry.plusNanos(maxWait));
+        return tat > now + maxWait + toleranceNanos ? -1 : Math.max(0, tat - toleranceNanos - now);
+    }
+    
+    @Override
+    public void reset(String key) {
+        storage.delete(StorageKey.of(key, field));
+    }
+    
+    @Override
+    public String getAlgorithmName() {
+        return "GCRA";
+    }
+    
+    /**
+     * Get the permits left after a decision
+     * 
+     * @param tat The theoretical arrival time returned by the decision's storage operation
+     * @param timestamp The timestamp of the request in milliseconds
+     * @return Requests that can be admitted right away
+     */
+    public long remainingAfter(long tat, long timestamp) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        return Math.max(0, now + toleranceNanos - Math.max(tat, now)) / emissionNanos;
+    }
+    
+    /**
+     * Get how long a denied request has to wait
+     * 
+     * @param tat The theoretical arrival time returned by the decision's storage operation
+     * @param timestamp The timestamp of the request in milliseconds
+     * @return Time until the same request would be admitted, zero if it was admitted
+     */
+    public Duration retryAfter(long tat, long timestamp) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        return Duration.ofNanos(Math.max(0, tat - toleranceNanos - now));
+    }
+    
+    /**
+     * Get the permits a key has left now (for testing/monitoring)
+     * 
+     * @param key The key to check
+     * @return Requests that can be admitted right away
+     */
+    public long getRemaining(String key) {
+        return remainingAfter(storage.get(StorageKey.of(key, field)), storage.getTimeSource().currentTimeMillis());
+    }
+}
\ No newline at end of file
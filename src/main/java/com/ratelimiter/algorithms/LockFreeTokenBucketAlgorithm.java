@@ -0,0 +1,206 @@
+package com.ratelimiter.algorithms;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ratelimiter.core.PacedAlgorithm;
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.core.TimeSource;
+import com.ratelimiter.eviction.KeyStateBudget;
+import com.ratelimiter.eviction.KeyStateMap;
+import com.ratelimiter.snapshot.SnapshotReader;
+import com.ratelimiter.snapshot.SnapshotWriter;
+import com.ratelimiter.snapshot.Snapshottable;
+
+/**
+ * Lock-Free Token Bucket Algorithm
+ * Advanced: Keeps each bucket in a single CAS-updated word, no locks and no allocation per request
+ * 
+ * The word holds the nanosecond instant at which the bucket was (or will be) empty.
+ * Tokens are a fixed-point number whose unit is one nanosecond of refill time:
+ * at time t the bucket holds (t - emptyAt) / nanosPerToken tokens, capped at capacity.
+ * Consuming a token moves emptyAt forward by nanosPerToken, so fractional tokens are
+ * carried over exactly instead of being truncated.
+ */
+public class LockFreeTokenBucketAlgorithm implements RateLimitingAlgorithm, PacedAlgorithm, Snapshottable {
+    private static final long UNSET = Long.MIN_VALUE;
+    // AtomicLong header and value
+    private static final long BUCKET_BYTES = 24;
+    
+    private final int capacity;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final KeyStateMap<AtomicLong> buckets;
+    private final TimeSource timeSource;
+    // Snapshot still being restored from, consulted when a key has no bucket yet
+    private volatile SnapshotReader snapshot;
+    
+    public LockFreeTokenBucketAlgorithm(int capacity, double refillRate) {
+        this(capacity, refillRate, KeyStateBudget.unbounded());
+    }
+    
+    /**
+     * @param capacity Most tokens a bucket holds
+     * @param refillRate Tokens added per second
+     * @param budget Bounds the buckets held in memory, an evicted bucket starts out full again
+     */
+    public LockFreeTokenBucketAlgorithm(int capacity, double refillRate, KeyStateBudget budget) {
+        this(capacity, refillRate, budget, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * @param capacity Most tokens a bucket holds
+     * @param refillRate Tokens added per second
+     * @param budget Bounds the buckets held in memory, an evicted bucket starts out full again
+     * @param timeSource The clock used when no request timestamp is given, as in monitoring
+     */
+    public LockFreeTokenBucketAlgorithm(int capacity, double refillRate, KeyStateBudget budget,
+                                        TimeSource timeSource) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (!(refillRate > 0)) {
+            throw new IllegalArgumentException("Refill rate must be positive");
+        }
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / refillRate));
+        // Time to refill an empty bucket, saturated so that "now - burstNanos" cannot overflow
+        this.burstNanos = (long) Math.min((double) capacity * nanosPerToken, Long.MAX_VALUE / 4);
+        this.buckets = budget.newMap(bucket -> BUCKET_BYTES, null);
+        this.timeSource = timeSource;
+    }
+    
+    @Override
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, this::createBucket);
+        }
+        
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        long fullAt = now - burstNanos;
+        // Saturated like burstNanos, more than a full bucket is never admitted anyway
+        long refillNanos = (long) Math.min((double) permits * nanosPerToken, Long.MAX_VALUE / 4);
+        
+        while (true) {
+            long emptyAt = bucket.get();
+            // A bucket never holds more than capacity tokens
+            long base = Math.max(emptyAt, fullAt);
+            long next = base + refillNanos;
+            
+            if (next > now) {
+                return RateLimitResponse.denied(Duration.ofNanos(next - now), fullAt(base));
+            }
+            if (bucket.compareAndSet(emptyAt, next)) {
+                return RateLimitResponse.allowed((now - next) / nanosPerToken, fullAt(next));
+            }
+        }
+    }
+    
+    /**
+     * Timestamp in milliseconds at which a bucket that is empty at emptyAt holds capacity tokens again
+     */
+    private long fullAt(long emptyAt) {
+        return -Math.floorDiv(-(emptyAt + burstNanos), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    
+    @Override
+    public long reserve(String key, long timestamp, long maxWaitNanos) {
+        AtomicLong bucket = buckets.computeIfAbsent(key, this::createBucket);
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        long fullAt = now - burstNanos;
+        long limit = now + Math.min(Math.max(0, maxWaitNanos), Long.MAX_VALUE / 4);
+        
+        while (true) {
+            long emptyAt = bucket.get();
+            // emptyAt past now is a debt of reserved tokens that later requests queue behind
+            long next = Math.max(emptyAt, fullAt) + nanosPerToken;
+            if (next > limit) {
+                return -1;
+            }
+            if (bucket.compareAndSet(emptyAt, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+    
+    /**
+     * Create the bucket for a key, restoring its state if the key is in the snapshot
+     */
+    private AtomicLong createBucket(String key) {
+        SnapshotReader reader = restoringSnapshot();
+        if (reader != null) {
+            long[] state = reader.take(getAlgorithmName(), key);
+            if (state != null) {
+                return new AtomicLong(state[0]);
+            }
+        }
+        return new AtomicLong(UNSET);
+    }
+    
+    @Override
+    public void reset(String key) {
+        SnapshotReader reader = restoringSnapshot();
+        if (reader != null) {
+            reader.discard(getAlgorithmName(), key);
+        }
+        buckets.remove(key);
+    }
+    
+    @Override
+    public void writeSnapshot(SnapshotWriter writer) throws IOException {
+        for (Map.Entry<String, AtomicLong> entry : buckets.entries()) {
+            long emptyAt = entry.getValue().get();
+            if (emptyAt != UNSET) {
+                // Once the bucket has refilled completely the state carries no information
+                long validUntil = TimeUnit.NANOSECONDS.toMillis(emptyAt + burstNanos);
+                writer.write(getAlgorithmName(), entry.getKey(), validUntil, emptyAt);
+            }
+        }
+    }
+    
+    @Override
+    public void restoreFrom(SnapshotReader reader) {
+        this.snapshot = reader;
+    }
+    
+    /**
+     * Get the snapshot still being restored from, letting go of it once it is exhausted
+     */
+    private SnapshotReader restoringSnapshot() {
+        SnapshotReader reader = snapshot;
+        if (reader != null && reader.isExhausted()) {
+            snapshot = null;
+            return null;
+        }
+        return reader;
+    }
+    
+    @Override
+    public String getAlgorithmName() {
+        return "LOCK_FREE_TOKEN_BUCKET";
+    }
+    
+    /**
+     * Get the current token count for a key, including the fractional part (for testing/monitoring)
+     * 
+     * @param key The key to check
+     * @return Current token count
+     */
+    public double getCurrentTokens(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            return capacity;
+        }
+        long now = TimeUnit.MILLISECONDS.toNanos(timeSource.currentTimeMillis());
+        long base = Math.max(bucket.get(), now - burstNanos);
+        return (now - base) / (double) nanosPerToken;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,365 @@
+package com.ratelimiter.algorithms;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.core.StorageOperation;
+import com.ratelimiter.eviction.KeyStateBudget;
+import com.ratelimiter.eviction.KeyStateMap;
+import com.ratelimiter.storage.ExpiryScheduler;
+
+/**
+ * Quota Leasing Algorithm
+ * Decorator Pattern - Leases batches of permits from a storage-backed algorithm and hands them out
+ * locally, so most decisions never reach the shared storage
+ * 
+ * A lease is taken from the shared limit in full when it is granted, so leasing never admits more
+ * than the limit in total; it only moves admissions up to one lease duration later than the shared
+ * state accounted for them. The bound on that over-admission is configured as the largest lease, a
+ * share of the rule's limit, held by each instance for each key.
+ * 
+ * Lease sizes follow each key's observed request rate so that a lease lasts about one lease duration:
+ * quiet keys lease a single permit, which is the same as asking the storage every time.
+ * 
+ * A renewal is a single {@link StorageOperation#each(List)} that first takes the current request's
+ * permits and then the rest of the lease, each on its own: close to the limit the request is still
+ * admitted when the whole batch would not fit. Being one operation, a renewal goes through the
+ * asynchronous storage and is batched with other keys, and requests served from a lease are decided
+ * by {@link #decideLocally(String, long, int)} without any storage call. One request per key renews
+ * at a time, the others are decided against the storage directly meanwhile; a renewal whose result
+ * never arrives, e.g. because the storage failed, is taken over after one lease duration.
+ * 
+ * A request served from a lease reports the permits left in the lease plus those the shared storage
+ * had left when the lease was granted, which is as current as the lease itself. Expired leases are
+ * dropped on the shared expiry thread.
+ */
+public class QuotaLeasingAlgorithm implements StorageBackedAlgorithm {
+    // Weight of the latest observation in the smoothed request rate
+    private static final double RATE_SMOOTHING = 0.5;
+    private static final long LEASE_BYTES = 96;
+    private static final long NOT_RENEWING = Long.MIN_VALUE;
+    private static final long MIN_CLEANUP_MILLIS = 1000;
+    
+    private final StorageBackedAlgorithm delegate;
+    private final RateLimitStorage storage;
+    private final int maxLeaseSize;
+    private final long leaseMillis;
+    private final KeyStateMap<Lease> leases;
+    private final ScheduledFuture<?> cleanupTask;
+    
+    /**
+     * Local permits of one key
+     * remaining, expiresAt and the volatile grant fields are read lock-free on every request; the other
+     * fields belong to the request that claimed the renewal through renewingSince.
+     */
+    private static final class Lease {
+        final AtomicInteger remaining = new AtomicInteger();
+        // Timestamp of the request renewing the lease, NOT_RENEWING if none
+        final AtomicLong renewingSince = new AtomicLong(NOT_RENEWING);
+        volatile long expiresAt;
+        // The shared storage's decision when the lease was granted
+        volatile long sharedRemaining;
+        volatile long resetTime;
+        // The operation of the renewal in flight and the permits it asks for
+        volatile StorageOperation renewal;
+        int renewalSize;
+        int granted;
+        long grantedAt;
+        // Smoothed request rate in requests per millisecond, 0 until first observed
+        double rate;
+    }
+    
+    /**
+     * Runs cleanup on the shared expiry thread for as long as the algorithm is in use
+     * The algorithm is only weakly reachable from the task, which cancels itself once it is collected.
+     */
+    private static final class CleanupTask implements Runnable {
+        private final WeakReference<QuotaLeasingAlgorithm> algorithm;
+        private volatile ScheduledFuture<?> handle;
+        
+        CleanupTask(QuotaLeasingAlgorithm algorithm) {
+            this.algorithm = new WeakReference<>(algorithm);
+        }
+        
+        @Override
+        public void run() {
+            QuotaLeasingAlgorithm target = algorithm.get();
+            if (target != null) {
+                target.cleanup();
+            } else if (handle != null) {
+                handle.cancel(false);
+            }
+        }
+    }
+    
+    /**
+     * @param delegate The algorithm whose storage operations leases are taken with
+     * @param storage The shared storage
+     * @param maxLeaseSize Most permits a single lease may hold
+     * @param leaseDuration Longest time leased permits are handed out before they are dropped
+     */
+    public QuotaLeasingAlgorithm(StorageBackedAlgorithm delegate, RateLimitStorage storage, int maxLeaseSize,
+                                 Duration leaseDuration) {
+        this(delegate, storage, maxLeaseSize, leaseDuration, KeyStateBudget.unbounded());
+    }
+    
+    /**
+     * @param delegate The algorithm whose storage operations leases are taken with
+     * @param storage The shared storage
+     * @param maxLeaseSize Most permits a single lease may hold
+     * @param leaseDuration Longest time leased permits are handed out before they are dropped
+     * @param budget Bounds the leases held in memory, permits left in an evicted lease are given up
+     */
+    public QuotaLeasingAlgorithm(StorageBackedAlgorithm delegate, RateLimitStorage storage, int maxLeaseSize,
+                                 Duration leaseDuration, KeyStateBudget budget) {
+        if (delegate == null || storage == null) {
+            throw new IllegalArgumentException("Delegate algorithm and storage cannot be null");
+        }
+        if (maxLeaseSize <= 0) {
+            throw new IllegalArgumentException("Max lease size must be positive");
+        }
+        if (leaseDuration == null || leaseDuration.toMillis() <= 0) {
+            throw new IllegalArgumentException("Lease duration must be at least one millisecond");
+        }
+        this.delegate = delegate;
+        this.storage = storage;
+        this.maxLeaseSize = maxLeaseSize;
+        this.leaseMillis = leaseDuration.toMillis();
+        this.leases = budget.newMap(lease -> LEASE_BYTES, null);
+        
+        CleanupTask task = new CleanupTask(this);
+        this.cleanupTask = ExpiryScheduler.schedule(task, Math.max(MIN_CLEANUP_MILLIS, leaseMillis));
+        task.handle = cleanupTask;
+    }
+    
+    @Override
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        RateLimitResponse response = decideLocally(key, timestamp, permits);
+        if (response != null) {
+            return response;
+        }
+        StorageOperation operation = operationFor(key, timestamp, permits);
+        long result;
+        try {
+            result = storage.execute(operation);
+        } catch (RuntimeException e) {
+            Lease lease = leases.get(key);
+            if (lease != null && lease.renewal == operation) {
+                release(lease);
+            }
+            throw e;
+        }
+        return decisionFor(key, operation, result, timestamp, permits);
+    }
+    
+    /**
+     * Take the permits from the key's lease
+     * 
+     * @return The decision, or null if there is no lease, it has expired or it holds too few permits
+     */
+    @Override
+    public RateLimitResponse decideLocally(String key, long timestamp, int permits) {
+        if (permits > maxLeaseSize) {
+            // Could never be served from a lease
+            return null;
+        }
+        Lease lease = leases.get(key);
+        return lease == null ? null : tryTake(lease, timestamp, permits);
+    }
+    
+    /**
+     * Describe the renewal of the key's lease, sized from the observed rate and starting with the current
+     * request's permits, or the plain operation of the delegate if the lease is renewed by another request
+     */
+    @Override
+    public StorageOperation operationFor(String key, long timestamp, int permits) {
+        if (permits > maxLeaseSize) {
+            return delegate.operationFor(key, timestamp, permits);
+        }
+        
+        Lease lease = leases.computeIfAbsent(key, k -> new Lease());
+        if (!claim(lease, timestamp)) {
+            // The lease is being renewed by another request: decide this one against the storage directly
+            return delegate.operationFor(key, timestamp, permits);
+        }
+        if (timestamp <= lease.expiresAt && lease.remaining.get() >= permits) {
+            // Another request renewed the lease since this one looked, keep its permits for the next ones
+            release(lease);
+            return delegate.operationFor(key, timestamp, permits);
+        }
+        
+        int unused = Math.max(0, lease.remaining.getAndSet(0));
+        if (lease.granted > 0) {
+            double observed = (lease.granted - unused) / (double) Math.max(1, timestamp - lease.grantedAt);
+            lease.rate = lease.rate == 0 ? observed : RATE_SMOOTHING * observed + (1 - RATE_SMOOTHING) * lease.rate;
+        }
+        int size = (int) Math.max(permits, Math.min(maxLeaseSize, Math.ceil(lease.rate * leaseMillis)));
+        
+        StorageOperation request = delegate.operationFor(key, timestamp, permits);
+        StorageOperation operation = size == permits ? request
+            : StorageOperation.each(List.of(request, delegate.operationFor(key, timestamp, size - permits)));
+        lease.renewalSize = size;
+        lease.renewal = operation;
+        return operation;
+    }
+    
+    /**
+     * Decide the request and, if the operation is the key's renewal, grant the permits it leased
+     */
+    @Override
+    public RateLimitResponse decisionFor(String key, StorageOperation operation, long result, long timestamp,
+                                         int permits) {
+        Lease lease = leases.get(key);
+        if (lease == null || lease.renewal != operation) {
+            // A direct decision, or a renewal that was taken over or whose lease was evicted
+            if (operation.getType() == StorageOperation.Type.EACH) {
+                return delegate.decisionFor(key, operation.getOperations().get(0), operation.getResults()[0],
+                    timestamp, permits);
+            }
+            return delegate.decisionFor(key, operation, result, timestamp, permits);
+        }
+        
+        try {
+            return grant(key, lease, operation, result, timestamp, permits);
+        } finally {
+            release(lease);
+        }
+    }
+    
+    /**
+     * Claim the renewal of a lease, taking over one that has been in flight for longer than a lease
+     */
+    private boolean claim(Lease lease, long timestamp) {
+        long since = lease.renewingSince.get();
+        if (since != NOT_RENEWING && timestamp - since <= leaseMillis) {
+            return false;
+        }
+        return lease.renewingSince.compareAndSet(since, timestamp);
+    }
+    
+    private static void release(Lease lease) {
+        lease.renewal = null;
+        lease.renewingSince.set(NOT_RENEWING);
+    }
+    
+    /**
+     * Take the permits from the local lease
+     * 
+     * @return The decision, or null if the lease has expired or holds too few permits
+     */
+    private static RateLimitResponse tryTake(Lease lease, long timestamp, int permits) {
+        if (timestamp > lease.expiresAt) {
+            return null;
+        }
+        while (true) {
+            int remaining = lease.remaining.get();
+            if (remaining < permits) {
+                return null;
+            }
+            if (lease.remaining.compareAndSet(remaining, remaining - permits)) {
+                return RateLimitResponse.allowed(remaining - permits + lease.sharedRemaining, lease.resetTime);
+            }
+        }
+    }
+    
+    /**
+     * Turn the results of a renewal into the request's decision and the new lease
+     * The request's permits and the rest of the lease were taken on their own, so either may have been denied.
+     */
+    private RateLimitResponse grant(String key, Lease lease, StorageOperation operation, long result,
+                                    long timestamp, int permits) {
+        RateLimitResponse response;
+        RateLimitResponse topUp = null;
+        int leased = 0;
+        if (operation.getType() == StorageOperation.Type.EACH) {
+            List<StorageOperation> parts = operation.getOperations();
+            long[] results = operation.getResults();
+            response = delegate.decisionFor(key, parts.get(0), results[0], timestamp, permits);
+            topUp = delegate.decisionFor(key, parts.get(1), results[1], timestamp, lease.renewalSize - permits);
+            if (topUp.isAllowed()) {
+                leased = lease.renewalSize - permits;
+            }
+        } else {
+            response = delegate.decisionFor(key, operation, result, timestamp, permits);
+        }
+        
+        RateLimitResponse shared = leased > 0 ? topUp : response;
+        lease.granted = leased + (response.isAllowed() ? permits : 0);
+        lease.grantedAt = timestamp;
+        if (shared.isAllowed()) {
+            lease.sharedRemaining = shared.getRemainingRequests();
+            lease.resetTime = shared.getResetTime();
+            lease.expiresAt = timestamp + leaseMillis;
+        }
+        lease.remaining.set(leased);
+        
+        if (!response.isAllowed()) {
+            return response;
+        }
+        return RateLimitResponse.allowed(leased + shared.getRemainingRequests(), shared.getResetTime());
+    }
+    
+    @Override
+    public void reset(String key) {
+        leases.remove(key);
+        delegate.reset(key);
+    }
+    
+    @Override
+    public String getAlgorithmName() {
+        return delegate.getAlgorithmName();
+    }
+    
+    /**
+     * Get the number of leased permits this instance holds for a key (for testing/monitoring)
+     * 
+     * @param key The key to check
+     * @return Permits left in the current lease
+     */
+    public int getLeasedPermits(String key) {
+        Lease lease = leases.get(key);
+        if (lease == null || storage.getTimeSource().currentTimeMillis() > lease.expiresAt) {
+            return 0;
+        }
+        return lease.remaining.get();
+    }
+    
+    /**
+     * Get the algorithm leases are taken from
+     * 
+     * @return The delegate algorithm
+     */
+    public StorageBackedAlgorithm getDelegate() {
+        return delegate;
+    }
+    
+    /**
+     * Drop expired leases for memory management
+     * Runs periodically on the shared expiry thread until {@link #shutdown()}.
+     */
+    public void cleanup() {
+        long currentTime = storage.getTimeSource().currentTimeMillis();
+        for (Map.Entry<String, Lease> entry : leases.entries()) {
+            Lease lease = entry.getValue();
+            if (currentTime > lease.expiresAt && lease.renewingSince.get() == NOT_RENEWING) {
+                leases.remove(entry.getKey(), lease);
+            }
+        }
+    }
+    
+    /**
+     * Stop the periodic cleanup of expired leases
+     * Otherwise it stops on its own once the algorithm is no longer referenced.
+     */
+    public void shutdown() {
+        cleanupTask.cancel(false);
+    }
+}
\ No newline at end of file
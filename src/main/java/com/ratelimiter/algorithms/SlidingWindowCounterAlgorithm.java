@@ -2,62 +2,123 @@ package com.ratelimiter.algorithms;
 
 import java.time.Duration;
 
+import com.ratelimiter.core.RateLimitResponse;
 import com.ratelimiter.core.RateLimitStorage;
-import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.StorageOperation;
 
 /**
  * Sliding Window Counter Algorithm
  * Advanced: Combines fixed window efficiency with sliding window accuracy
+ * 
+ * The storage returns the weighted count, so the remaining permits are exact with respect to it.
+ * It does not return how the count splits between the two windows, so a denied request is told to
+ * retry once the count would fit even if all of it were in the current window: that window's count
+ * then slides out during the next window like the previous one does now. This never sends a client
+ * back too early, and it is exact when the previous window has no share left.
  */
-public class SlidingWindowCounterAlgorithm implements RateLimitingAlgorithm {
+public class SlidingWindowCounterAlgorithm implements StorageBackedAlgorithm {
+    // Field of the keys holding the count of each window
+    private static final char COUNT = 'w';
+    
     private final int maxRequests;
     private final Duration timeWindow;
     private final RateLimitStorage storage;
+    private final char field;
     
     public SlidingWindowCounterAlgorithm(int maxRequests, Duration timeWindow, RateLimitStorage storage) {
+        this(maxRequests, timeWindow, storage, 0);
+    }
+    
+    /**
+     * @param maxRequests Requests admitted per window
+     * @param timeWindow Length of the window
+     * @param storage The storage holding the window counts
+     * @param band The band of a multi-band rule this algorithm enforces, 0 for a single-band rule
+     */
+    public SlidingWindowCounterAlgorithm(int maxRequests, Duration timeWindow, RateLimitStorage storage, int band) {
         this.maxRequests = maxRequests;
         this.timeWindow = timeWindow;
         this.storage = storage;
+        this.field = CompositeAlgorithm.bandField(COUNT, band);
     }
     
     @Override
-    public boolean isAllowed(String key, long timestamp) {
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
         long windowSizeMs = timeWindow.toMillis();
         long currentWindow = timestamp / windowSizeMs;
         long previousWindow = currentWindow - 1;
         
-        String currentKey = key + ":" + currentWindow;
-        String previousKey = key + ":" + previousWindow;
-        
-        long currentCount = storage.get(currentKey);
-        long previousCount = storage.get(previousKey);
+        StorageKey currentKey = StorageKey.of(key, field, currentWindow);
+        StorageKey previousKey = currentKey.inWindow(previousWindow);
         
-        // Calculate sliding window count
+        // Calculate sliding window count: previous * (1 - elapsed) + current must stay below maxRequests
         double timeInCurrentWindow = (timestamp % windowSizeMs) / (double) windowSizeMs;
-        double estimatedCount = previousCount * (1 - timeInCurrentWindow) + currentCount;
+        long estimatedCount = storage.incrementIfBelow(currentKey, previousKey, 1 - timeInCurrentWindow, permits,
+            maxRequests, timeWindow.multipliedBy(2));
+        return decisionFor(estimatedCount, timestamp, permits);
+    }
+    
+    @Override
+    public StorageOperation operationFor(String key, long timestamp, int permits) {
+        long windowSizeMs = timeWindow.toMillis();
+        long currentWindow = timestamp / windowSizeMs;
+        long previousWindow = currentWindow - 1;
         
-        if (estimatedCount < maxRequests) {
-            storage.increment(currentKey, 1, timeWindow.multipliedBy(2));
-            return true;
+        double timeInCurrentWindow = (timestamp % windowSizeMs) / (double) windowSizeMs;
+        StorageKey currentKey = StorageKey.of(key, field, currentWindow);
+        return StorageOperation.incrementIfBelow(currentKey, currentKey.inWindow(previousWindow),
+            1 - timeInCurrentWindow, permits, maxRequests, timeWindow.multipliedBy(2));
+    }
+    
+    @Override
+    public RateLimitResponse decisionFor(String key, StorageOperation operation, long result, long timestamp,
+                                         int permits) {
+        return decisionFor(result, timestamp, permits);
+    }
+    
+    /**
+     * Turn the result of the operation from {@link #operationFor(String, long, int)} into the decision
+     * 
+     * @param estimatedCount The weighted count the storage returned
+     * @param timestamp The timestamp the operation was described for
+     * @param permits The permits the operation was described for
+     * @return The decision with remaining permits, retry-after and reset time
+     */
+    public RateLimitResponse decisionFor(long estimatedCount, long timestamp, int permits) {
+        long windowSizeMs = timeWindow.toMillis();
+        long nextWindowStart = (timestamp / windowSizeMs + 1) * windowSizeMs;
+        // The current window's count stops counting one window after it closes
+        long resetTime = nextWindowStart + windowSizeMs;
+        if (estimatedCount <= maxRequests) {
+            return RateLimitResponse.allowed(maxRequests - estimatedCount, resetTime);
+        }
+        if (permits > maxRequests) {
+            // Never fits, however long the caller waits
+            return RateLimitResponse.denied(timeWindow, resetTime);
         }
         
-        return false;
+        // At most this much was counted in the current window, and this much may remain of it
+        long counted = estimatedCount - permits;
+        long room = maxRequests - permits;
+        long wait = nextWindowStart - timestamp;
+        if (counted > room) {
+            wait += (long) Math.ceil((1 - room / (double) counted) * windowSizeMs);
+        }
+        return RateLimitResponse.denied(Duration.ofMillis(wait), resetTime);
     }
     
     @Override
     public void reset(String key) {
-        // For a complete reset, we'd need to track all window keys
-        // This is a simplified version that resets the base key
-        storage.delete(key);
-        
-        // In a production implementation, you might want to track active windows
-        // and reset all of them
-        long currentTime = System.currentTimeMillis();
+        // Only the current and the previous window count, older ones expire on their own
+        long currentTime = storage.getTimeSource().currentTimeMillis();
         long windowSizeMs = timeWindow.toMillis();
         long currentWindow = currentTime / windowSizeMs;
         
-        storage.delete(key + ":" + currentWindow);
-        storage.delete(key + ":" + (currentWindow - 1));
+        StorageKey currentKey = StorageKey.of(key, field, currentWindow);
+        storage.delete(currentKey);
+        storage.delete(currentKey.inWindow(currentWindow - 1));
     }
     
     @Override
@@ -65,6 +126,17 @@ public class SlidingWindowCounterAlgorithm implements RateLimitingAlgorithm {
         return "SLIDING_WINDOW_COUNTER";
     }
     
+    /**
+     * Get the storage key holding the count of one window of a key limited by a single-band rule
+     * 
+     * @param key The rate limited key
+     * @param window The window number, the timestamp divided by the window size
+     * @return The storage key
+     */
+    public static StorageKey windowKey(String key, long window) {
+        return StorageKey.of(key, COUNT, window);
+    }
+    
     /**
      * Get the estimated current request count for a key (for testing/monitoring)
      * 
@@ -72,16 +144,17 @@ public class SlidingWindowCounterAlgorithm implements RateLimitingAlgorithm {
      * @return Estimated current request count
      */
     public double getEstimatedRequestCount(String key) {
-        long timestamp = System.currentTimeMillis();
+        long timestamp = storage.getTimeSource().currentTimeMillis();
         long windowSizeMs = timeWindow.toMillis();
         long currentWindow = timestamp / windowSizeMs;
         long previousWindow = currentWindow - 1;
         
-        String currentKey = key + ":" + currentWindow;
-        String previousKey = key + ":" + previousWindow;
+        StorageKey currentKey = StorageKey.of(key, field, currentWindow);
+        StorageKey previousKey = currentKey.inWindow(previousWindow);
         
-        long currentCount = storage.get(currentKey);
-        long previousCount = storage.get(previousKey);
+        long[] counts = storage.multiGet(currentKey, previousKey);
+        long currentCount = counts[0];
+        long previousCount = counts[1];
         
         double timeInCurrentWindow = (timestamp % windowSizeMs) / (double) windowSizeMs;
         return previousCount * (1 - timeInCurrentWindow) + currentCount;
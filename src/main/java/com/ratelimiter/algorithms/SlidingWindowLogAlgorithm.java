@@ -1,61 +1,292 @@
 package com.ratelimiter.algorithms;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.time.Duration;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 
+import com.ratelimiter.core.RateLimitResponse;
 import com.ratelimiter.core.RateLimitStorage;
 import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.eviction.KeyStateBudget;
+import com.ratelimiter.eviction.KeyStateMap;
+import com.ratelimiter.snapshot.SnapshotReader;
+import com.ratelimiter.snapshot.SnapshotWriter;
+import com.ratelimiter.snapshot.Snapshottable;
+import com.ratelimiter.storage.ExpiryScheduler;
 
 /**
  * Sliding Window Log Algorithm
  * Advanced: Maintains precise request timestamps for accurate rate limiting
+ * 
+ * Logs that have emptied are dropped on the shared expiry thread once per window, so a key is
+ * reclaimed at most two windows after its last request even without a key state budget.
  */
-public class SlidingWindowLogAlgorithm implements RateLimitingAlgorithm {
+public class SlidingWindowLogAlgorithm implements RateLimitingAlgorithm, Snapshottable {
+    private static final long MIN_CLEANUP_MILLIS = 1000;
+    
     private final int maxRequests;
     private final Duration timeWindow;
     private final RateLimitStorage storage;
-    private final ConcurrentHashMap<String, Queue<Long>> requestLogs;
-    private final ReentrantReadWriteLock globalLock;
+    private final KeyStateMap<RequestLog> requestLogs;
+    // Snapshot still being restored from, consulted when a key has no log yet
+    private volatile SnapshotReader snapshot;
+    private final ScheduledFuture<?> cleanupTask;
+    
+    /**
+     * Weighted request timestamps of a single key in a circular long[] buffer
+     * A request costing several permits is one entry; weights live in a parallel int[] that is only
+     * allocated once an entry weighs more than one. Until then a request in the same millisecond as
+     * the newest entry is appended as another entry, afterwards it is added to the newest entry's
+     * weight. Every entry weighs at least one and the total never exceeds maxRequests,
+     * so the log never holds more than maxRequests entries and expiry only moves the head pointer.
+     * Guarded by its own monitor; a retired log has been dropped from the map and must not be used.
+     */
+    private static final class RequestLog {
+        private static final int INITIAL_CAPACITY = 16;
+        
+        private long[] timestamps;
+        // Null while every entry weighs one
+        private int[] weights;
+        private int head;
+        private int size;
+        // Sum of the weights of all entries
+        private int total;
+        private boolean retired;
+        
+        RequestLog(int maxRequests) {
+            this.timestamps = new long[Math.min(INITIAL_CAPACITY, maxRequests)];
+        }
+        
+        /**
+         * Estimated heap footprint; read without the monitor, so it may lag behind a concurrent grow
+         */
+        long estimatedBytes() {
+            int[] weights = this.weights;
+            return 56 + 8L * timestamps.length + (weights == null ? 0 : 16 + 4L * weights.length);
+        }
+        
+        /**
+         * Drop timestamps older than the window start from the head of the log
+         */
+        void expire(long windowStart) {
+            while (size > 0 && timestamps[head] < windowStart) {
+                total -= weights == null ? 1 : weights[head];
+                head = head + 1 == timestamps.length ? 0 : head + 1;
+                size--;
+            }
+        }
+        
+        void append(long timestamp, int weight, int maxRequests) {
+            // Single permits stay plain timestamps, coalescing them would allocate the weights
+            if (size > 0 && (weights != null || weight != 1)) {
+                int last = index(size - 1);
+                if (timestamps[last] == timestamp) {
+                    weights()[last] += weight;
+                    total += weight;
+                    return;
+                }
+            }
+            if (size == timestamps.length) {
+                grow(maxRequests);
+            }
+            int tail = index(size);
+            timestamps[tail] = timestamp;
+            if (weight != 1 || weights != null) {
+                weights()[tail] = weight;
+            }
+            size++;
+            total += weight;
+        }
+        
+        /**
+         * Get the timestamp from which on dropping the oldest entries leaves room for the given weight
+         */
+        long roomAt(int weight, int maxRequests, long window) {
+            int needed = total + weight - maxRequests;
+            for (int i = 0; i < size; i++) {
+                int index = index(i);
+                needed -= weights == null ? 1 : weights[index];
+                if (needed <= 0) {
+                    // An entry stays in the window until it is more than one window old
+                    return timestamps[index] + window + 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+        
+        /**
+         * Get the timestamp of the newest entry, the log must not be empty
+         */
+        long newest() {
+            return timestamps[index(size - 1)];
+        }
+        
+        private int index(int position) {
+            int index = head + position;
+            return index >= timestamps.length ? index - timestamps.length : index;
+        }
+        
+        /**
+         * Get the weights, switching the log over to explicit weights on first use
+         */
+        private int[] weights() {
+            if (weights == null) {
+                weights = new int[timestamps.length];
+                Arrays.fill(weights, 1);
+            }
+            return weights;
+        }
+        
+        /**
+         * Double the buffer up to maxRequests, so idle or low-traffic keys stay small
+         */
+        private void grow(int maxRequests) {
+            int newCapacity = (int) Math.min((long) timestamps.length * 2, maxRequests);
+            int firstPart = Math.min(size, timestamps.length - head);
+            timestamps = unwrap(timestamps, new long[newCapacity], firstPart);
+            if (weights != null) {
+                weights = unwrap(weights, new int[newCapacity], firstPart);
+            }
+            head = 0;
+        }
+        
+        private <A> A unwrap(A from, A to, int firstPart) {
+            System.arraycopy(from, head, to, 0, firstPart);
+            System.arraycopy(from, 0, to, firstPart, size - firstPart);
+            return to;
+        }
+        
+        /**
+         * Copy the log out with one timestamp per permit, the layout snapshots are written in
+         */
+        long[] toArray() {
+            long[] copy = new long[total];
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                int index = index(i);
+                int weight = weights == null ? 1 : weights[index];
+                for (int j = 0; j < weight; j++) {
+                    copy[next++] = timestamps[index];
+                }
+            }
+            return copy;
+        }
+    }
+    
+    /**
+     * Runs cleanup on the shared expiry thread for as long as the algorithm is in use
+     * The algorithm is only weakly reachable from the task, which cancels itself once it is collected.
+     */
+    private static final class CleanupTask implements Runnable {
+        private final WeakReference<SlidingWindowLogAlgorithm> algorithm;
+        private volatile ScheduledFuture<?> handle;
+        
+        CleanupTask(SlidingWindowLogAlgorithm algorithm) {
+            this.algorithm = new WeakReference<>(algorithm);
+        }
+        
+        @Override
+        public void run() {
+            SlidingWindowLogAlgorithm target = algorithm.get();
+            if (target != null) {
+                target.cleanup();
+            } else if (handle != null) {
+                handle.cancel(false);
+            }
+        }
+    }
     
     public SlidingWindowLogAlgorithm(int maxRequests, Duration timeWindow, RateLimitStorage storage) {
+        this(maxRequests, timeWindow, storage, KeyStateBudget.unbounded());
+    }
+    
+    /**
+     * @param maxRequests Most requests admitted per window
+     * @param timeWindow Length of the sliding window
+     * @param storage The storage implementation
+     * @param budget Bounds the request logs held in memory, an evicted key starts over with an empty log
+     */
+    public SlidingWindowLogAlgorithm(int maxRequests, Duration timeWindow, RateLimitStorage storage,
+                                     KeyStateBudget budget) {
         this.maxRequests = maxRequests;
         this.timeWindow = timeWindow;
         this.storage = storage;
-        this.requestLogs = new ConcurrentHashMap<>();
-        this.globalLock = new ReentrantReadWriteLock();
+        this.requestLogs = budget.newMap(RequestLog::estimatedBytes, SlidingWindowLogAlgorithm::retire);
+        
+        CleanupTask task = new CleanupTask(this);
+        this.cleanupTask = ExpiryScheduler.schedule(task, Math.max(MIN_CLEANUP_MILLIS, timeWindow.toMillis()));
+        task.handle = cleanupTask;
     }
     
     @Override
-    public boolean isAllowed(String key, long timestamp) {
-        globalLock.writeLock().lock();
-        try {
-            Queue<Long> requestLog = requestLogs.computeIfAbsent(key, k -> new LinkedList<>());
-            
-            // Remove old requests outside the time window
-            long windowStart = timestamp - timeWindow.toMillis();
-            requestLog.removeIf(requestTime -> requestTime < windowStart);
-            
-            if (requestLog.size() < maxRequests) {
-                requestLog.offer(timestamp);
-                return true;
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        long window = timeWindow.toMillis();
+        long windowStart = timestamp - window;
+        
+        while (true) {
+            RequestLog requestLog = requestLogs.computeIfAbsent(key, this::createLog);
+            synchronized (requestLog) {
+                if (requestLog.retired) {
+                    // Removed by reset or cleanup after we looked it up, pick up the new one
+                    continue;
+                }
+                
+                // Remove old requests outside the time window
+                requestLog.expire(windowStart);
+                
+                if (permits <= maxRequests - requestLog.total) {
+                    requestLog.append(timestamp, permits, maxRequests);
+                    return RateLimitResponse.allowed(maxRequests - requestLog.total,
+                        requestLog.newest() + window + 1);
+                }
+                
+                if (permits > maxRequests) {
+                    // Never fits, however long the caller waits
+                    long resetTime = requestLog.size == 0 ? timestamp : requestLog.newest() + window + 1;
+                    return RateLimitResponse.denied(timeWindow, resetTime);
+                }
+                long roomAt = requestLog.roomAt(permits, maxRequests, window);
+                return RateLimitResponse.denied(Duration.ofMillis(roomAt - timestamp),
+                    requestLog.newest() + window + 1);
             }
-            
-            return false;
-        } finally {
-            globalLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Create the log for a key, restoring its timestamps if the key is in the snapshot
+     */
+    private RequestLog createLog(String key) {
+        RequestLog requestLog = new RequestLog(maxRequests);
+        SnapshotReader reader = restoringSnapshot();
+        if (reader != null) {
+            long[] timestamps = reader.take(getAlgorithmName(), key);
+            if (timestamps != null) {
+                for (int i = Math.max(0, timestamps.length - maxRequests); i < timestamps.length; i++) {
+                    requestLog.append(timestamps[i], 1, maxRequests);
+                }
+            }
+        }
+        return requestLog;
+    }
+    
+    private static void retire(String key, RequestLog requestLog) {
+        synchronized (requestLog) {
+            requestLog.retired = true;
         }
     }
     
     @Override
     public void reset(String key) {
-        globalLock.writeLock().lock();
-        try {
-            requestLogs.remove(key);
-        } finally {
-            globalLock.writeLock().unlock();
+        SnapshotReader reader = restoringSnapshot();
+        if (reader != null) {
+            reader.discard(getAlgorithmName(), key);
+        }
+        RequestLog requestLog = requestLogs.remove(key);
+        if (requestLog != null) {
+            retire(key, requestLog);
         }
     }
     
@@ -64,6 +295,40 @@ public class SlidingWindowLogAlgorithm implements RateLimitingAlgorithm {
         return "SLIDING_WINDOW_LOG";
     }
     
+    @Override
+    public void writeSnapshot(SnapshotWriter writer) throws IOException {
+        long windowStart = storage.getTimeSource().currentTimeMillis() - timeWindow.toMillis();
+        for (Map.Entry<String, RequestLog> entry : requestLogs.entries()) {
+            long[] timestamps;
+            RequestLog requestLog = entry.getValue();
+            synchronized (requestLog) {
+                requestLog.expire(windowStart);
+                timestamps = requestLog.toArray();
+            }
+            if (timestamps.length > 0) {
+                long validUntil = timestamps[timestamps.length - 1] + timeWindow.toMillis();
+                writer.write(getAlgorithmName(), entry.getKey(), validUntil, timestamps);
+            }
+        }
+    }
+    
+    @Override
+    public void restoreFrom(SnapshotReader reader) {
+        this.snapshot = reader;
+    }
+    
+    /**
+     * Get the snapshot still being restored from, letting go of it once it is exhausted
+     */
+    private SnapshotReader restoringSnapshot() {
+        SnapshotReader reader = snapshot;
+        if (reader != null && reader.isExhausted()) {
+            snapshot = null;
+            return null;
+        }
+        return reader;
+    }
+    
     /**
      * Get the current request count for a key (for testing/monitoring)
      * 
@@ -71,31 +336,45 @@ public class SlidingWindowLogAlgorithm implements RateLimitingAlgorithm {
      * @return Current request count in the window
      */
     public int getCurrentRequestCount(String key) {
-        globalLock.readLock().lock();
-        try {
-            Queue<Long> requestLog = requestLogs.get(key);
-            return requestLog != null ? requestLog.size() : 0;
-        } finally {
-            globalLock.readLock().unlock();
+        RequestLog requestLog = requestLogs.get(key);
+        if (requestLog == null) {
+            return 0;
+        }
+        synchronized (requestLog) {
+            return requestLog.total;
         }
     }
     
     /**
      * Clean up expired entries for memory management
+     * Runs periodically on the shared expiry thread until {@link #shutdown()}.
      */
     public void cleanup() {
-        globalLock.writeLock().lock();
-        try {
-            long currentTime = System.currentTimeMillis();
-            long windowStart = currentTime - timeWindow.toMillis();
-            
-            requestLogs.entrySet().removeIf(entry -> {
-                Queue<Long> requestLog = entry.getValue();
-                requestLog.removeIf(requestTime -> requestTime < windowStart);
-                return requestLog.isEmpty();
-            });
-        } finally {
-            globalLock.writeLock().unlock();
+        long currentTime = storage.getTimeSource().currentTimeMillis();
+        long windowStart = currentTime - timeWindow.toMillis();
+        
+        for (Map.Entry<String, RequestLog> entry : requestLogs.entries()) {
+            RequestLog requestLog = entry.getValue();
+            boolean empty;
+            synchronized (requestLog) {
+                requestLog.expire(windowStart);
+                empty = requestLog.size == 0;
+                if (empty) {
+                    requestLog.retired = true;
+                }
+            }
+            // Removed outside the monitor, the map must not be used while holding it
+            if (empty) {
+                requestLogs.remove(entry.getKey(), requestLog);
+            }
         }
     }
+    
+    /**
+     * Stop the periodic cleanup of emptied logs
+     * Otherwise it stops on its own once the algorithm is no longer referenced.
+     */
+    public void shutdown() {
+        cleanupTask.cancel(false);
+    }
 }
\ No newline at end of file
@@ -1,70 +1,129 @@
 package com.ratelimiter.algorithms;
 
 import java.time.Duration;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
+import com.ratelimiter.core.PacedAlgorithm;
+import com.ratelimiter.core.RateLimitResponse;
 import com.ratelimiter.core.RateLimitStorage;
-import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.StorageOperation;
 
 /**
  * Token Bucket Algorithm Implementation
- * Advanced: Uses floating point arithmetic for precise token calculation
+ * Advanced: Keeps each bucket in a single storage key updated by one atomic storage operation
+ * 
+ * The stored value is the nanosecond instant at which the bucket is empty, which makes
+ * the token count a fixed-point number: at time t the bucket holds (t - emptyAt) / nanosPerToken
+ * tokens, capped at capacity. Taking a token advances emptyAt by nanosPerToken, which is exactly
+ * {@link RateLimitStorage#advanceIfBelow}, so no locking is needed on the algorithm side.
+ * 
+ * The returned instant is all a response needs: the tokens left are (now - emptyAt) / nanosPerToken,
+ * a denied request fits once emptyAt has passed, and the bucket is full again burstNanos after the
+ * stored emptyAt.
  */
-public class TokenBucketAlgorithm implements RateLimitingAlgorithm {
-    private final int capacity;
-    private final double refillRate; // tokens per second
+public class TokenBucketAlgorithm implements StorageBackedAlgorithm, PacedAlgorithm {
+    // Field of the key holding a bucket's empty instant
+    private static final char BUCKET = 'b';
+    
     private final RateLimitStorage storage;
-    private final ConcurrentHashMap<String, ReentrantReadWriteLock> lockMap;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final Duration stateExpiry;
+    private final char field;
     
+    /**
+     * @param capacity Maximum number of tokens in a bucket
+     * @param refillRate Tokens added per second
+     * @param storage The storage holding the buckets
+     */
     public TokenBucketAlgorithm(int capacity, double refillRate, RateLimitStorage storage) {
-        this.capacity = capacity;
-        this.refillRate = refillRate;
+        this(capacity, refillRate, storage, 0);
+    }
+    
+    /**
+     * @param capacity Maximum number of tokens in a bucket
+     * @param refillRate Tokens added per second
+     * @param storage The storage holding the buckets
+     * @param band The band of a multi-band rule this algorithm enforces, 0 for a single-band rule
+     */
+    public TokenBucketAlgorithm(int capacity, double refillRate, RateLimitStorage storage, int band) {
         this.storage = storage;
-        this.lockMap = new ConcurrentHashMap<>();
+        this.field = CompositeAlgorithm.bandField(BUCKET, band);
+        this.nanosPerToken = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / refillRate));
+        // Time to refill an empty bucket, saturated so that "now - burstNanos" cannot overflow
+        this.burstNanos = (long) Math.min((double) capacity * nanosPerToken, Long.MAX_VALUE / 4);
+        // A bucket that has refilled completely is the same as a missing one
+        this.stateExpiry = Duration.ofNanos(burstNanos).plusMillis(1);
     }
     
     @Override
-    public boolean isAllowed(String key, long timestamp) {
-        ReentrantReadWriteLock lock = lockMap.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
-        
-        lock.writeLock().lock();
-        try {
-            String tokenKey = "tokens:" + key;
-            String lastRefillKey = "lastRefill:" + key;
-            
-            double tokens = storage.get(tokenKey);
-            long lastRefill = storage.get(lastRefillKey);
-            
-            if (lastRefill == 0) {
-                // First request
-                tokens = capacity;
-                lastRefill = timestamp;
-            } else {
-                // Calculate tokens to add based on time elapsed
-                double secondsElapsed = (timestamp - lastRefill) / 1000.0;
-                double tokensToAdd = secondsElapsed * refillRate;
-                tokens = Math.min(capacity, tokens + tokensToAdd);
-            }
-            
-            if (tokens >= 1) {
-                tokens -= 1;
-                storage.set(tokenKey, (long)tokens, Duration.ofMinutes(10));
-                storage.set(lastRefillKey, timestamp, Duration.ofMinutes(10));
-                return true;
-            }
-            
-            return false;
-        } finally {
-            lock.writeLock().unlock();
+    public RateLimitResponse decide(String key, long timestamp, int permits) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        long emptyAt = storage.advanceIfBelow(StorageKey.of(key, field), refillNanos(permits), now - burstNanos, now,
+            stateExpiry);
+        return decisionFor(emptyAt, timestamp, permits);
+    }
+    
+    @Override
+    public StorageOperation operationFor(String key, long timestamp, int permits) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        return StorageOperation.advanceIfBelow(StorageKey.of(key, field), refillNanos(permits), now - burstNanos, now,
+            stateExpiry);
+    }
+    
+    /**
+     * Refill time of the given number of tokens, saturated like burstNanos since more than
+     * a full bucket is never admitted anyway
+     */
+    private long refillNanos(int permits) {
+        return (long) Math.min((double) permits * nanosPerToken, Long.MAX_VALUE / 4);
+    }
+    
+    @Override
+    public RateLimitResponse decisionFor(String key, StorageOperation operation, long result, long timestamp,
+                                         int permits) {
+        return decisionFor(result, timestamp, permits);
+    }
+    
+    /**
+     * Turn the result of the operation from {@link #operationFor(String, long, int)} into the decision
+     * 
+     * @param emptyAt The empty instant the storage returned
+     * @param timestamp The timestamp the operation was described for
+     * @param permits The permits the operation was described for
+     * @return The decision with remaining permits, retry-after and reset time
+     */
+    public RateLimitResponse decisionFor(long emptyAt, long timestamp, int permits) {
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        if (emptyAt <= now) {
+            return RateLimitResponse.allowed((now - emptyAt) / nanosPerToken, fullAt(emptyAt));
         }
+        // Not stored: the bucket is still empty at emptyAt minus the permits that were asked for
+        return RateLimitResponse.denied(Duration.ofNanos(emptyAt - now), fullAt(emptyAt - refillNanos(permits)));
+    }
+    
+    /**
+     * Timestamp in milliseconds at which a bucket that is empty at emptyAt holds capacity tokens again
+     */
+    private long fullAt(long emptyAt) {
+        return -Math.floorDiv(-(emptyAt + burstNanos), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    
+    @Override
+    public long reserve(String key, long timestamp, long maxWaitNanos) {
+        // Same operation with the limit moved into the future: the bucket may run into debt up to maxWait
+        long now = TimeUnit.MILLISECONDS.toNanos(timestamp);
+        long maxWait = Math.min(Math.max(0, maxWaitNanos), Long.MAX_VALUE / 4);
+        long emptyAt = storage.advanceIfBelow(StorageKey.of(key, field), nanosPerToken, now - burstNanos,
+            now + maxWait, stateExpiry.plusNanos(maxWait));
+        return emptyAt > now + maxWait ? -1 : Math.max(0, emptyAt - now);
     }
     
     @Override
     public void reset(String key) {
-        storage.delete("tokens:" + key);
-        storage.delete("lastRefill:" + key);
-        lockMap.remove(key);
+        storage.delete(StorageKey.of(key, field));
     }
     
     @Override
@@ -79,6 +138,8 @@ public class TokenBucketAlgorithm implements RateLimitingAlgorithm {
      * @return Current token count
      */
     public long getCurrentTokens(String key) {
-        return storage.get("tokens:" + key);
+        long now = TimeUnit.MILLISECONDS.toNanos(storage.getTimeSource().currentTimeMillis());
+        long emptyAt = Math.max(storage.get(StorageKey.of(key, field)), now - burstNanos);
+        return (now - emptyAt) / nanosPerToken;
     }
 }
\ No newline at end of file
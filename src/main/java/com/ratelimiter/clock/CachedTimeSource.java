@@ -0,0 +1,75 @@
+package com.ratelimiter.clock;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Cached Time Source
+ * Reads of the time are a single volatile load, refreshed by a shared background ticker
+ * 
+ * The time lags the system clock by up to the resolution and never moves backwards, so a coarse
+ * resolution trades precision of refills and expiries for cheaper reads on the hot path.
+ */
+public final class CachedTimeSource implements TimeSource, AutoCloseable {
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rate-limiter-clock");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final TimeSource source;
+    private final ScheduledFuture<?> tickTask;
+    private volatile long now;
+    
+    /**
+     * Cache of the system clock
+     * 
+     * @param resolution How often the cached time is refreshed
+     */
+    public CachedTimeSource(Duration resolution) {
+        this(TimeSource.SYSTEM, resolution);
+    }
+    
+    /**
+     * @param source The time source to cache, such as a {@link MonotonicTimeSource}
+     * @param resolution How often the cached time is refreshed
+     */
+    public CachedTimeSource(TimeSource source, Duration resolution) {
+        if (source == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        if (resolution == null || resolution.toMillis() <= 0) {
+            throw new IllegalArgumentException("Resolution must be at least one millisecond");
+        }
+        this.source = source;
+        this.now = source.currentTimeMillis();
+        this.tickTask = TICKER.scheduleAtFixedRate(this::tick, resolution.toMillis(), resolution.toMillis(),
+            TimeUnit.MILLISECONDS);
+    }
+    
+    private void tick() {
+        long time = source.currentTimeMillis();
+        // Only the ticker writes, so the check and the write cannot race
+        if (time > now) {
+            now = time;
+        }
+    }
+    
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+    
+    /**
+     * Stop refreshing, the time stays at its last value
+     */
+    @Override
+    public void close() {
+        tickTask.cancel(false);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.ratelimiter.clock;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Monotonic Time Source
+ * Wall time read once at creation and advanced by {@link System#nanoTime()} from then on
+ * 
+ * Adjustments of the system clock, such as NTP steps or a changed time zone setting, do not move this
+ * time, so buckets and windows are never refilled or frozen by a jump. It drifts from the wall clock
+ * as the two clocks' rates differ, which only matters to timestamps shared with other processes.
+ */
+public final class MonotonicTimeSource implements TimeSource {
+    private final long originMillis;
+    private final long originNanos;
+    
+    public MonotonicTimeSource() {
+        this.originMillis = System.currentTimeMillis();
+        this.originNanos = System.nanoTime();
+    }
+    
+    @Override
+    public long currentTimeMillis() {
+        return originMillis + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - originNanos);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.ratelimiter.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import com.ratelimiter.core.RateLimitResponse;
+
+/**
+ * Binary frame format of {@link TcpClusterTransport}
+ * Every frame is: type (byte), request id (long), payload. Requests carry the key and the permits the
+ * request takes (int);
+ * a response carries allowed (boolean), remaining (long), retry-after millis (long, -1 for none)
+ * and reset time (long), an error carries its message. Responses may arrive in any order and are
+ * matched by request id. Strings are their UTF-8 length (int) followed by the bytes, so keys of any
+ * length fit; they are encoded before anything is written, so a frame is never left half written.
+ */
+final class ClusterProtocol {
+    static final byte CHECK = 1;
+    static final byte RECORD = 2;
+    static final byte RESPONSE = 3;
+    static final byte ERROR = 4;
+    
+    private ClusterProtocol() {
+    }
+    
+    /**
+     * Encode a key or message the way frames carry it
+     */
+    static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    static void writeRequest(DataOutputStream out, byte type, long requestId, byte[] key, int cost)
+            throws IOException {
+        out.writeByte(type);
+        out.writeLong(requestId);
+        writeBytes(out, key);
+        out.writeInt(cost);
+    }
+    
+    static void writeResponse(DataOutputStream out, long requestId, RateLimitResponse response) throws IOException {
+        out.writeByte(RESPONSE);
+        out.writeLong(requestId);
+        out.writeBoolean(response.isAllowed());
+        out.writeLong(response.getRemainingRequests());
+        out.writeLong(response.getRetryAfter() == null ? -1 : response.getRetryAfter().toMillis());
+        out.writeLong(response.getResetTime());
+    }
+    
+    static void writeError(DataOutputStream out, long requestId, String message) throws IOException {
+        byte[] encoded = encode(message == null ? "" : message);
+        out.writeByte(ERROR);
+        out.writeLong(requestId);
+        writeBytes(out, encoded);
+    }
+    
+    /**
+     * Read a key or message written by {@link #writeRequest} or {@link #writeError}
+     */
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Read the body of a RESPONSE frame, after its type and request id
+     */
+    static RateLimitResponse readResponse(DataInputStream in) throws IOException {
+        boolean allowed = in.readBoolean();
+        long remaining = in.readLong();
+        long retryAfterMillis = in.readLong();
+        long resetTime = in.readLong();
+        if (allowed) {
+            return RateLimitResponse.allowed(remaining, resetTime);
+        }
+        return RateLimitResponse.denied(retryAfterMillis < 0 ? null : Duration.ofMillis(retryAfterMillis), resetTime);
+    }
+}
\ No newline at end of file
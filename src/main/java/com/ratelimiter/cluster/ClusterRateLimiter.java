@@ -0,0 +1,253 @@
+package com.ratelimiter.cluster;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.core.TimeSource;
+import com.ratelimiter.service.RateLimiter;
+
+/**
+ * Cluster Rate Limiter
+ * Advanced: Every key has one owning node on a consistent-hash ring; checks for keys owned by
+ * another node are forwarded to it, so each key's state lives in exactly one place
+ * 
+ * All nodes are configured with the same rules. Membership is set from outside with
+ * {@link #updateRing}, on every node. When the ring changes, the previous owner of a moved key
+ * stays authoritative for the handoff period while the new owner counts every request the previous
+ * owner admits; at the end of the period the new owner has a full window of history and takes over,
+ * without a reset and without double counting. A ring change during a handoff keeps the previous owners
+ * authoritative and restarts the handoff. If an owner cannot be reached, the request falls back
+ * to the new owner and finally to this node's own state.
+ */
+public class ClusterRateLimiter implements ClusterTransport.Handler, AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ClusterRateLimiter.class.getName());
+    
+    private final String nodeId;
+    private final RateLimiter local;
+    private final ClusterTransport transport;
+    private final long handoffMillis;
+    private final TimeSource timeSource;
+    private volatile Membership membership;
+    private boolean joined;
+    
+    /**
+     * The current ring, and the ring it replaced while the handoff between them lasts
+     */
+    private static final class Membership {
+        final ConsistentHashRing ring;
+        final ConsistentHashRing previousRing;
+        final long handoffUntil;
+        
+        Membership(ConsistentHashRing ring, ConsistentHashRing previousRing, long handoffUntil) {
+            this.ring = ring;
+            this.previousRing = previousRing;
+            this.handoffUntil = handoffUntil;
+        }
+    }
+    
+    /**
+     * @param nodeId This node's id on the ring
+     * @param local The rate limiter holding the state of the keys this node owns
+     * @param transport The transport to the other nodes, started by this constructor
+     * @param handoffPeriod How long previous owners stay authoritative after a ring change;
+     *                      at least the longest rule window
+     */
+    public ClusterRateLimiter(String nodeId, RateLimiter local, ClusterTransport transport, Duration handoffPeriod)
+            throws IOException {
+        this(nodeId, local, transport, handoffPeriod, local == null ? null : local.getTimeSource());
+    }
+    
+    /**
+     * @param nodeId This node's id on the ring
+     * @param local The rate limiter holding the state of the keys this node owns
+     * @param transport The transport to the other nodes, started by this constructor
+     * @param handoffPeriod How long previous owners stay authoritative after a ring change;
+     *                      at least the longest rule window
+     * @param timeSource The clock the handoff period is measured with, normally the local rate limiter's
+     */
+    public ClusterRateLimiter(String nodeId, RateLimiter local, ClusterTransport transport, Duration handoffPeriod,
+                              TimeSource timeSource) throws IOException {
+        if (nodeId == null || local == null || transport == null || timeSource == null) {
+            throw new IllegalArgumentException("Node id, rate limiter, transport and time source cannot be null");
+        }
+        if (handoffPeriod == null || handoffPeriod.isNegative()) {
+            throw new IllegalArgumentException("Handoff period must not be negative");
+        }
+        this.nodeId = nodeId;
+        this.local = local;
+        this.transport = transport;
+        this.handoffMillis = handoffPeriod.toMillis();
+        this.timeSource = timeSource;
+        // Owns every key until it is given the cluster's ring
+        this.membership = new Membership(new ConsistentHashRing().withNode(nodeId), null, 0);
+        transport.start(this);
+    }
+    
+    /**
+     * Check rate limit for the given key on its owning node
+     * 
+     * @param key The key to check rate limit for
+     * @return RateLimitResponse indicating if request is allowed
+     */
+    public RateLimitResponse checkLimit(String key) {
+        return checkLimit(key, 1);
+    }
+    
+    /**
+     * Check rate limit for a request that costs several permits on the key's owning node
+     * 
+     * @param key The key to check rate limit for
+     * @param cost The permits the request takes, at least 1
+     * @return RateLimitResponse indicating if request is allowed
+     */
+    public RateLimitResponse checkLimit(String key, int cost) {
+        return checkLimitAsync(key, cost).join();
+    }
+    
+    /**
+     * Check rate limit for the given key on its owning node without blocking the caller
+     * 
+     * @param key The key to check rate limit for
+     * @return Future completed with the RateLimitResponse
+     */
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key) {
+        return checkLimitAsync(key, 1);
+    }
+    
+    /**
+     * Check rate limit for a request that costs several permits on the key's owning node without blocking
+     * the caller; during a handoff the new owner records the same cost as the previous owner admits
+     * 
+     * @param key The key to check rate limit for
+     * @param cost The permits the request takes, at least 1
+     * @return Future completed with the RateLimitResponse
+     */
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key, int cost) {
+        if (cost <= 0) {
+            throw new IllegalArgumentException("Cost must be positive");
+        }
+        if (local.getRule(key) == null) {
+            // No rule means no state to own, every node gives the same answer
+            return local.checkLimitAsync(key, cost);
+        }
+        
+        Membership current = membership;
+        String owner = current.ring.ownerOf(key);
+        String previousOwner = current.previousRing != null && timeSource.currentTimeMillis() < current.handoffUntil
+            ? current.previousRing.ownerOf(key)
+            : null;
+        if (previousOwner == null || previousOwner.equals(owner)) {
+            return decide(owner, key, cost).exceptionally(error -> fallback(key, cost, owner, error));
+        }
+        
+        // Key is being handed off: the previous owner decides, the new owner records what it admits
+        return decide(previousOwner, key, cost)
+            .thenApply(response -> {
+                if (response.isAllowed()) {
+                    recordAt(owner, key, cost);
+                }
+                return response;
+            })
+            .exceptionallyCompose(error -> {
+                logger.log(Level.FINE, "Previous owner " + previousOwner + " unreachable, handing off " + key, error);
+                return decide(owner, key, cost).exceptionally(e -> fallback(key, cost, owner, e));
+            });
+    }
+    
+    private CompletableFuture<RateLimitResponse> decide(String target, String key, int cost) {
+        if (nodeId.equals(target)) {
+            return local.checkLimitAsync(key, cost);
+        }
+        return transport.check(target, key, cost);
+    }
+    
+    private void recordAt(String target, String key, int cost) {
+        if (nodeId.equals(target)) {
+            record(key, cost);
+        } else {
+            transport.record(target, key, cost);
+        }
+    }
+    
+    /**
+     * Decide locally when the owner cannot be reached, so an outage degrades to per-node limits
+     */
+    private RateLimitResponse fallback(String key, int cost, String owner, Throwable error) {
+        logger.log(Level.FINE, "Owner " + owner + " unreachable, deciding " + key + " locally", error);
+        return local.checkLimit(key, cost);
+    }
+    
+    /**
+     * Replace the ring, starting a handoff from the current one
+     * Must be applied on every node. The first ring a node is given is taken as is, without a handoff:
+     * a node joining a running cluster should first be given the cluster's current ring, then the ring
+     * that includes it, like every other node.
+     * 
+     * @param ring The new ring
+     */
+    public synchronized void updateRing(ConsistentHashRing ring) {
+        if (ring == null || ring.getNodes().isEmpty()) {
+            throw new IllegalArgumentException("Ring cannot be null or empty");
+        }
+        if (!joined) {
+            joined = true;
+            membership = new Membership(ring, null, 0);
+            return;
+        }
+        long now = timeSource.currentTimeMillis();
+        Membership current = membership;
+        // During a handoff the previous owners keep the only full history, so they stay authoritative
+        // and the handoff restarts for the owners on the new ring
+        ConsistentHashRing previousRing = current.previousRing != null && now < current.handoffUntil
+            ? current.previousRing
+            : current.ring;
+        membership = new Membership(ring, previousRing, now + handoffMillis);
+    }
+    
+    /**
+     * Get the node that currently owns a key
+     * 
+     * @param key The rate limit key
+     * @return The owning node id
+     */
+    public String getOwner(String key) {
+        return membership.ring.ownerOf(key);
+    }
+    
+    public ConsistentHashRing getRing() {
+        return membership.ring;
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    /**
+     * Get the rate limiter holding this node's keys
+     * 
+     * @return The local rate limiter
+     */
+    public RateLimiter getLocalRateLimiter() {
+        return local;
+    }
+    
+    @Override
+    public RateLimitResponse check(String key, int cost) {
+        return local.checkLimit(key, cost);
+    }
+    
+    @Override
+    public void record(String key, int cost) {
+        // Takes the permits like any admitted request; the answer itself is the previous owner's
+        local.checkLimit(key, cost);
+    }
+    
+    @Override
+    public void close() {
+        transport.close();
+    }
+}
\ No newline at end of file
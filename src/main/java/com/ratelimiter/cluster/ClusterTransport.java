@@ -0,0 +1,56 @@
+package com.ratelimiter.cluster;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import com.ratelimiter.core.RateLimitResponse;
+
+/**
+ * Cluster Transport Interface
+ * Strategy Pattern - Carries rate limit checks to the node that owns a key
+ */
+public interface ClusterTransport extends AutoCloseable {
+    /**
+     * Handles the requests other nodes send to this node
+     */
+    interface Handler {
+        /**
+         * Decide a request for a key this node owns
+         */
+        RateLimitResponse check(String key, int cost);
+        
+        /**
+         * Count a request that was admitted by the previous owner of a key this node is taking over
+         */
+        void record(String key, int cost);
+    }
+    
+    /**
+     * Start serving requests from other nodes
+     * 
+     * @param handler The handler for incoming requests
+     */
+    void start(Handler handler) throws IOException;
+    
+    /**
+     * Ask a node to decide a request
+     * 
+     * @param nodeId The owning node
+     * @param key The rate limit key
+     * @param cost The permits the request takes
+     * @return Future completed with the owner's response, or exceptionally if the node cannot be reached
+     */
+    CompletableFuture<RateLimitResponse> check(String nodeId, String key, int cost);
+    
+    /**
+     * Tell a node to count an admitted request, without waiting for it
+     * 
+     * @param nodeId The node taking over the key
+     * @param key The rate limit key
+     * @param cost The permits the admitted request took
+     */
+    void record(String nodeId, String key, int cost);
+    
+    @Override
+    void close();
+}
\ No newline at end of file
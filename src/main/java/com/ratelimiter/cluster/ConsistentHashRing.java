@@ -0,0 +1,134 @@
+package com.ratelimiter.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent Hash Ring
+ * Immutable ring of node ids with virtual nodes; adding or removing a node returns a new ring,
+ * so readers never need a lock and a membership change is one reference swap
+ * 
+ * Each node is placed at virtualNodes points on a 64-bit ring and a key belongs to the first point
+ * at or after its hash. Adding or removing one of n nodes moves about 1/n of the keys.
+ */
+public final class ConsistentHashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    
+    private final int virtualNodes;
+    private final NavigableMap<Long, String> points;
+    private final Set<String> nodes;
+    
+    /**
+     * Empty ring with the default number of virtual nodes per node
+     */
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+    
+    /**
+     * @param virtualNodes Points each node is placed at; more points spread keys more evenly
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this(virtualNodes, new TreeMap<>(), new TreeSet<>());
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be positive");
+        }
+    }
+    
+    private ConsistentHashRing(int virtualNodes, NavigableMap<Long, String> points, Set<String> nodes) {
+        this.virtualNodes = virtualNodes;
+        this.points = points;
+        this.nodes = nodes;
+    }
+    
+    /**
+     * Get a ring that also contains the node
+     * 
+     * @param nodeId The node to add
+     * @return The new ring, or this ring if the node is already on it
+     */
+    public ConsistentHashRing withNode(String nodeId) {
+        if (nodeId == null || nodeId.isEmpty()) {
+            throw new IllegalArgumentException("Node id cannot be null or empty");
+        }
+        if (nodes.contains(nodeId)) {
+            return this;
+        }
+        TreeMap<Long, String> newPoints = new TreeMap<>(points);
+        for (int i = 0; i < virtualNodes; i++) {
+            // On the rare hash collision the smaller node id keeps the point, independent of join order
+            newPoints.merge(hash(nodeId + "#" + i), nodeId, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+        }
+        TreeSet<String> newNodes = new TreeSet<>(nodes);
+        newNodes.add(nodeId);
+        return new ConsistentHashRing(virtualNodes, newPoints, newNodes);
+    }
+    
+    /**
+     * Get a ring without the node
+     * 
+     * @param nodeId The node to remove
+     * @return The new ring, or this ring if the node is not on it
+     */
+    public ConsistentHashRing withoutNode(String nodeId) {
+        if (!nodes.contains(nodeId)) {
+            return this;
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(virtualNodes);
+        for (String node : nodes) {
+            if (!node.equals(nodeId)) {
+                ring = ring.withNode(node);
+            }
+        }
+        return ring;
+    }
+    
+    /**
+     * Get the node that owns a key
+     * 
+     * @param key The rate limit key
+     * @return The owning node id, or null if the ring is empty
+     */
+    public String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+    
+    public Set<String> getNodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
+    
+    public boolean contains(String nodeId) {
+        return nodes.contains(nodeId);
+    }
+    
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+    
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so that
+     * similar keys land far apart on the ring
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
\ No newline at end of file
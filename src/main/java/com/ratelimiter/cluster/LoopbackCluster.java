@@ -0,0 +1,184 @@
+package com.ratelimiter.cluster;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ratelimiter.core.RateLimitRule;
+import com.ratelimiter.service.RateLimiter;
+
+/**
+ * Loopback Cluster
+ * Runs several cluster nodes in one JVM, each with its own state and its own TCP transport on the
+ * loopback interface, so scaling and rebalancing can be measured without real infrastructure
+ * 
+ * Nodes joining or leaving update the ring on every node, as an orchestrator would.
+ */
+public class LoopbackCluster implements AutoCloseable {
+    private final Map<String, RateLimitRule> rules;
+    private final Duration handoffPeriod;
+    private final Map<String, Node> nodes;
+    private final List<Node> departed;
+    private ConsistentHashRing ring;
+    private int nextNodeNumber;
+    
+    private static final class Node {
+        final ClusterRateLimiter limiter;
+        final TcpClusterTransport transport;
+        
+        Node(ClusterRateLimiter limiter, TcpClusterTransport transport) {
+            this.limiter = limiter;
+            this.transport = transport;
+        }
+    }
+    
+    /**
+     * Start a cluster whose handoff period is the longest rule window
+     * 
+     * @param rules The rules every node is configured with
+     * @param nodeCount Number of nodes to start
+     */
+    public LoopbackCluster(Map<String, RateLimitRule> rules, int nodeCount) {
+        this(rules, nodeCount, longestWindow(rules));
+    }
+    
+    /**
+     * @param rules The rules every node is configured with
+     * @param nodeCount Number of nodes to start
+     * @param handoffPeriod How long previous owners stay authoritative after a ring change
+     */
+    public LoopbackCluster(Map<String, RateLimitRule> rules, int nodeCount, Duration handoffPeriod) {
+        if (rules == null) {
+            throw new IllegalArgumentException("Rules cannot be null");
+        }
+        if (nodeCount <= 0) {
+            throw new IllegalArgumentException("Node count must be positive");
+        }
+        this.rules = new LinkedHashMap<>(rules);
+        this.handoffPeriod = handoffPeriod;
+        this.nodes = new LinkedHashMap<>();
+        this.departed = new ArrayList<>();
+        this.ring = new ConsistentHashRing();
+        for (int i = 0; i < nodeCount; i++) {
+            ring = ring.withNode(startNode().limiter.getNodeId());
+        }
+        publishRing();
+    }
+    
+    /**
+     * Start a node and hand it its share of the keys
+     * 
+     * @return The new node
+     */
+    public synchronized ClusterRateLimiter addNode() {
+        Node node = startNode();
+        // The new node first learns the current ring, so it forwards moved keys to their previous owners too
+        node.limiter.updateRing(ring);
+        ring = ring.withNode(node.limiter.getNodeId());
+        publishRing();
+        return node.limiter;
+    }
+    
+    /**
+     * Take a node off the ring
+     * A graceful leave keeps it serving its previous keys until the handoff is over; otherwise it stops
+     * at once, like a crashed node.
+     * 
+     * @param nodeId The node to remove
+     * @param graceful Whether the node completes the handoff
+     */
+    public synchronized void removeNode(String nodeId, boolean graceful) {
+        Node node = nodes.remove(nodeId);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown node: " + nodeId);
+        }
+        ring = ring.withoutNode(nodeId);
+        if (graceful) {
+            departed.add(node);
+        } else {
+            node.limiter.close();
+        }
+        publishRing();
+        if (!graceful) {
+            for (Node other : nodes.values()) {
+                other.transport.removePeer(nodeId);
+            }
+        }
+    }
+    
+    public synchronized ClusterRateLimiter getNode(String nodeId) {
+        Node node = nodes.get(nodeId);
+        return node == null ? null : node.limiter;
+    }
+    
+    public synchronized List<ClusterRateLimiter> getNodes() {
+        List<ClusterRateLimiter> limiters = new ArrayList<>(nodes.size());
+        for (Node node : nodes.values()) {
+            limiters.add(node.limiter);
+        }
+        return limiters;
+    }
+    
+    public synchronized ConsistentHashRing getRing() {
+        return ring;
+    }
+    
+    @Override
+    public synchronized void close() {
+        for (Node node : nodes.values()) {
+            node.limiter.close();
+        }
+        for (Node node : departed) {
+            node.limiter.close();
+        }
+        nodes.clear();
+        departed.clear();
+    }
+    
+    private Node startNode() {
+        String nodeId = "node-" + nextNodeNumber++;
+        RateLimiter.Builder builder = new RateLimiter.Builder();
+        for (Map.Entry<String, RateLimitRule> rule : rules.entrySet()) {
+            builder.addRule(rule.getKey(), rule.getValue());
+        }
+        
+        try {
+            TcpClusterTransport transport = new TcpClusterTransport();
+            Node node = new Node(new ClusterRateLimiter(nodeId, builder.build(), transport, handoffPeriod), transport);
+            InetSocketAddress address = transport.getLocalAddress();
+            for (Map.Entry<String, Node> other : nodes.entrySet()) {
+                other.getValue().transport.addPeer(nodeId, address);
+                transport.addPeer(other.getKey(), other.getValue().transport.getLocalAddress());
+            }
+            for (Node leaving : departed) {
+                // Departed nodes may still be previous owners of keys in handoff
+                transport.addPeer(leaving.limiter.getNodeId(), leaving.transport.getLocalAddress());
+            }
+            nodes.put(nodeId, node);
+            return node;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start cluster node " + nodeId, e);
+        }
+    }
+    
+    private void publishRing() {
+        for (Node node : nodes.values()) {
+            node.limiter.updateRing(ring);
+        }
+    }
+    
+    private static Duration longestWindow(Map<String, RateLimitRule> rules) {
+        Duration longest = Duration.ZERO;
+        for (RateLimitRule rule : rules.values()) {
+            if (rule.getTimeWindow().compareTo(longest) > 0) {
+                longest = rule.getTimeWindow();
+            }
+        }
+        return longest;
+    }
+}
\ No newline at end of file
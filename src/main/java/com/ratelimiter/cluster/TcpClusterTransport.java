@@ -0,0 +1,442 @@
+package com.ratelimiter.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ratelimiter.core.RateLimitResponse;
+
+/**
+ * TCP Cluster Transport
+ * Advanced: One long-lived connection per peer carrying compact binary frames; requests are
+ * multiplexed on it by request id, so any number of checks can be in flight at once
+ * 
+ * Peers are registered by id and address. Incoming connections are served by one thread each,
+ * which decides the request locally and writes the response back on the same connection.
+ * Callers never wait for a connection to be opened: while a peer cannot be reached its requests
+ * fail right away, so the cluster limiter decides them locally.
+ */
+public class TcpClusterTransport implements ClusterTransport {
+    private static final Logger logger = Logger.getLogger(TcpClusterTransport.class.getName());
+    public static final int DEFAULT_TIMEOUT_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    
+    private final ServerSocket serverSocket;
+    private final int timeoutMillis;
+    private final Map<String, Peer> peers;
+    private final Set<Socket> acceptedSockets;
+    private volatile Handler handler;
+    private volatile boolean closed;
+    
+    /**
+     * Outgoing connection to one peer, opened on first use and reopened after a failure
+     * Connections are opened on a thread of their own, never the caller's. Requests sent while one is
+     * being opened wait for it; once an attempt fails the peer is taken to be down and its requests
+     * fail at once until the next attempt, which is made after a delay that doubles with each failure.
+     */
+    private final class Peer {
+        final String nodeId;
+        final InetSocketAddress address;
+        final Map<Long, CompletableFuture<RateLimitResponse>> pending = new ConcurrentHashMap<>();
+        final AtomicLong requestIds = new AtomicLong();
+        // Requests waiting for the connection being opened
+        final List<Request> queued = new ArrayList<>();
+        Socket socket;
+        DataOutputStream out;
+        boolean connecting;
+        boolean removed;
+        int failedConnects;
+        long retryDelayNanos;
+        long retryAt;
+        // Failure of the last connection attempt, shared by the requests failed until the next one
+        IOException unreachable;
+        
+        Peer(String nodeId, InetSocketAddress address) {
+            this.nodeId = nodeId;
+            this.address = address;
+        }
+        
+        CompletableFuture<RateLimitResponse> check(String key, int cost) {
+            long requestId = requestIds.incrementAndGet();
+            CompletableFuture<RateLimitResponse> future = new CompletableFuture<>();
+            pending.put(requestId, future);
+            future.whenComplete((response, error) -> pending.remove(requestId));
+            send(new Request(ClusterProtocol.CHECK, requestId, ClusterProtocol.encode(key), cost, future));
+            return future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        
+        void record(String key, int cost) {
+            send(new Request(ClusterProtocol.RECORD, 0, ClusterProtocol.encode(key), cost, null));
+        }
+        
+        private synchronized void send(Request request) {
+            if (out != null) {
+                try {
+                    request.writeTo(out);
+                    out.flush();
+                } catch (IOException e) {
+                    disconnect(socket, e);
+                    request.fail(e);
+                }
+                return;
+            }
+            if (removed) {
+                request.fail(new IOException("Peer " + nodeId + " removed"));
+                return;
+            }
+            if (!connecting && failedConnects > 0 && System.nanoTime() - retryAt < 0) {
+                request.fail(unreachable);
+                return;
+            }
+            queued.add(request);
+            if (!connecting) {
+                connecting = true;
+                Thread connector = new Thread(this::connect, "cluster-transport-connect-" + nodeId);
+                connector.setDaemon(true);
+                connector.start();
+            }
+        }
+        
+        /**
+         * Open the connection on the connector thread, then send the requests that waited for it
+         */
+        private void connect() {
+            Socket opened = new Socket();
+            DataOutputStream stream;
+            try {
+                opened.connect(address, timeoutMillis);
+                opened.setTcpNoDelay(true);
+                stream = new DataOutputStream(new BufferedOutputStream(opened.getOutputStream()));
+            } catch (IOException e) {
+                closeQuietly(opened);
+                connectFailed(e);
+                return;
+            }
+            synchronized (this) {
+                connecting = false;
+                if (removed) {
+                    closeQuietly(opened);
+                    return;
+                }
+                if (failedConnects > 0) {
+                    logger.info("Reconnected to peer " + nodeId + " after " + failedConnects + " failed attempts");
+                    failedConnects = 0;
+                    unreachable = null;
+                }
+                socket = opened;
+                out = stream;
+                Thread reader = new Thread(() -> readResponses(opened), "cluster-transport-peer-" + nodeId);
+                reader.setDaemon(true);
+                reader.start();
+                try {
+                    for (Request request : queued) {
+                        request.writeTo(out);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    disconnect(opened, e);
+                } finally {
+                    queued.clear();
+                }
+            }
+        }
+        
+        /**
+         * Fail the waiting requests and back off; only the first failure of an outage is logged as a warning
+         */
+        private synchronized void connectFailed(IOException cause) {
+            connecting = false;
+            failedConnects++;
+            if (failedConnects == 1) {
+                retryDelayNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                logger.log(Level.WARNING, "Cannot connect to peer " + nodeId + " at " + address
+                    + ", retrying with backoff", cause);
+            } else {
+                retryDelayNanos = Math.min(retryDelayNanos * 2, Math.max(MAX_RETRY_DELAY_NANOS, retryDelayNanos));
+                logger.log(Level.FINE, "Cannot connect to peer " + nodeId + " (attempt " + failedConnects + ")", cause);
+            }
+            retryAt = System.nanoTime() + retryDelayNanos;
+            unreachable = new IOException("Peer " + nodeId + " is unreachable, retrying its connection with backoff",
+                cause);
+            for (Request request : queued) {
+                request.fail(cause);
+            }
+            queued.clear();
+        }
+        
+        private void readResponses(Socket connection) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+                while (true) {
+                    byte type = in.readByte();
+                    long requestId = in.readLong();
+                    CompletableFuture<RateLimitResponse> future;
+                    if (type == ClusterProtocol.RESPONSE) {
+                        RateLimitResponse response = ClusterProtocol.readResponse(in);
+                        future = pending.get(requestId);
+                        if (future != null) {
+                            future.complete(response);
+                        }
+                    } else if (type == ClusterProtocol.ERROR) {
+                        String message = ClusterProtocol.readString(in);
+                        future = pending.get(requestId);
+                        if (future != null) {
+                            future.completeExceptionally(new IllegalStateException(nodeId + ": " + message));
+                        }
+                    } else {
+                        throw new IOException("Unexpected frame type " + type + " from " + nodeId);
+                    }
+                }
+            } catch (IOException e) {
+                disconnect(connection, e);
+            }
+        }
+        
+        /**
+         * Drop the connection if it is still the current one and fail everything waiting on it
+         */
+        private synchronized void disconnect(Socket connection, IOException cause) {
+            if (connection != null && connection == socket) {
+                socket = null;
+                out = null;
+                closeQuietly(connection);
+                for (CompletableFuture<RateLimitResponse> future : pending.values()) {
+                    future.completeExceptionally(cause);
+                }
+            }
+        }
+        
+        synchronized void close() {
+            removed = true;
+            IOException cause = new IOException("Peer " + nodeId + " removed");
+            disconnect(socket, cause);
+            for (Request request : queued) {
+                request.fail(cause);
+            }
+            queued.clear();
+        }
+    }
+    
+    /**
+     * A request frame, encoded when it is sent so it can wait for a connection being opened
+     */
+    private static final class Request {
+        final byte type;
+        final long requestId;
+        final byte[] key;
+        final int cost;
+        // Null for a record, which is not answered
+        final CompletableFuture<RateLimitResponse> future;
+        
+        Request(byte type, long requestId, byte[] key, int cost, CompletableFuture<RateLimitResponse> future) {
+            this.type = type;
+            this.requestId = requestId;
+            this.key = key;
+            this.cost = cost;
+            this.future = future;
+        }
+        
+        void writeTo(DataOutputStream out) throws IOException {
+            ClusterProtocol.writeRequest(out, type, requestId, key, cost);
+        }
+        
+        void fail(IOException cause) {
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+    
+    /**
+     * Transport listening on an ephemeral loopback port
+     */
+    public TcpClusterTransport() throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), DEFAULT_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * @param bindAddress Address to accept peer connections on
+     * @param timeoutMillis Connect and response timeout for outgoing requests
+     */
+    public TcpClusterTransport(InetSocketAddress bindAddress, int timeoutMillis) throws IOException {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.peers = new ConcurrentHashMap<>();
+        this.acceptedSockets = ConcurrentHashMap.newKeySet();
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+    }
+    
+    /**
+     * Get the address peers connect to
+     * 
+     * @return The bound address
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+    
+    /**
+     * Register a peer; its connection is opened on the first request
+     * 
+     * @param nodeId The peer's node id
+     * @param address The address the peer listens on
+     */
+    public void addPeer(String nodeId, InetSocketAddress address) {
+        if (nodeId == null || address == null) {
+            throw new IllegalArgumentException("Node id and address cannot be null");
+        }
+        Peer previous = peers.put(nodeId, new Peer(nodeId, address));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    /**
+     * Forget a peer and close its connection
+     * 
+     * @param nodeId The peer's node id
+     */
+    public void removePeer(String nodeId) {
+        Peer peer = peers.remove(nodeId);
+        if (peer != null) {
+            peer.close();
+        }
+    }
+    
+    @Override
+    public synchronized void start(Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler cannot be null");
+        }
+        if (this.handler != null) {
+            throw new IllegalStateException("Transport is already started");
+        }
+        this.handler = handler;
+        Thread acceptor = new Thread(this::accept, "cluster-transport-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    @Override
+    public CompletableFuture<RateLimitResponse> check(String nodeId, String key, int cost) {
+        Peer peer = peers.get(nodeId);
+        if (peer == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Unknown node: " + nodeId));
+        }
+        return peer.check(key, cost);
+    }
+    
+    @Override
+    public void record(String nodeId, String key, int cost) {
+        Peer peer = peers.get(nodeId);
+        if (peer != null) {
+            peer.record(key, cost);
+        }
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        for (Socket socket : acceptedSockets) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+        peers.clear();
+    }
+    
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                acceptedSockets.add(socket);
+                // Accepted while close() ran, which may have missed it
+                if (closed) {
+                    acceptedSockets.remove(socket);
+                    closeQuietly(socket);
+                    break;
+                }
+                Thread connection = new Thread(() -> serve(socket), "cluster-transport-conn");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.log(Level.WARNING, "Error accepting cluster connection", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Answer the requests of one incoming connection in arrival order, until the transport is closed
+     */
+    private void serve(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (!closed) {
+                byte type = in.readByte();
+                long requestId = in.readLong();
+                String key = ClusterProtocol.readString(in);
+                int cost = in.readInt();
+                if (closed) {
+                    // A closed node answers nothing, its peers decide without it
+                    break;
+                }
+                if (type == ClusterProtocol.RECORD) {
+                    handler.record(key, cost);
+                    continue;
+                }
+                if (type != ClusterProtocol.CHECK) {
+                    throw new IOException("Unexpected frame type " + type);
+                }
+                try {
+                    ClusterProtocol.writeResponse(out, requestId, handler.check(key, cost));
+                } catch (RuntimeException e) {
+                    ClusterProtocol.writeError(out, requestId, e.getMessage());
+                }
+                // Requests already buffered are answered before flushing, which batches replies under load
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // Peer closed the connection
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Cluster connection failed", e);
+        } finally {
+            acceptedSockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+    
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nothing left to release
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.ratelimiter.core;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous Storage Interface for Rate Limiter
+ * Strategy Pattern - Non-blocking storage backends, so callers on event-loop threads never wait on I/O
+ */
+public interface AsyncRateLimitStorage {
+    /**
+     * Execute a described operation without blocking the caller
+     * 
+     * @param operation The operation
+     * @return Future completed with the result of the operation
+     */
+    CompletableFuture<Long> executeAsync(StorageOperation operation);
+    
+    /**
+     * Execute several operations as one exchange with the backend without blocking the caller
+     * 
+     * @param operations The operations
+     * @return Future completed with the results in the same order
+     */
+    CompletableFuture<long[]> executeAsync(List<StorageOperation> operations);
+}
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.ratelimiter.core;
+
+/**
+ * Paced Algorithm
+ * An algorithm that can reserve a permit ahead of time, so a caller can wait for it instead of being denied
+ */
+public interface PacedAlgorithm extends RateLimitingAlgorithm {
+    /**
+     * Reserve the next permit of a key if it becomes available within the given wait
+     * The reservation is made immediately and in order with all others, so the caller only has to
+     * wait out the returned time and never has to check again.
+     * 
+     * @param key The identifier for the rate limit
+     * @param timestamp The timestamp of the request in milliseconds
+     * @param maxWaitNanos Longest time the caller is willing to wait, in nanoseconds
+     * @return Nanoseconds until the reserved permit may be used, 0 if right away,
+     *         or -1 if no permit is available within maxWaitNanos and nothing was reserved
+     */
+    long reserve(String key, long timestamp, long maxWaitNanos);
+}
\ No newline at end of file
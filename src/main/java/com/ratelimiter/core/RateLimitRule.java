@@ -1,20 +1,60 @@
 package com.ratelimiter.core;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Rate Limit Rule Configuration
  * Immutable configuration object using Builder pattern
+ * 
+ * A rule may hold several bands, such as 10 per second and 500 per minute, which all have to
+ * admit a request; the first band is the one reported by getMaxRequests and getTimeWindow.
  */
 public class RateLimitRule {
     private final int maxRequests;
     private final Duration timeWindow;
     private final String algorithmType;
+    private final List<Band> bands;
     
-    private RateLimitRule(Builder builder) {
-        this.maxRequests = builder.maxRequests;
-        this.timeWindow = builder.timeWindow;
+    private RateLimitRule(Builder builder, List<Band> bands) {
+        this.maxRequests = bands.get(0).getMaxRequests();
+        this.timeWindow = bands.get(0).getTimeWindow();
         this.algorithmType = builder.algorithmType;
+        this.bands = Collections.unmodifiableList(bands);
+    }
+    
+    /**
+     * One limit of a rule: at most maxRequests per timeWindow
+     */
+    public static final class Band {
+        private final int maxRequests;
+        private final Duration timeWindow;
+        
+        public Band(int maxRequests, Duration timeWindow) {
+            if (maxRequests <= 0) {
+                throw new IllegalArgumentException("Max requests must be positive");
+            }
+            if (timeWindow == null || timeWindow.isZero()) {
+                throw new IllegalArgumentException("Time window must be valid");
+            }
+            this.maxRequests = maxRequests;
+            this.timeWindow = timeWindow;
+        }
+        
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+        
+        public Duration getTimeWindow() {
+            return timeWindow;
+        }
+        
+        @Override
+        public String toString() {
+            return maxRequests + "/" + timeWindow;
+        }
     }
     
     /**
@@ -24,6 +64,7 @@ public class RateLimitRule {
         private int maxRequests;
         private Duration timeWindow;
         private String algorithmType = "TOKEN_BUCKET";
+        private final List<Band> extraBands = new ArrayList<>();
         
         public Builder maxRequests(int maxRequests) {
             this.maxRequests = maxRequests;
@@ -40,14 +81,26 @@ public class RateLimitRule {
             return this;
         }
         
+        /**
+         * Add a further limit that requests must also stay within
+         * Bands are checked and consumed together, a request denied by one band uses none of the others.
+         * 
+         * @param maxRequests Maximum requests in the band's window
+         * @param timeWindow The band's window
+         * @return This builder instance
+         */
+        public Builder addBand(int maxRequests, Duration timeWindow) {
+            extraBands.add(new Band(maxRequests, timeWindow));
+            return this;
+        }
+        
         public RateLimitRule build() {
-            if (maxRequests <= 0) {
-                throw new IllegalArgumentException("Max requests must be positive");
+            List<Band> bands = new ArrayList<>();
+            if (maxRequests != 0 || timeWindow != null || extraBands.isEmpty()) {
+                bands.add(new Band(maxRequests, timeWindow));
             }
-            if (timeWindow == null || timeWindow.isZero()) {
-                throw new IllegalArgumentException("Time window must be valid");
-            }
-            return new RateLimitRule(this);
+            bands.addAll(extraBands);
+            return new RateLimitRule(this, bands);
         }
     }
     
@@ -64,8 +117,19 @@ public class RateLimitRule {
         return algorithmType; 
     }
     
+    public List<Band> getBands() {
+        return bands;
+    }
+    
+    public boolean isComposite() {
+        return bands.size() > 1;
+    }
+    
     @Override
     public String toString() {
+        if (isComposite()) {
+            return String.format("RateLimitRule{bands=%s, algorithmType='%s'}", bands, algorithmType);
+        }
         return String.format("RateLimitRule{maxRequests=%d, timeWindow=%s, algorithmType='%s'}", 
                 maxRequests, timeWindow, algorithmType);
     }
@@ -1,12 +1,23 @@
 package com.ratelimiter.core;
 
 import java.time.Duration;
+import java.util.List;
 
 /**
  * Storage Interface for Rate Limiter
  * Strategy Pattern - Different storage backends (Redis, In-Memory, etc.)
  */
 public interface RateLimitStorage {
+    /**
+     * Get the clock that this storage sets and checks expiry times against
+     * Algorithms use it for the time of calls that carry no timestamp, such as monitoring.
+     * 
+     * @return The storage's time source, the system clock unless configured otherwise
+     */
+    default TimeSource getTimeSource() {
+        return TimeSource.SYSTEM;
+    }
+    
     /**
      * Increment the value for the given key
      * 
@@ -47,4 +58,300 @@ public interface RateLimitStorage {
      * @return true if the key exists and is not expired
      */
     boolean exists(String key);
+    
+    /**
+     * Atomically increment the value for the given key and return the result
+     * 
+     * @param key The storage key
+     * @param delta The value to increment by
+     * @param expiry The expiration time, applied when the key is created
+     * @return The value after the increment
+     */
+    long incrementAndGet(String key, long delta, Duration expiry);
+    
+    /**
+     * Atomically set the value if it currently equals the expected value
+     * A missing or expired key has the value 0.
+     * 
+     * @param key The storage key
+     * @param expect The expected current value
+     * @param update The new value
+     * @param expiry The expiration time, applied when the value is set
+     * @return true if the value was set
+     */
+    boolean compareAndSet(String key, long expect, long update, Duration expiry);
+    
+    /**
+     * Get the values for several keys at once
+     * 
+     * @param keys The storage keys
+     * @return The values in the same order, 0 for missing or expired keys
+     */
+    default long[] multiGet(String... keys) {
+        long[] values = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+        }
+        return values;
+    }
+    
+    /**
+     * Atomically increment the value unless the result would exceed the limit
+     * The increment is stored only if the returned value is at or below the limit.
+     * 
+     * @param key The storage key
+     * @param delta The value to increment by
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time for the key
+     * @return The current value plus delta, whether or not it was stored
+     */
+    default long incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        while (true) {
+            long current = get(key);
+            long next = current + delta;
+            if (next > limit || compareAndSet(key, current, next, expiry)) {
+                return next;
+            }
+        }
+    }
+    
+    /**
+     * Atomically advance a time-like value: next = max(current, floor) + step
+     * The result is stored only if it is at or below the limit. This is the whole state update
+     * of a token bucket kept as the instant at which the bucket is empty.
+     * 
+     * @param key The storage key
+     * @param step The amount to advance by
+     * @param floor The lowest value the current value is raised to before advancing
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time, applied when the value is stored
+     * @return The advanced value, whether or not it was stored
+     */
+    default long advanceIfBelow(String key, long step, long floor, long limit, Duration expiry) {
+        while (true) {
+            long current = get(key);
+            long next = Math.max(current, floor) + step;
+            if (next > limit || compareAndSet(key, current, next, expiry)) {
+                return next;
+            }
+        }
+    }
+    
+    /**
+     * Atomically increment a window counter unless the weighted count would exceed the limit
+     * The weighted count is current + delta + floor(previous * previousWeight), which is what a
+     * sliding window counter compares against its limit. The previous window is closed, so it is
+     * only read; the increment of the current window is stored if the weighted count is at or below the limit.
+     * 
+     * @param key The storage key of the current window
+     * @param previousKey The storage key of the previous window
+     * @param previousWeight The share of the previous window that still counts
+     * @param delta The value to increment by
+     * @param limit The highest value the weighted count may reach
+     * @param expiry The expiration time for the key
+     * @return The weighted count including delta, whether or not it was stored
+     */
+    default long incrementIfBelow(String key, String previousKey, double previousWeight, long delta, long limit,
+                                  Duration expiry) {
+        long previous = (long) Math.floor(get(previousKey) * previousWeight);
+        return incrementIfBelow(key, delta, limit - previous, expiry) + previous;
+    }
+    
+    /**
+     * Get the value for the given key
+     * Storages that index by key override the key forms below; the others address values by name.
+     * 
+     * @param key The storage key
+     * @return The value, or 0 if key doesn't exist or is expired
+     */
+    default long get(StorageKey key) {
+        return get(key.name());
+    }
+    
+    /**
+     * Delete the key from storage
+     * 
+     * @param key The storage key to delete
+     */
+    default void delete(StorageKey key) {
+        delete(key.name());
+    }
+    
+    /**
+     * Set the value for the given key
+     * 
+     * @param key The storage key
+     * @param value The value to set
+     * @param expiry The expiration time for the key
+     */
+    default void set(StorageKey key, long value, Duration expiry) {
+        set(key.name(), value, expiry);
+    }
+    
+    /**
+     * Atomically increment the value for the given key and return the result
+     * 
+     * @param key The storage key
+     * @param delta The value to increment by
+     * @param expiry The expiration time, applied when the key is created
+     * @return The value after the increment
+     */
+    default long incrementAndGet(StorageKey key, long delta, Duration expiry) {
+        return incrementAndGet(key.name(), delta, expiry);
+    }
+    
+    /**
+     * Atomically set the value if it currently equals the expected value,
+     * see {@link #compareAndSet(String, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param expect The expected current value
+     * @param update The new value
+     * @param expiry The expiration time, applied when the value is set
+     * @return true if the value was set
+     */
+    default boolean compareAndSet(StorageKey key, long expect, long update, Duration expiry) {
+        return compareAndSet(key.name(), expect, update, expiry);
+    }
+    
+    /**
+     * Get the values of several keys, see {@link #multiGet(String...)}
+     * 
+     * @param keys The storage keys
+     * @return The value of each key, 0 if missing or expired, in the same order
+     */
+    default long[] multiGet(StorageKey... keys) {
+        String[] names = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            names[i] = keys[i].name();
+        }
+        return multiGet(names);
+    }
+    
+    /**
+     * Atomically increment the value unless the result would exceed the limit,
+     * see {@link #incrementIfBelow(String, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param delta The value to increment by
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time for the key
+     * @return The current value plus delta, whether or not it was stored
+     */
+    default long incrementIfBelow(StorageKey key, long delta, long limit, Duration expiry) {
+        return incrementIfBelow(key.name(), delta, limit, expiry);
+    }
+    
+    /**
+     * Atomically advance a time-like value, see {@link #advanceIfBelow(String, long, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param step The amount to advance by
+     * @param floor The lowest value the current value is raised to before advancing
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time, applied when the value is stored
+     * @return The advanced value, whether or not it was stored
+     */
+    default long advanceIfBelow(StorageKey key, long step, long floor, long limit, Duration expiry) {
+        return advanceIfBelow(key.name(), step, floor, limit, expiry);
+    }
+    
+    /**
+     * Atomically increment a window counter unless the weighted count would exceed the limit,
+     * see {@link #incrementIfBelow(String, String, double, long, long, Duration)}
+     * 
+     * @param key The storage key of the current window
+     * @param previousKey The storage key of the previous window
+     * @param previousWeight The share of the previous window that still counts
+     * @param delta The value to increment by
+     * @param limit The highest value the weighted count may reach
+     * @param expiry The expiration time for the key
+     * @return The weighted count including delta, whether or not it was stored
+     */
+    default long incrementIfBelow(StorageKey key, StorageKey previousKey, double previousWeight, long delta,
+                                  long limit, Duration expiry) {
+        return incrementIfBelow(key.name(), previousKey.name(), previousWeight, delta, limit, expiry);
+    }
+    
+    /**
+     * Execute a single described operation
+     * 
+     * @param operation The operation
+     * @return The result of the operation
+     */
+    default long execute(StorageOperation operation) {
+        switch (operation.getType()) {
+            case GET:
+                return get(operation.getStorageKey());
+            
+            case INCREMENT_IF_BELOW:
+                if (operation.getPreviousStorageKey() != null) {
+                    return incrementIfBelow(operation.getStorageKey(), operation.getPreviousStorageKey(),
+                        operation.getPreviousWeight(), operation.getAmount(), operation.getLimit(),
+                        operation.getExpiry());
+                }
+                return incrementIfBelow(operation.getStorageKey(), operation.getAmount(), operation.getLimit(),
+                    operation.getExpiry());
+            
+            case ADVANCE_IF_BELOW:
+                return advanceIfBelow(operation.getStorageKey(), operation.getAmount(), operation.getFloor(),
+                    operation.getLimit(), operation.getExpiry());
+            
+            case ALL:
+                return operation.recordResults(executeAll(operation.getOperations()));
+            
+            case EACH:
+                return operation.recordResults(execute(operation.getOperations()));
+            
+            default:
+                throw new IllegalArgumentException("Unknown operation type: " + operation.getType());
+        }
+    }
+    
+    /**
+     * Apply several conditional updates as one unit: all of them or none
+     * Every part is evaluated, so the caller learns how far each one is from its limit, and all of them are
+     * stored only if each is within its limit. This implementation applies them in order and takes the
+     * applied ones back when any is over its limit. Taking back is an increment by the negative amount,
+     * which commutes with concurrent updates of the same keys, so nothing is ever over-admitted; a
+     * concurrent request may only see the taken-back amounts as used for a moment. Storages that can
+     * check every key before writing any override this.
+     * 
+     * @param operations Conditional updates, each of type INCREMENT_IF_BELOW or ADVANCE_IF_BELOW
+     * @return The result of each part as if executed on its own; they were applied if all are within their limits
+     */
+    default long[] executeAll(List<StorageOperation> operations) {
+        long[] results = new long[operations.size()];
+        boolean applied = true;
+        for (int i = 0; i < results.length; i++) {
+            results[i] = execute(operations.get(i));
+            applied &= operations.get(i).isWithinLimit(results[i]);
+        }
+        if (!applied) {
+            for (int i = results.length - 1; i >= 0; i--) {
+                StorageOperation operation = operations.get(i);
+                if (operation.isWithinLimit(results[i])) {
+                    // An advance also raised the value to its floor, but every value below the floor means the same
+                    incrementAndGet(operation.getKey(), -operation.getAmount(), operation.getExpiry());
+                }
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Execute several operations as one exchange with the backend
+     * In-process storages run them one after another; remote storages pipeline them,
+     * so a batch costs one round trip instead of one per operation.
+     * 
+     * @param operations The operations
+     * @return The results in the same order
+     */
+    default long[] execute(List<StorageOperation> operations) {
+        long[] results = new long[operations.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = execute(operations.get(i));
+        }
+        return results;
+    }
 }
\ No newline at end of file
@@ -12,7 +12,35 @@ public interface RateLimitingAlgorithm {
      * @param timestamp The timestamp of the request in milliseconds
      * @return true if the request is allowed, false otherwise
      */
-    boolean isAllowed(String key, long timestamp);
+    default boolean isAllowed(String key, long timestamp) {
+        return isAllowed(key, timestamp, 1);
+    }
+    
+    /**
+     * Check if a request costing several permits is allowed, taking all of them or none
+     * 
+     * @param key The identifier for the rate limit (e.g., user ID, API key)
+     * @param timestamp The timestamp of the request in milliseconds
+     * @param permits The cost of the request, at least 1
+     * @return true if the request is allowed, false otherwise
+     */
+    default boolean isAllowed(String key, long timestamp, int permits) {
+        return decide(key, timestamp, permits).isAllowed();
+    }
+    
+    /**
+     * Decide a request costing several permits, taking all of them or none
+     * The decision is a single atomic step whatever the cost, never one step per permit, and the
+     * response is computed from the state that step read: the permits left after an admitted
+     * request, how long a denied one has to wait until it would be admitted, and when the key
+     * is back to its full quota if no further requests arrive.
+     * 
+     * @param key The identifier for the rate limit (e.g., user ID, API key)
+     * @param timestamp The timestamp of the request in milliseconds
+     * @param permits The cost of the request, at least 1
+     * @return The decision with remaining permits, retry-after and reset time
+     */
+    RateLimitResponse decide(String key, long timestamp, int permits);
     
     /**
      * Reset the rate limit state for the given key
@@ -0,0 +1,58 @@
+package com.ratelimiter.core;
+
+/**
+ * Storage-Backed Algorithm
+ * An algorithm whose whole decision is a single conditional storage operation,
+ * which lets the rate limiter send the decisions for many keys to the storage together
+ */
+public interface StorageBackedAlgorithm extends RateLimitingAlgorithm {
+    /**
+     * Decide a request from state held in process, for algorithms that keep some in front of the storage
+     * 
+     * @param key The identifier for the rate limit
+     * @param timestamp The timestamp of the request in milliseconds
+     * @param permits The number of permits to take
+     * @return The decision, or null if the request needs the operation from {@link #operationFor(String, long, int)}
+     */
+    default RateLimitResponse decideLocally(String key, long timestamp, int permits) {
+        return null;
+    }
+    
+    /**
+     * Describe the storage operation that decides a request
+     * The request is allowed if {@link StorageOperation#isWithinLimit(long)} holds for the result.
+     * 
+     * @param key The identifier for the rate limit
+     * @param timestamp The timestamp of the request in milliseconds
+     * @return The operation to execute
+     */
+    default StorageOperation operationFor(String key, long timestamp) {
+        return operationFor(key, timestamp, 1);
+    }
+    
+    /**
+     * Describe the storage operation that takes several permits at once
+     * Used to lease a batch of permits that are then handed out locally.
+     * 
+     * @param key The identifier for the rate limit
+     * @param timestamp The timestamp of the request in milliseconds
+     * @param permits The number of permits to take, all or none
+     * @return The operation to execute
+     */
+    StorageOperation operationFor(String key, long timestamp, int permits);
+    
+    /**
+     * Turn an executed operation into the decision
+     * Most algorithms decide from the result alone; others need more of the executed operation, such as
+     * the result of every part of an ALL operation, or the key whose local state the decision updates.
+     * 
+     * @param key The identifier for the rate limit
+     * @param operation The operation from {@link #operationFor(String, long, int)}, after the storage executed it
+     * @param result The result the storage returned for the operation
+     * @param timestamp The timestamp the operation was described for
+     * @param permits The permits the operation was described for
+     * @return The decision with remaining permits, retry-after and reset time
+     */
+    RateLimitResponse decisionFor(String key, StorageOperation operation, long result, long timestamp,
+                                  int permits);
+}
\ No newline at end of file
@@ -0,0 +1,192 @@
+package com.ratelimiter.core;
+
+/**
+ * Storage Key
+ * Value Object - A storage key made of a base key, a field and a window number, hashed once
+ * 
+ * Algorithms keep several values per key, such as a bucket or the counter of each window. Building
+ * those keys as strings costs a concatenation and a fresh hash on every decision; a storage key holds
+ * the parts instead and combines the base key's cached String hash with the others. Storages that
+ * index by key, like the in-memory one, use the parts directly; the others use its name.
+ * 
+ * The name is the base key followed by a separator, the field and the window number in five chars of
+ * 13 bits each, so it has no NUL or surrogate chars and survives UTF-8. Every name maps back to exactly
+ * one key, see {@link #of(String)}, so a value is the same whether it is addressed by key or by name.
+ * A key is also the {@link CharSequence} of its name, which hashes it without building the name.
+ */
+public final class StorageKey implements CharSequence {
+    private static final char SEPARATOR = '\u001F';
+    private static final int WINDOW_CHARS = 5;
+    private static final int WINDOW_BITS = 13;
+    private static final int WINDOW_MASK = (1 << WINDOW_BITS) - 1;
+    // Window chars are shifted past the C0 and C1 control chars
+    private static final char WINDOW_BASE = 0x100;
+    private static final int SUFFIX_LENGTH = 2 + WINDOW_CHARS;
+    private static final char NO_FIELD = 0;
+    
+    private final String base;
+    private final char field;
+    private final long window;
+    private final int hash;
+    // Built on first use, only storages addressed by name need it
+    private String name;
+    
+    private StorageKey(String base, char field, long window) {
+        this.base = base;
+        this.field = field;
+        this.window = window;
+        this.hash = field == NO_FIELD ? base.hashCode() : (31 * base.hashCode() + field) * 31 + Long.hashCode(window);
+    }
+    
+    /**
+     * Get the key of a name, splitting names that are the encoding of a field and window
+     * 
+     * @param name The storage key name
+     * @return The key, whose name is the given one
+     */
+    public static StorageKey of(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        int suffix = name.length() - SUFFIX_LENGTH;
+        if (suffix < 0 || name.charAt(suffix) != SEPARATOR || !isField(name.charAt(suffix + 1))) {
+            return new StorageKey(name, NO_FIELD, 0);
+        }
+        long window = 0;
+        for (int i = 0; i < WINDOW_CHARS; i++) {
+            int bits = name.charAt(suffix + 2 + i) - WINDOW_BASE;
+            // The first char carries only the top 12 bits of the window
+            int max = i == 0 ? (1 << (64 - WINDOW_BITS * (WINDOW_CHARS - 1))) - 1 : WINDOW_MASK;
+            if (bits < 0 || bits > max) {
+                return new StorageKey(name, NO_FIELD, 0);
+            }
+            window = window << WINDOW_BITS | bits;
+        }
+        return new StorageKey(name.substring(0, suffix), name.charAt(suffix + 1), window);
+    }
+    
+    /**
+     * Get the key of a field of a base key
+     * 
+     * @param base The base key, such as the rate limited key
+     * @param field The field, any char but NUL and the surrogates
+     * @return The key
+     */
+    public static StorageKey of(String base, char field) {
+        return of(base, field, 0);
+    }
+    
+    /**
+     * Get the key of a field of a base key in one window
+     * 
+     * @param base The base key, such as the rate limited key
+     * @param field The field, any char but NUL and the surrogates
+     * @param window The window number
+     * @return The key
+     */
+    public static StorageKey of(String base, char field, long window) {
+        if (base == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        if (!isField(field)) {
+            throw new IllegalArgumentException("Invalid field: " + (int) field);
+        }
+        return new StorageKey(base, field, window);
+    }
+    
+    private static boolean isField(char field) {
+        return field != NO_FIELD && !Character.isSurrogate(field);
+    }
+    
+    /**
+     * Get the same field of the base key in another window
+     * 
+     * @param window The window number
+     * @return The key
+     */
+    public StorageKey inWindow(long window) {
+        return window == this.window ? this : new StorageKey(base, field, window);
+    }
+    
+    /**
+     * Get the name of this key, for storages that address values by string
+     * 
+     * @return The name, built once per key
+     */
+    public String name() {
+        String result = name;
+        if (result == null) {
+            result = field == NO_FIELD ? base : new StringBuilder(length()).append(this).toString();
+            name = result;
+        }
+        return result;
+    }
+    
+    @Override
+    public int length() {
+        return field == NO_FIELD ? base.length() : base.length() + SUFFIX_LENGTH;
+    }
+    
+    @Override
+    public char charAt(int index) {
+        int suffix = index - base.length();
+        if (suffix < 0 || field == NO_FIELD) {
+            return base.charAt(index);
+        }
+        switch (suffix) {
+            case 0:
+                return SEPARATOR;
+            case 1:
+                return field;
+            default:
+                if (suffix >= SUFFIX_LENGTH) {
+                    throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length());
+                }
+                int shift = WINDOW_BITS * (SUFFIX_LENGTH - 1 - suffix);
+                return (char) (WINDOW_BASE + (int) (window >>> shift & WINDOW_MASK));
+        }
+    }
+    
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return name().subSequence(start, end);
+    }
+    
+    // Getters
+    public String getBase() {
+        return base;
+    }
+    
+    public char getField() {
+        return field;
+    }
+    
+    public long getWindow() {
+        return window;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StorageKey)) {
+            return false;
+        }
+        StorageKey other = (StorageKey) o;
+        return hash == other.hash && field == other.field && window == other.window && base.equals(other.base);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    /**
+     * The name of this key
+     */
+    @Override
+    public String toString() {
+        return name();
+    }
+}
\ No newline at end of file
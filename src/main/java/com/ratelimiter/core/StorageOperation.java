@@ -0,0 +1,307 @@
+package com.ratelimiter.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Storage Operation
+ * Command Pattern - Describes one storage call so several of them can be sent to the backend together
+ */
+public final class StorageOperation {
+    /**
+     * Supported operation types
+     */
+    public enum Type {
+        GET,
+        INCREMENT_IF_BELOW,
+        ADVANCE_IF_BELOW,
+        ALL,
+        EACH
+    }
+    
+    private final Type type;
+    private final StorageKey key;
+    private final StorageKey previousKey;
+    private final double previousWeight;
+    private final long amount;
+    private final long floor;
+    private final long limit;
+    private final Duration expiry;
+    // Parts of an ALL or EACH operation, null for the others
+    private final List<StorageOperation> operations;
+    // Result of each part, recorded by the storage that executed the ALL or EACH operation
+    private volatile long[] results;
+    
+    private StorageOperation(Type type, StorageKey key, StorageKey previousKey, double previousWeight,
+                             long amount, long floor, long limit, Duration expiry) {
+        this(type, key, previousKey, previousWeight, amount, floor, limit, expiry, null);
+    }
+    
+    private StorageOperation(Type type, StorageKey key, StorageKey previousKey, double previousWeight,
+                             long amount, long floor, long limit, Duration expiry, List<StorageOperation> operations) {
+        this.type = type;
+        this.key = key;
+        this.previousKey = previousKey;
+        this.previousWeight = previousWeight;
+        this.amount = amount;
+        this.floor = floor;
+        this.limit = limit;
+        this.expiry = expiry;
+        this.operations = operations;
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#get(String)}
+     * 
+     * @param key The storage key
+     * @return The operation
+     */
+    public static StorageOperation get(String key) {
+        return get(StorageKey.of(key));
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#get(StorageKey)}
+     * 
+     * @param key The storage key
+     * @return The operation
+     */
+    public static StorageOperation get(StorageKey key) {
+        return new StorageOperation(Type.GET, key, null, 0, 0, 0, Long.MAX_VALUE, null);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#incrementIfBelow(String, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param delta The value to increment by
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time for the key
+     * @return The operation
+     */
+    public static StorageOperation incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        return incrementIfBelow(StorageKey.of(key), delta, limit, expiry);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#incrementIfBelow(StorageKey, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param delta The value to increment by
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time for the key
+     * @return The operation
+     */
+    public static StorageOperation incrementIfBelow(StorageKey key, long delta, long limit, Duration expiry) {
+        return new StorageOperation(Type.INCREMENT_IF_BELOW, key, null, 0, delta, 0, limit, expiry);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#incrementIfBelow(String, String, double, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param previousKey The key of the previous window
+     * @param previousWeight The share of the previous window that still counts
+     * @param delta The value to increment by
+     * @param limit The highest value the weighted count may reach
+     * @param expiry The expiration time for the key
+     * @return The operation
+     */
+    public static StorageOperation incrementIfBelow(String key, String previousKey, double previousWeight,
+                                                    long delta, long limit, Duration expiry) {
+        return incrementIfBelow(StorageKey.of(key), StorageKey.of(previousKey), previousWeight, delta, limit, expiry);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#incrementIfBelow(StorageKey, StorageKey, double, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param previousKey The key of the previous window
+     * @param previousWeight The share of the previous window that still counts
+     * @param delta The value to increment by
+     * @param limit The highest value the weighted count may reach
+     * @param expiry The expiration time for the key
+     * @return The operation
+     */
+    public static StorageOperation incrementIfBelow(StorageKey key, StorageKey previousKey, double previousWeight,
+                                                    long delta, long limit, Duration expiry) {
+        return new StorageOperation(Type.INCREMENT_IF_BELOW, key, previousKey, previousWeight, delta, 0, limit, expiry);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#advanceIfBelow(String, long, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param step The amount to advance by
+     * @param floor The lowest value the current value is raised to before advancing
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time, applied when the value is stored
+     * @return The operation
+     */
+    public static StorageOperation advanceIfBelow(String key, long step, long floor, long limit, Duration expiry) {
+        return advanceIfBelow(StorageKey.of(key), step, floor, limit, expiry);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#advanceIfBelow(StorageKey, long, long, long, Duration)}
+     * 
+     * @param key The storage key
+     * @param step The amount to advance by
+     * @param floor The lowest value the current value is raised to before advancing
+     * @param limit The highest value the key may reach
+     * @param expiry The expiration time, applied when the value is stored
+     * @return The operation
+     */
+    public static StorageOperation advanceIfBelow(StorageKey key, long step, long floor, long limit, Duration expiry) {
+        return new StorageOperation(Type.ADVANCE_IF_BELOW, key, null, 0, step, floor, limit, expiry);
+    }
+    
+    /**
+     * Describe {@link RateLimitStorage#executeAll(List)} as a single operation
+     * The result is 0 if every part was applied, otherwise the 1-based position of the first part
+     * over its limit, in which case no part was applied. The storage also records every part's result
+     * in the operation, see {@link #getResults()}, so describe a new one for each request.
+     * 
+     * @param operations The conditional operations to apply together
+     * @return The operation
+     * @throws IllegalArgumentException if there are no parts or a part is not a conditional update
+     */
+    public static StorageOperation all(List<StorageOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Operations cannot be empty");
+        }
+        for (StorageOperation operation : operations) {
+            if (operation.getType() != Type.INCREMENT_IF_BELOW && operation.getType() != Type.ADVANCE_IF_BELOW) {
+                throw new IllegalArgumentException("Only conditional updates can be applied together: " + operation);
+            }
+        }
+        return new StorageOperation(Type.ALL, operations.get(0).getStorageKey(), null, 0, 0, 0, 0, null,
+            Collections.unmodifiableList(new ArrayList<>(operations)));
+    }
+    
+    /**
+     * Describe several conditional updates applied one after another, each on its own
+     * The result is that of the first part. The storage also records every part's result in the
+     * operation, see {@link #getResults()}, so describe a new one for each request. Remote storages
+     * send the parts in one exchange.
+     * 
+     * @param operations The conditional updates, or ALL operations, to apply in order
+     * @return The operation
+     * @throws IllegalArgumentException if there are no parts or a part is not a conditional update
+     */
+    public static StorageOperation each(List<StorageOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Operations cannot be empty");
+        }
+        for (StorageOperation operation : operations) {
+            if (operation.getType() == Type.GET || operation.getType() == Type.EACH) {
+                throw new IllegalArgumentException("Only conditional updates can be applied in order: " + operation);
+            }
+        }
+        return new StorageOperation(Type.EACH, operations.get(0).getStorageKey(), null, 0, 0, 0, 0, null,
+            Collections.unmodifiableList(new ArrayList<>(operations)));
+    }
+    
+    /**
+     * Check whether a conditional operation was applied
+     * 
+     * @param result The result returned by the storage for this operation
+     * @return true if the result stayed within the limit, i.e. the update was stored
+     */
+    public boolean isWithinLimit(long result) {
+        return result <= limit;
+    }
+    
+    /**
+     * Summarize the results of the parts of an ALL operation into its own result
+     * 
+     * @param results The result of each part, as returned by {@link RateLimitStorage#executeAll(List)}
+     * @return 0 if every part is within its limit, otherwise the 1-based position of the first that is not
+     */
+    public long firstOverLimit(long[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (!operations.get(i).isWithinLimit(results[i])) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Record the results of the parts of an executed ALL or EACH operation and summarize them into its own result
+     * 
+     * @param results The result of each part, in the order of the parts
+     * @return The result of the operation, see {@link #all(List)} and {@link #each(List)}
+     */
+    public long recordResults(long[] results) {
+        this.results = results;
+        return type == Type.EACH ? results[0] : firstOverLimit(results);
+    }
+    
+    /**
+     * Get the result of each part of an executed ALL or EACH operation
+     * 
+     * @return The results in the order of the parts, or null if the operation has not been executed
+     */
+    public long[] getResults() {
+        return results;
+    }
+    
+    // Getters
+    public Type getType() {
+        return type;
+    }
+    
+    public StorageKey getStorageKey() {
+        return key;
+    }
+    
+    public StorageKey getPreviousStorageKey() {
+        return previousKey;
+    }
+    
+    /**
+     * Get the name of the key, for storages that address values by string
+     */
+    public String getKey() {
+        return key.name();
+    }
+    
+    /**
+     * Get the name of the previous window's key, or null if the operation has none
+     */
+    public String getPreviousKey() {
+        return previousKey == null ? null : previousKey.name();
+    }
+    
+    public double getPreviousWeight() {
+        return previousWeight;
+    }
+    
+    public long getAmount() {
+        return amount;
+    }
+    
+    public long getFloor() {
+        return floor;
+    }
+    
+    public long getLimit() {
+        return limit;
+    }
+    
+    public Duration getExpiry() {
+        return expiry;
+    }
+    
+    public List<StorageOperation> getOperations() {
+        return operations;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("StorageOperation{type=%s, key='%s', amount=%d, limit=%d}", type, key, amount, limit);
+    }
+}
\ No newline at end of file
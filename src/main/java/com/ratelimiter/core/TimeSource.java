@@ -0,0 +1,23 @@
+package com.ratelimiter.core;
+
+/**
+ * Time Source
+ * Strategy Pattern - Where the limiter, its storage and its algorithms read the current time
+ * 
+ * Every decision reads the time, and storages read it again for each expiry, so one source is shared
+ * by all of them. Implementations must be thread-safe and cheap to call.
+ */
+@FunctionalInterface
+public interface TimeSource {
+    /**
+     * The system wall clock
+     */
+    TimeSource SYSTEM = System::currentTimeMillis;
+    
+    /**
+     * Get the current time
+     * 
+     * @return Milliseconds since the epoch, as seen by this source
+     */
+    long currentTimeMillis();
+}
\ No newline at end of file
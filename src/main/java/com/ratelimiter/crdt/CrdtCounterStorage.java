@@ -0,0 +1,335 @@
+package com.ratelimiter.crdt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * CRDT Counter Storage
+ * Advanced: Every key is a PN-counter with one shard per node; a node only ever writes its own shard,
+ * so decisions never wait on other nodes
+ * 
+ * A value is the sum over all shards of positive - negative. Local operations read the merged view
+ * (the latest shards received from other nodes plus this node's own) and update only this node's shard.
+ * Every gossip interval the node broadcasts the shards it changed; receivers keep the largest values
+ * seen per node. All nodes converge on the same values once gossip has been delivered, and until then
+ * each node may admit what the others admitted since their last delivered round.
+ * 
+ * Deleting or lowering a value adds to this node's negative count instead of removing the key, so the
+ * decrement reaches the other nodes as well. Values are sums, so only counters are meaningful here;
+ * time-like values such as token bucket instants are not.
+ */
+public class CrdtCounterStorage implements RateLimitStorage {
+    private static final Logger logger = Logger.getLogger(CrdtCounterStorage.class.getName());
+    public static final Duration DEFAULT_GOSSIP_INTERVAL = Duration.ofMillis(100);
+    // Every this many rounds all own shards are sent, not only changed ones, to repair lost messages
+    private static final int FULL_SYNC_ROUNDS = 10;
+    
+    private final String nodeId;
+    private final GossipTransport transport;
+    private final ConcurrentHashMap<String, Counter> counters;
+    private final TimeSource timeSource;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> gossipTask;
+    private long round;
+    
+    /**
+     * PN-counter of one key
+     * Guarded by its own monitor.
+     */
+    private static final class Counter {
+        long positive;
+        long negative;
+        // Latest {positive, negative} received from each other node, and their sum
+        final Map<String, long[]> remote = new HashMap<>(4);
+        long remoteValue;
+        long expiryTime;
+        boolean changed;
+        
+        Counter(long expiryTime) {
+            this.expiryTime = expiryTime;
+        }
+        
+        long value() {
+            return positive - negative + remoteValue;
+        }
+        
+        boolean isExpired(long now) {
+            return now > expiryTime;
+        }
+        
+        /**
+         * Change the value by delta through this node's shard
+         */
+        void add(long delta) {
+            if (delta >= 0) {
+                positive += delta;
+            } else {
+                negative -= delta;
+            }
+            changed = true;
+        }
+        
+        void merge(String origin, long originPositive, long originNegative, long originExpiryTime) {
+            long[] shard = remote.get(origin);
+            if (shard == null) {
+                shard = new long[2];
+                remote.put(origin, shard);
+            }
+            long mergedPositive = Math.max(shard[0], originPositive);
+            long mergedNegative = Math.max(shard[1], originNegative);
+            remoteValue += (mergedPositive - shard[0]) - (mergedNegative - shard[1]);
+            shard[0] = mergedPositive;
+            shard[1] = mergedNegative;
+            expiryTime = Math.max(expiryTime, originExpiryTime);
+        }
+    }
+    
+    /**
+     * Storage gossiping at the default interval
+     * 
+     * @param nodeId This node's id, unique in the cluster
+     * @param transport The transport shared with the other nodes
+     */
+    public CrdtCounterStorage(String nodeId, GossipTransport transport) {
+        this(nodeId, transport, DEFAULT_GOSSIP_INTERVAL);
+    }
+    
+    /**
+     * @param nodeId This node's id, unique in the cluster
+     * @param transport The transport shared with the other nodes
+     * @param gossipInterval Time between gossip rounds; shorter converges faster at the cost of more messages
+     */
+    public CrdtCounterStorage(String nodeId, GossipTransport transport, Duration gossipInterval) {
+        this(nodeId, transport, gossipInterval, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * @param nodeId This node's id, unique in the cluster
+     * @param transport The transport shared with the other nodes
+     * @param gossipInterval Time between gossip rounds; shorter converges faster at the cost of more messages
+     * @param timeSource The clock that expiry times are set and checked against; expiry times are gossiped,
+     *                   so every node should use a clock close to the same wall time
+     */
+    public CrdtCounterStorage(String nodeId, GossipTransport transport, Duration gossipInterval,
+                              TimeSource timeSource) {
+        if (nodeId == null || transport == null) {
+            throw new IllegalArgumentException("Node id and transport cannot be null");
+        }
+        if (gossipInterval == null || gossipInterval.toMillis() <= 0) {
+            throw new IllegalArgumentException("Gossip interval must be at least one millisecond");
+        }
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.counters = new ConcurrentHashMap<>();
+        this.timeSource = timeSource;
+        
+        transport.register(nodeId, this::receive);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-gossip-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = gossipInterval.toMillis();
+        // Random phase, so nodes started together do not gossip in lockstep
+        long initialDelay = 1 + ThreadLocalRandom.current().nextLong(intervalMillis);
+        this.gossipTask = scheduler.scheduleAtFixedRate(this::gossipQuietly, initialDelay, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+    
+    @Override
+    public void increment(String key, long value, Duration expiry) {
+        incrementAndGet(key, value, expiry);
+    }
+    
+    @Override
+    public long get(String key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            return 0;
+        }
+        synchronized (counter) {
+            return counter.isExpired(timeSource.currentTimeMillis()) ? 0 : counter.value();
+        }
+    }
+    
+    @Override
+    public void set(String key, long value, Duration expiry) {
+        long now = timeSource.currentTimeMillis();
+        Counter counter = liveCounter(key, now, expiry);
+        synchronized (counter) {
+            counter.add(value - counter.value());
+            counter.expiryTime = Math.max(counter.expiryTime, now + expiry.toMillis());
+        }
+    }
+    
+    @Override
+    public void delete(String key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            synchronized (counter) {
+                // Kept, not removed, so the decrement reaches the other nodes
+                counter.add(-counter.value());
+            }
+        }
+    }
+    
+    @Override
+    public boolean exists(String key) {
+        return get(key) != 0;
+    }
+    
+    @Override
+    public long incrementAndGet(String key, long delta, Duration expiry) {
+        Counter counter = liveCounter(key, timeSource.currentTimeMillis(), expiry);
+        synchronized (counter) {
+            counter.add(delta);
+            return counter.value();
+        }
+    }
+    
+    @Override
+    public boolean compareAndSet(String key, long expect, long update, Duration expiry) {
+        long now = timeSource.currentTimeMillis();
+        Counter counter = liveCounter(key, now, expiry);
+        synchronized (counter) {
+            if (counter.value() != expect) {
+                return false;
+            }
+            counter.add(update - expect);
+            counter.expiryTime = Math.max(counter.expiryTime, now + expiry.toMillis());
+            return true;
+        }
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        Counter counter = liveCounter(key, timeSource.currentTimeMillis(), expiry);
+        synchronized (counter) {
+            long next = counter.value() + delta;
+            if (next <= limit) {
+                counter.add(delta);
+            }
+            return next;
+        }
+    }
+    
+    /**
+     * Get the counter for a key, starting a fresh one if it is missing or expired
+     */
+    private Counter liveCounter(String key, long now, Duration expiry) {
+        Counter counter = counters.computeIfAbsent(key, k -> new Counter(now + expiry.toMillis()));
+        synchronized (counter) {
+            if (!counter.isExpired(now)) {
+                return counter;
+            }
+        }
+        // Expired: replace it, unless another thread already did
+        Counter fresh = new Counter(now + expiry.toMillis());
+        return counters.compute(key, (k, existing) -> existing == null || existing == counter ? fresh : existing);
+    }
+    
+    /**
+     * Merge a message from another node
+     */
+    void receive(GossipMessage message) {
+        if (nodeId.equals(message.getOrigin())) {
+            return;
+        }
+        long now = timeSource.currentTimeMillis();
+        for (GossipMessage.Entry entry : message.getEntries()) {
+            if (entry.getExpiryTime() < now) {
+                continue;
+            }
+            Counter counter = counters.computeIfAbsent(entry.getKey(), k -> new Counter(entry.getExpiryTime()));
+            synchronized (counter) {
+                counter.merge(message.getOrigin(), entry.getPositive(), entry.getNegative(), entry.getExpiryTime());
+            }
+        }
+    }
+    
+    /**
+     * Run a gossip round now: broadcast changed shards and drop expired counters
+     * 
+     * @return Number of shards sent
+     */
+    public synchronized int gossip() {
+        long now = timeSource.currentTimeMillis();
+        boolean fullSync = ++round % FULL_SYNC_ROUNDS == 0;
+        List<GossipMessage.Entry> entries = new ArrayList<>();
+        
+        for (Iterator<Map.Entry<String, Counter>> iterator = counters.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Counter> mapEntry = iterator.next();
+            Counter counter = mapEntry.getValue();
+            synchronized (counter) {
+                if (counter.isExpired(now)) {
+                    iterator.remove();
+                    continue;
+                }
+                if ((counter.changed || fullSync) && (counter.positive != 0 || counter.negative != 0)) {
+                    entries.add(new GossipMessage.Entry(mapEntry.getKey(), counter.positive, counter.negative,
+                        counter.expiryTime));
+                    counter.changed = false;
+                }
+            }
+        }
+        
+        if (!entries.isEmpty()) {
+            transport.broadcast(new GossipMessage(nodeId, entries));
+        }
+        return entries.size();
+    }
+    
+    private void gossipQuietly() {
+        try {
+            gossip();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Gossip round failed on " + nodeId, e);
+        }
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    /**
+     * Get the number of counters held (for monitoring)
+     * 
+     * @return Number of counters
+     */
+    public int size() {
+        return counters.size();
+    }
+    
+    /**
+     * Stop gossiping and leave the transport
+     * Should be called when the storage is no longer needed
+     */
+    public void shutdown() {
+        gossipTask.cancel(false);
+        scheduler.shutdown();
+        transport.unregister(nodeId);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,238 @@
+package com.ratelimiter.crdt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ratelimiter.algorithms.SlidingWindowCounterAlgorithm;
+import com.ratelimiter.core.RateLimitRule;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.TimeSource;
+import com.ratelimiter.service.RateLimiter;
+
+/**
+ * CRDT Multi-Node Simulator
+ * Runs several nodes sharing one limit over an {@link InProcessGossipTransport} and measures
+ * how far the admitted total overshoots the limit and how long the nodes take to agree afterwards
+ * 
+ * Every node offers requests at a fixed rate until the offered total is twice the limit. Convergence is
+ * the time from the last admitted request until every node reports the same count. Over-admission depends
+ * on where the gossip rounds fall relative to the moment the limit is reached, so average several runs.
+ */
+public class CrdtSimulator {
+    private static final String KEY = "simulated";
+    
+    private final int nodeCount;
+    private final Duration gossipInterval;
+    private final Duration latency;
+    private final double lossRate;
+    private final TimeSource timeSource;
+    
+    /**
+     * Outcome of one simulation
+     */
+    public static final class Result {
+        private final int limit;
+        private final long admitted;
+        private final long convergenceMillis;
+        
+        Result(int limit, long admitted, long convergenceMillis) {
+            this.limit = limit;
+            this.admitted = admitted;
+            this.convergenceMillis = convergenceMillis;
+        }
+        
+        public long getAdmitted() {
+            return admitted;
+        }
+        
+        /**
+         * Admitted requests beyond the limit, as a share of the limit
+         */
+        public double getOverAdmission() {
+            return Math.max(0, admitted - limit) / (double) limit;
+        }
+        
+        /**
+         * Time from the last admitted request until all nodes agreed, or -1 if they did not within the timeout
+         */
+        public long getConvergenceMillis() {
+            return convergenceMillis;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("Result{admitted=%d, limit=%d, overAdmission=%.2f%%, convergenceMillis=%d}",
+                admitted, limit, getOverAdmission() * 100, convergenceMillis);
+        }
+    }
+    
+    /**
+     * @param nodeCount Number of nodes
+     * @param gossipInterval Time between gossip rounds of each node
+     * @param latency Delivery delay of each gossip message
+     * @param lossRate Probability that a message is lost for a receiver
+     */
+    public CrdtSimulator(int nodeCount, Duration gossipInterval, Duration latency, double lossRate) {
+        this(nodeCount, gossipInterval, latency, lossRate, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * @param nodeCount Number of nodes
+     * @param gossipInterval Time between gossip rounds of each node
+     * @param latency Delivery delay of each gossip message
+     * @param lossRate Probability that a message is lost for a receiver
+     * @param timeSource The clock of the nodes' limiters and storages, which also picks the window
+     *                   that is compared; a stopped clock keeps a run in one window wherever it falls
+     */
+    public CrdtSimulator(int nodeCount, Duration gossipInterval, Duration latency, double lossRate,
+                         TimeSource timeSource) {
+        if (nodeCount <= 0) {
+            throw new IllegalArgumentException("Node count must be positive");
+        }
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        this.nodeCount = nodeCount;
+        this.gossipInterval = gossipInterval;
+        this.latency = latency;
+        this.lossRate = lossRate;
+        this.timeSource = timeSource;
+    }
+    
+    /**
+     * Run one simulation
+     * 
+     * @param limit The shared limit, per hour so a run on the system clock normally stays in one window
+     * @param requestsPerSecondPerNode Offered load of each node
+     * @return The measured result
+     */
+    public Result run(int limit, int requestsPerSecondPerNode) {
+        InProcessGossipTransport transport = new InProcessGossipTransport(latency, lossRate, 42);
+        RateLimitRule rule = new RateLimitRule.Builder()
+            .maxRequests(limit)
+            .timeWindow(Duration.ofHours(1))
+            .algorithm("CRDT_WINDOW_COUNTER")
+            .build();
+        
+        List<CrdtCounterStorage> storages = new ArrayList<>(nodeCount);
+        List<RateLimiter> limiters = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            CrdtCounterStorage storage = new CrdtCounterStorage("node-" + i, transport, gossipInterval, timeSource);
+            storages.add(storage);
+            limiters.add(new RateLimiter.Builder().storage(storage).timeSource(timeSource).addRule(KEY, rule).build());
+        }
+        
+        try {
+            AtomicLong admitted = new AtomicLong();
+            AtomicLong lastAdmittedAt = new AtomicLong();
+            long requestsPerNode = 2L * limit / nodeCount;
+            long pauseNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecondPerNode;
+            List<Thread> clients = new ArrayList<>(nodeCount);
+            for (RateLimiter limiter : limiters) {
+                Thread client = new Thread(() -> {
+                    long next = System.nanoTime();
+                    for (long i = 0; i < requestsPerNode; i++) {
+                        if (limiter.checkLimit(KEY).isAllowed()) {
+                            admitted.incrementAndGet();
+                            lastAdmittedAt.accumulateAndGet(System.nanoTime(), Math::max);
+                        }
+                        next += pauseNanos;
+                        LockSupport.parkNanos(next - System.nanoTime());
+                    }
+                }, "crdt-simulator-client");
+                clients.add(client);
+                client.start();
+            }
+            
+            long convergenceNanos = awaitConvergence(storages, clients, admitted, lastAdmittedAt);
+            return new Result(limit, admitted.get(),
+                convergenceNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(convergenceNanos));
+        } finally {
+            for (CrdtCounterStorage storage : storages) {
+                storage.shutdown();
+            }
+            transport.shutdown();
+        }
+    }
+    
+    /**
+     * Poll the nodes every millisecond while the load runs and after it, until they all count the admitted
+     * total once no more requests are coming
+     * 
+     * @return Time from the last admission to agreement, or -1 if the nodes did not agree within 30 seconds
+     */
+    private long awaitConvergence(List<CrdtCounterStorage> storages, List<Thread> clients, AtomicLong admitted,
+                                  AtomicLong lastAdmittedAt) {
+        long agreedAt = 0;
+        long agreedOn = -1;
+        long deadline = Long.MAX_VALUE;
+        while (System.nanoTime() < deadline) {
+            long total = admitted.get();
+            StorageKey windowKey = SlidingWindowCounterAlgorithm.windowKey(KEY,
+                timeSource.currentTimeMillis() / Duration.ofHours(1).toMillis());
+            boolean agreed = true;
+            for (CrdtCounterStorage storage : storages) {
+                if (storage.get(windowKey) != total) {
+                    agreed = false;
+                    break;
+                }
+            }
+            long now = System.nanoTime();
+            if (!agreed || total != agreedOn) {
+                agreedAt = agreed ? now : 0;
+                agreedOn = agreed ? total : -1;
+            }
+            
+            if (deadline == Long.MAX_VALUE && !isAnyAlive(clients)) {
+                deadline = now + TimeUnit.SECONDS.toNanos(30);
+            }
+            if (deadline != Long.MAX_VALUE && agreedAt != 0 && agreedOn == admitted.get()) {
+                return Math.max(0, agreedAt - lastAdmittedAt.get());
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return -1;
+    }
+    
+    private static boolean isAnyAlive(List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Print over-admission and convergence time for a range of gossip intervals
+     */
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        
+        int trials = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        
+        System.out.printf("%d nodes, limit %d, %d requests/s per node, 5 ms latency, 1%% loss, %d trials%n",
+            nodes, limit, rate, trials);
+        for (int intervalMillis : new int[]{5, 20, 50, 100, 250}) {
+            CrdtSimulator simulator = new CrdtSimulator(nodes, Duration.ofMillis(intervalMillis), Duration.ofMillis(5),
+                0.01);
+            double overAdmission = 0;
+            long convergenceMillis = 0;
+            for (int trial = 0; trial < trials; trial++) {
+                Result result = simulator.run(limit, rate);
+                overAdmission += result.getOverAdmission() / trials;
+                convergenceMillis = result.getConvergenceMillis() < 0 || convergenceMillis < 0
+                    ? -1
+                    : Math.max(convergenceMillis, result.getConvergenceMillis());
+            }
+            System.out.printf("gossip every %4d ms: mean over-admission %6.2f%%, worst convergence %d ms%n",
+                intervalMillis, overAdmission * 100, convergenceMillis);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.ratelimiter.crdt;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gossip Message
+ * Immutable delta sent by one node: its own shard of each counter that changed since its last round
+ * 
+ * A shard only ever grows (positive and negative are both increment-only), so messages can be
+ * delivered late, twice or out of order, and merging keeps the largest values seen.
+ */
+public final class GossipMessage {
+    private final String origin;
+    private final List<Entry> entries;
+    
+    /**
+     * The origin node's shard of one counter
+     */
+    public static final class Entry {
+        private final String key;
+        private final long positive;
+        private final long negative;
+        private final long expiryTime;
+        
+        public Entry(String key, long positive, long negative, long expiryTime) {
+            this.key = key;
+            this.positive = positive;
+            this.negative = negative;
+            this.expiryTime = expiryTime;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public long getPositive() {
+            return positive;
+        }
+        
+        public long getNegative() {
+            return negative;
+        }
+        
+        public long getExpiryTime() {
+            return expiryTime;
+        }
+    }
+    
+    public GossipMessage(String origin, List<Entry> entries) {
+        if (origin == null || entries == null) {
+            throw new IllegalArgumentException("Origin and entries cannot be null");
+        }
+        this.origin = origin;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+    
+    public String getOrigin() {
+        return origin;
+    }
+    
+    public List<Entry> getEntries() {
+        return entries;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.ratelimiter.crdt;
+
+import java.util.function.Consumer;
+
+/**
+ * Gossip Transport Interface
+ * Strategy Pattern - Carries counter deltas between nodes; delivery may be delayed, duplicated,
+ * reordered or lost, which the counters tolerate
+ */
+public interface GossipTransport {
+    /**
+     * Start delivering messages from other nodes to a node
+     * 
+     * @param nodeId The receiving node
+     * @param receiver Called with every message for the node
+     */
+    void register(String nodeId, Consumer<GossipMessage> receiver);
+    
+    /**
+     * Stop delivering messages to a node
+     * 
+     * @param nodeId The node to remove
+     */
+    void unregister(String nodeId);
+    
+    /**
+     * Send a message to every other registered node
+     * 
+     * @param message The message, whose origin is the sending node
+     */
+    void broadcast(GossipMessage message);
+}
\ No newline at end of file
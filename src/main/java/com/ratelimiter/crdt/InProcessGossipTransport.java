@@ -0,0 +1,96 @@
+package com.ratelimiter.crdt;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-Process Gossip Transport
+ * Delivers messages between nodes in the same JVM on a timer thread, with a configurable
+ * latency and loss rate to simulate a network
+ */
+public class InProcessGossipTransport implements GossipTransport {
+    private static final Logger logger = Logger.getLogger(InProcessGossipTransport.class.getName());
+    
+    private final long latencyNanos;
+    private final double lossRate;
+    private final Random random;
+    private final Map<String, Consumer<GossipMessage>> receivers;
+    private final ScheduledExecutorService delivery;
+    
+    /**
+     * Transport that delivers immediately and never loses messages
+     */
+    public InProcessGossipTransport() {
+        this(Duration.ZERO, 0, 0);
+    }
+    
+    /**
+     * @param latency Delay before each message is delivered
+     * @param lossRate Probability that a message is dropped for a receiver, in [0, 1)
+     * @param seed Seed of the loss decisions, for repeatable simulations
+     */
+    public InProcessGossipTransport(Duration latency, double lossRate, long seed) {
+        if (latency == null || latency.isNegative()) {
+            throw new IllegalArgumentException("Latency must not be negative");
+        }
+        if (!(lossRate >= 0 && lossRate < 1)) {
+            throw new IllegalArgumentException("Loss rate must be in [0, 1)");
+        }
+        this.latencyNanos = latency.toNanos();
+        this.lossRate = lossRate;
+        this.random = new Random(seed);
+        this.receivers = new ConcurrentHashMap<>();
+        this.delivery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-gossip-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public void register(String nodeId, Consumer<GossipMessage> receiver) {
+        if (nodeId == null || receiver == null) {
+            throw new IllegalArgumentException("Node id and receiver cannot be null");
+        }
+        receivers.put(nodeId, receiver);
+    }
+    
+    @Override
+    public void unregister(String nodeId) {
+        receivers.remove(nodeId);
+    }
+    
+    @Override
+    public void broadcast(GossipMessage message) {
+        for (Map.Entry<String, Consumer<GossipMessage>> entry : receivers.entrySet()) {
+            if (entry.getKey().equals(message.getOrigin()) || (lossRate > 0 && random.nextDouble() < lossRate)) {
+                continue;
+            }
+            Consumer<GossipMessage> receiver = entry.getValue();
+            delivery.schedule(() -> deliver(receiver, message), latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private static void deliver(Consumer<GossipMessage> receiver, GossipMessage message) {
+        try {
+            receiver.accept(message);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Gossip receiver failed for message from " + message.getOrigin(), e);
+        }
+    }
+    
+    /**
+     * Stop delivering messages
+     */
+    public void shutdown() {
+        delivery.shutdownNow();
+    }
+}
\ No newline at end of file
@@ -3,6 +3,10 @@ package com.ratelimiter.decorator;
 import com.ratelimiter.core.RateLimitResponse;
 import com.ratelimiter.service.RateLimiter;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -39,20 +43,20 @@ public class LoggingRateLimiterDecorator extends RateLimiterDecorator {
     }
     
     @Override
-    public RateLimitResponse checkLimit(String key) {
+    public RateLimitResponse checkLimit(String key, int cost) {
         long startTime = System.currentTimeMillis();
         
         try {
-            RateLimitResponse response = rateLimiter.checkLimit(key);
+            RateLimitResponse response = rateLimiter.checkLimit(key, cost);
             long endTime = System.currentTimeMillis();
             
             // Log based on configuration
             if (logAllRequests || (logOnlyDenied && !response.isAllowed())) {
-                logRequest(key, response, endTime - startTime);
+                logRequest(key, cost, response, endTime - startTime);
             }
             
             return response;
-            
+        
         } catch (Exception e) {
             long endTime = System.currentTimeMillis();
             logError(key, e, endTime - startTime);
@@ -60,17 +64,61 @@ public class LoggingRateLimiterDecorator extends RateLimiterDecorator {
         }
     }
     
+    @Override
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key, int cost) {
+        long startTime = System.currentTimeMillis();
+        
+        return rateLimiter.checkLimitAsync(key, cost).whenComplete((response, error) -> {
+            long endTime = System.currentTimeMillis();
+            if (error != null) {
+                logError(key, error, endTime - startTime);
+            } else if (logAllRequests || (logOnlyDenied && !response.isAllowed())) {
+                logRequest(key, cost, response, endTime - startTime);
+            }
+        });
+    }
+    
+    @Override
+    public List<RateLimitResponse> checkLimits(Collection<String> keys, int[] costs) {
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            List<RateLimitResponse> responses = rateLimiter.checkLimits(keys, costs);
+            long endTime = System.currentTimeMillis();
+            
+            // The batch shares one duration
+            Iterator<String> keyIterator = keys.iterator();
+            int i = 0;
+            for (RateLimitResponse response : responses) {
+                String key = keyIterator.next();
+                int cost = costs == null ? 1 : costs[i];
+                i++;
+                if (logAllRequests || (logOnlyDenied && !response.isAllowed())) {
+                    logRequest(key, cost, response, endTime - startTime);
+                }
+            }
+            
+            return responses;
+        
+        } catch (Exception e) {
+            long endTime = System.currentTimeMillis();
+            logError(String.valueOf(keys), e, endTime - startTime);
+            throw e;
+        }
+    }
+    
     /**
      * Log a rate limit request
      * 
      * @param key The request key
+     * @param cost The permits the request asked for
      * @param response The rate limit response
      * @param duration The duration of the request in milliseconds
      */
-    private void logRequest(String key, RateLimitResponse response, long duration) {
+    private void logRequest(String key, int cost, RateLimitResponse response, long duration) {
         String status = response.isAllowed() ? "ALLOWED" : "DENIED";
-        String message = String.format("[RATE_LIMITER] Key: %s, Status: %s, Duration: %dms, Remaining: %d", 
-            key, status, duration, response.getRemainingRequests());
+        String message = String.format("[RATE_LIMITER] Key: %s, Cost: %d, Status: %s, Duration: %dms, Remaining: %d", 
+            key, cost, status, duration, response.getRemainingRequests());
         
         if (response.isAllowed()) {
             logger.info(message);
@@ -86,7 +134,7 @@ public class LoggingRateLimiterDecorator extends RateLimiterDecorator {
      * @param exception The exception that occurred
      * @param duration The duration before the error occurred
      */
-    private void logError(String key, Exception exception, long duration) {
+    private void logError(String key, Throwable exception, long duration) {
         String message = String.format("[RATE_LIMITER_ERROR] Key: %s, Duration: %dms, Error: %s", 
             key, duration, exception.getMessage());
         logger.log(Level.SEVERE, message, exception);
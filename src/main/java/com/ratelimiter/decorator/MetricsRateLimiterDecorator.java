@@ -1,11 +1,16 @@
 package com.ratelimiter.decorator;
 
 import com.ratelimiter.core.RateLimitResponse;
+import com.ratelimiter.eviction.KeyStateBudget;
+import com.ratelimiter.eviction.KeyStateMap;
 import com.ratelimiter.service.RateLimiter;
 
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.Map;
 
 /**
@@ -21,7 +26,7 @@ public class MetricsRateLimiterDecorator extends RateLimiterDecorator {
     private final AtomicLong minResponseTime = new AtomicLong(Long.MAX_VALUE);
     
     // Per-key metrics
-    private final ConcurrentHashMap<String, KeyMetrics> keyMetrics = new ConcurrentHashMap<>();
+    private final KeyStateMap<KeyMetrics> keyMetrics;
     
     /**
      * Metrics for individual keys
@@ -31,18 +36,40 @@ public class MetricsRateLimiterDecorator extends RateLimiterDecorator {
         final AtomicLong allowed = new AtomicLong(0);
         final AtomicLong denied = new AtomicLong(0);
         
+        // Three AtomicLongs and the holder
+        static final long BYTES = 88;
+        
         double getSuccessRate() {
             long total = requests.get();
             return total > 0 ? (allowed.get() * 100.0 / total) : 0.0;
         }
     }
     
+    /**
+     * Constructor that keeps per-key metrics within the rate limiter's key state budget
+     * 
+     * @param rateLimiter The rate limiter instance to decorate
+     */
     public MetricsRateLimiterDecorator(RateLimiter rateLimiter) {
+        this(rateLimiter, rateLimiter == null ? null : rateLimiter.getKeyStateBudget());
+    }
+    
+    /**
+     * Constructor with the budget for per-key metrics
+     * 
+     * @param rateLimiter The rate limiter instance to decorate
+     * @param budget Bounds the keys metrics are kept for, metrics of an evicted key start over
+     */
+    public MetricsRateLimiterDecorator(RateLimiter rateLimiter, KeyStateBudget budget) {
         super(rateLimiter);
+        if (budget == null) {
+            throw new IllegalArgumentException("Budget cannot be null");
+        }
+        this.keyMetrics = budget.newMap(metrics -> KeyMetrics.BYTES, null);
     }
     
     @Override
-    public RateLimitResponse checkLimit(String key) {
+    public RateLimitResponse checkLimit(String key, int cost) {
         long startTime = System.currentTimeMillis();
         totalRequests.incrementAndGet();
         
@@ -51,7 +78,7 @@ public class MetricsRateLimiterDecorator extends RateLimiterDecorator {
         keyMetric.requests.incrementAndGet();
         
         try {
-            RateLimitResponse response = rateLimiter.checkLimit(key);
+            RateLimitResponse response = rateLimiter.checkLimit(key, cost);
             long endTime = System.currentTimeMillis();
             long duration = endTime - startTime;
             
@@ -67,7 +94,66 @@ public class MetricsRateLimiterDecorator extends RateLimiterDecorator {
             }
             
             return response;
+        
+        } catch (Exception e) {
+            long endTime = System.currentTimeMillis();
+            updateResponseTimeMetrics(endTime - startTime);
+            throw e;
+        }
+    }
+    
+    @Override
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key, int cost) {
+        long startTime = System.currentTimeMillis();
+        totalRequests.incrementAndGet();
+        
+        // Update per-key metrics
+        KeyMetrics keyMetric = keyMetrics.computeIfAbsent(key, k -> new KeyMetrics());
+        keyMetric.requests.incrementAndGet();
+        
+        return rateLimiter.checkLimitAsync(key, cost).whenComplete((response, error) -> {
+            long endTime = System.currentTimeMillis();
+            updateResponseTimeMetrics(endTime - startTime);
             
+            if (error == null) {
+                if (response.isAllowed()) {
+                    allowedRequests.incrementAndGet();
+                    keyMetric.allowed.incrementAndGet();
+                } else {
+                    deniedRequests.incrementAndGet();
+                    keyMetric.denied.incrementAndGet();
+                }
+            }
+        });
+    }
+    
+    @Override
+    public List<RateLimitResponse> checkLimits(Collection<String> keys, int[] costs) {
+        long startTime = System.currentTimeMillis();
+        totalRequests.addAndGet(keys.size());
+        
+        try {
+            List<RateLimitResponse> responses = rateLimiter.checkLimits(keys, costs);
+            long endTime = System.currentTimeMillis();
+            
+            // One response time sample for the whole batch
+            updateResponseTimeMetrics(endTime - startTime);
+            
+            Iterator<String> keyIterator = keys.iterator();
+            for (RateLimitResponse response : responses) {
+                KeyMetrics keyMetric = keyMetrics.computeIfAbsent(keyIterator.next(), k -> new KeyMetrics());
+                keyMetric.requests.incrementAndGet();
+                if (response.isAllowed()) {
+                    allowedRequests.incrementAndGet();
+                    keyMetric.allowed.incrementAndGet();
+                } else {
+                    deniedRequests.incrementAndGet();
+                    keyMetric.denied.incrementAndGet();
+                }
+            }
+            
+            return responses;
+        
         } catch (Exception e) {
             long endTime = System.currentTimeMillis();
             updateResponseTimeMetrics(endTime - startTime);
@@ -117,7 +203,7 @@ public class MetricsRateLimiterDecorator extends RateLimiterDecorator {
         
         if (!keyMetrics.isEmpty()) {
             System.out.println("\n=== PER-KEY METRICS ===");
-            for (Map.Entry<String, KeyMetrics> entry : keyMetrics.entrySet()) {
+            for (Map.Entry<String, KeyMetrics> entry : keyMetrics.entries()) {
                 String key = entry.getKey();
                 KeyMetrics metrics = entry.getValue();
                 System.out.printf("Key: %s - Requests: %d, Allowed: %d, Denied: %d, Success Rate: %.2f%%%n",
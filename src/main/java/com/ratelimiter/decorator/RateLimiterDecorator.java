@@ -3,6 +3,11 @@ package com.ratelimiter.decorator;
 import com.ratelimiter.core.RateLimitResponse;
 import com.ratelimiter.service.RateLimiter;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Rate Limiter Decorator Base
  * Allows adding cross-cutting concerns using the Decorator pattern
@@ -24,12 +29,93 @@ public abstract class RateLimiterDecorator {
     
     /**
      * Check rate limit for the given key
+     * 
+     * @param key The key to check rate limit for
+     * @return RateLimitResponse indicating whether the request is allowed
+     */
+    public RateLimitResponse checkLimit(String key) {
+        return checkLimit(key, 1);
+    }
+    
+    /**
+     * Check rate limit for a request that costs several permits
      * This method should be implemented by concrete decorators
      * 
      * @param key The key to check rate limit for
+     * @param cost The permits the request takes, at least 1
      * @return RateLimitResponse indicating whether the request is allowed
      */
-    public abstract RateLimitResponse checkLimit(String key);
+    public abstract RateLimitResponse checkLimit(String key, int cost);
+    
+    /**
+     * Check rate limits for several keys in one pass
+     * 
+     * @param keys The keys to check
+     * @return One response per key, in iteration order of the collection
+     */
+    public List<RateLimitResponse> checkLimits(Collection<String> keys) {
+        return checkLimits(keys, null);
+    }
+    
+    /**
+     * Check rate limits for several requests of different cost in one pass
+     * Delegates to the rate limiter's batch check; concrete decorators override this
+     * to apply their concern to every key of the batch.
+     * 
+     * @param keys The keys to check
+     * @param costs The permits each request takes, in iteration order of the keys; null for 1 each
+     * @return One response per key, in iteration order of the collection
+     */
+    public List<RateLimitResponse> checkLimits(Collection<String> keys, int[] costs) {
+        return rateLimiter.checkLimits(keys, costs);
+    }
+    
+    /**
+     * Check rate limit for the given key without blocking the caller
+     * 
+     * @param key The key to check rate limit for
+     * @return Future completed with the RateLimitResponse
+     */
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key) {
+        return checkLimitAsync(key, 1);
+    }
+    
+    /**
+     * Check rate limit for a request that costs several permits without blocking the caller
+     * Delegates to the rate limiter; concrete decorators override this to apply their concern
+     * when the future completes.
+     * 
+     * @param key The key to check rate limit for
+     * @param cost The permits the request takes, at least 1
+     * @return Future completed with the RateLimitResponse
+     */
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key, int cost) {
+        return rateLimiter.checkLimitAsync(key, cost);
+    }
+    
+    /**
+     * Wait for a permit for the given key
+     * Delegates to the rate limiter.
+     * 
+     * @param key The key to acquire a permit for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(String key) throws InterruptedException {
+        rateLimiter.acquire(key);
+    }
+    
+    /**
+     * Wait for a permit for the given key, unless it cannot be had within the timeout
+     * Delegates to the rate limiter.
+     * 
+     * @param key The key to acquire a permit for
+     * @param timeout Longest time to wait for the permit
+     * @return true if a permit was acquired
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryAcquire(String key, Duration timeout) throws InterruptedException {
+        return rateLimiter.tryAcquire(key, timeout);
+    }
     
     /**
      * Get the underlying rate limiter instance
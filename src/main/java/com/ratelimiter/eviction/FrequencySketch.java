@@ -0,0 +1,82 @@
+package com.ratelimiter.eviction;
+
+/**
+ * Frequency Sketch
+ * Advanced: Count-Min sketch of 4-bit counters that estimates how often each key was seen recently
+ * 
+ * Sixteen counters are packed in each long and a key maps to four of them in one long, so an
+ * update touches a single word. When the number of recorded events reaches ten times the table
+ * size every counter is halved, so the estimate follows recent popularity instead of all history.
+ * Not thread-safe, it is only used under the budget's lock.
+ */
+final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+    
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+    
+    /**
+     * @param expectedKeys Number of keys the sketch should tell apart
+     */
+    FrequencySketch(int expectedKeys) {
+        int size = Integer.highestOneBit(Math.max(16, Math.min(expectedKeys, 1 << 26) - 1) << 1);
+        this.table = new long[size / 4];
+        this.tableMask = table.length - 1;
+        this.sampleSize = size * 10;
+    }
+    
+    /**
+     * Estimate how often a key was seen, from 0 to 15
+     */
+    int frequency(int hash) {
+        long word = table[index(hash)];
+        int min = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            min = Math.min(min, (int) (word >>> offset(hash, i)) & MAX_COUNT);
+        }
+        return min;
+    }
+    
+    /**
+     * Record one occurrence of a key
+     */
+    void increment(int hash) {
+        int index = index(hash);
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int offset = offset(hash, i);
+            if (((table[index] >>> offset) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+    
+    /**
+     * Halve every counter so that old popularity fades out
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+    
+    private int index(int hash) {
+        return (hash * 0x9E3779B9 >>> 7) & tableMask;
+    }
+    
+    /**
+     * Bit offset of the i-th counter of a key, one in each quarter of the word
+     */
+    private static int offset(int hash, int i) {
+        int h = hash * (0x85EBCA6B + i * 0x27D4EB2E);
+        return (i << 4) + ((h >>> 30) << 2);
+    }
+}
\ No newline at end of file
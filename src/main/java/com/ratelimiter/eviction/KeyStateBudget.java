@@ -0,0 +1,403 @@
+package com.ratelimiter.eviction;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Key State Budget
+ * Advanced: Bounds the number of keys and the estimated bytes of per-key state with W-TinyLFU eviction
+ * 
+ * One budget is shared by any number of {@link KeyStateMap}s, so every algorithm and decorator of a
+ * rate limiter competes for the same memory. New keys enter a small LRU window; keys falling out of
+ * the window only make it into the main space if a frequency sketch says they have been seen more
+ * often than the key they would displace. A burst of one-off keys therefore churns through the window
+ * while hot keys stay resident. The main space is a segmented LRU whose protected part holds keys that
+ * were accessed again after admission.
+ * 
+ * Reads are recorded in lossy striped buffers, inserts and removals in a write buffer that loses
+ * nothing. Whichever thread gets the lock with tryLock replays them and evicts, so neither a lookup
+ * nor an insert or removal ever waits for another thread; until the buffered inserts are replayed the
+ * budget may be exceeded by that many keys.
+ */
+public final class KeyStateBudget {
+    // Estimated fixed cost of a key: map and policy nodes, String header and array
+    static final long KEY_OVERHEAD = 112;
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    private static final int READ_BUFFER_SIZE = 32;
+    
+    private static final int NEW = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+    private static final int DEAD = 4;
+    
+    private static final KeyStateBudget UNBOUNDED = new KeyStateBudget();
+    
+    private final boolean bounded;
+    private final long maxKeys;
+    private final long maxBytes;
+    private final ReentrantLock lock;
+    private final FrequencySketch sketch;
+    private final AccessQueue window;
+    private final AccessQueue probation;
+    private final AccessQueue protectedQueue;
+    private final ReadBuffer[] readBuffers;
+    // Keys added to or removed from their map since the last drain
+    private final ConcurrentLinkedQueue<Node<?>> writeBuffer;
+    private volatile long keyCount;
+    private volatile long byteCount;
+    private volatile long evictionCount;
+    
+    /**
+     * Per-key state tracked by the policy
+     * Everything but the final fields is guarded by the budget's lock.
+     */
+    static final class Node<V> {
+        final String key;
+        final V value;
+        final KeyStateMap<V> owner;
+        int queue;
+        long weight;
+        Node<?> prev;
+        Node<?> next;
+        
+        Node(String key, V value, KeyStateMap<V> owner) {
+            this.key = key;
+            this.value = value;
+            this.owner = owner;
+        }
+    }
+    
+    /**
+     * Intrusive doubly-linked LRU list, least recently used first
+     */
+    private static final class AccessQueue {
+        final Node<?> sentinel = new Node<>(null, null, null);
+        final int id;
+        long count;
+        long bytes;
+        
+        AccessQueue(int id) {
+            this.id = id;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+        
+        Node<?> first() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+        
+        Node<?> after(Node<?> node) {
+            return node.next == sentinel ? null : node.next;
+        }
+        
+        void addLast(Node<?> node) {
+            node.prev = sentinel.prev;
+            node.next = sentinel;
+            sentinel.prev.next = node;
+            sentinel.prev = node;
+            node.queue = id;
+            count++;
+            bytes += node.weight;
+        }
+        
+        void remove(Node<?> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            count--;
+            bytes -= node.weight;
+        }
+    }
+    
+    /**
+     * Lossy buffer of recent reads, slots are overwritten if the drain falls behind
+     */
+    private static final class ReadBuffer {
+        final AtomicLong writes = new AtomicLong();
+        final AtomicReferenceArray<Node<?>> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    }
+    
+    private KeyStateBudget() {
+        this.bounded = false;
+        this.maxKeys = Long.MAX_VALUE;
+        this.maxBytes = Long.MAX_VALUE;
+        this.lock = null;
+        this.sketch = null;
+        this.window = null;
+        this.probation = null;
+        this.protectedQueue = null;
+        this.readBuffers = null;
+        this.writeBuffer = null;
+    }
+    
+    /**
+     * @param maxKeys Most keys held across all maps of this budget
+     * @param maxBytes Most estimated bytes of keys and state held across all maps of this budget
+     */
+    public KeyStateBudget(int maxKeys, long maxBytes) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys must be positive");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive");
+        }
+        this.bounded = true;
+        this.maxKeys = maxKeys;
+        this.maxBytes = maxBytes;
+        this.lock = new ReentrantLock();
+        this.sketch = new FrequencySketch(maxKeys);
+        this.window = new AccessQueue(WINDOW);
+        this.probation = new AccessQueue(PROBATION);
+        this.protectedQueue = new AccessQueue(PROTECTED);
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.writeBuffer = new ConcurrentLinkedQueue<>();
+    }
+    
+    /**
+     * Get the budget that never evicts, maps created from it behave like plain concurrent maps
+     * 
+     * @return The shared unbounded budget
+     */
+    public static KeyStateBudget unbounded() {
+        return UNBOUNDED;
+    }
+    
+    /**
+     * Create a map whose entries are held within this budget
+     * 
+     * @param weigher Estimated bytes of a value, excluding the key; re-evaluated when the key is accessed
+     * @param evictionListener Called with each entry evicted to make room, while the budget is locked,
+     *                         so it must be quick and must not use the budget; may be null
+     * @return A new empty map
+     */
+    public <V> KeyStateMap<V> newMap(ToLongFunction<? super V> weigher, BiConsumer<String, ? super V> evictionListener) {
+        if (weigher == null) {
+            throw new IllegalArgumentException("Weigher cannot be null");
+        }
+        return new KeyStateMap<>(this, weigher, evictionListener);
+    }
+    
+    /**
+     * Whether this budget limits its maps at all
+     * 
+     * @return false for the unbounded budget
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+    
+    /**
+     * Get the number of keys held across all maps (for monitoring)
+     * 
+     * @return Resident key count
+     */
+    public long getKeyCount() {
+        return keyCount;
+    }
+    
+    /**
+     * Get the estimated bytes held across all maps (for monitoring)
+     * 
+     * @return Resident bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+    
+    /**
+     * Get the number of keys evicted so far (for monitoring)
+     * 
+     * @return Eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * Start tracking a key that was just added to its map, evicting others if the budget is exceeded
+     */
+    void register(Node<?> node) {
+        writeBuffer.offer(node);
+        tryMaintain();
+    }
+    
+    /**
+     * Stop tracking a key that was removed from its map
+     */
+    void unregister(Node<?> node) {
+        writeBuffer.offer(node);
+        tryMaintain();
+    }
+    
+    /**
+     * Note a read of a resident key, replaying buffered reads if this buffer filled up
+     */
+    void recordRead(Node<?> node) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        long index = buffer.writes.getAndIncrement();
+        buffer.slots.lazySet((int) index & (READ_BUFFER_SIZE - 1), node);
+        if ((index & (READ_BUFFER_SIZE - 1)) == READ_BUFFER_SIZE - 1) {
+            tryMaintain();
+        }
+    }
+    
+    /**
+     * Replay the buffers and evict, unless another thread holds the lock
+     * Every holder checks the write buffer again after unlocking, so a write is never left behind.
+     */
+    private void tryMaintain() {
+        do {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                maintain();
+            } finally {
+                lock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+    
+    private void maintain() {
+        Node<?> node;
+        while ((node = writeBuffer.poll()) != null) {
+            if (!node.owner.isResident(node)) {
+                // Removed, possibly before its insert was replayed
+                unlink(node);
+                node.queue = DEAD;
+            } else if (node.queue == NEW) {
+                // Buffered twice when the thread that lost the insert race registers it too
+                node.weight = weigh(node);
+                sketch.increment(node.key.hashCode());
+                window.addLast(node);
+            }
+        }
+        drainReadBuffers();
+        evict();
+    }
+    
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                Node<?> node = buffer.slots.getAndSet(i, null);
+                if (node != null) {
+                    onAccess(node);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Count the access, pick up a changed weight and move the key to the end of its queue,
+     * promoting it to the protected segment if it was on probation
+     */
+    private void onAccess(Node<?> node) {
+        AccessQueue queue = queueOf(node);
+        if (queue == null) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        queue.remove(node);
+        node.weight = weigh(node);
+        if (queue == probation) {
+            protectedQueue.addLast(node);
+            while (protectedQueue.count > 1 && (protectedQueue.count > maxKeys * PROTECTED_SHARE
+                    || protectedQueue.bytes > maxBytes * PROTECTED_SHARE)) {
+                Node<?> demoted = protectedQueue.first();
+                protectedQueue.remove(demoted);
+                probation.addLast(demoted);
+            }
+        } else {
+            queue.addLast(node);
+        }
+    }
+    
+    /**
+     * Move overflow from the window into probation, then evict until the budget is met
+     * Keys that came from the window compete with the least recently used key on probation,
+     * the one seen less often according to the sketch is evicted.
+     */
+    private void evict() {
+        Node<?> candidate = null;
+        while (window.count > 1 && (window.count > maxKeys * WINDOW_SHARE || window.bytes > maxBytes * WINDOW_SHARE)) {
+            Node<?> moved = window.first();
+            window.remove(moved);
+            probation.addLast(moved);
+            if (candidate == null) {
+                candidate = moved;
+            }
+        }
+        
+        while (window.count + probation.count + protectedQueue.count > maxKeys
+                || window.bytes + probation.bytes + protectedQueue.bytes > maxBytes) {
+            Node<?> victim = probation.first();
+            if (victim == null || victim == candidate) {
+                // Nothing older than the candidates left on probation
+                victim = victim != null ? victim : protectedQueue.first();
+                victim = victim != null ? victim : window.first();
+                if (victim == candidate) {
+                    candidate = probation.after(candidate);
+                }
+                evictNode(victim);
+            } else if (candidate != null
+                    && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                evictNode(victim);
+            } else if (candidate != null) {
+                Node<?> next = probation.after(candidate);
+                evictNode(candidate);
+                candidate = next;
+            } else {
+                evictNode(victim);
+            }
+        }
+        updateTotals();
+    }
+    
+    private void evictNode(Node<?> node) {
+        unlink(node);
+        node.queue = DEAD;
+        if (node.owner.evict(node)) {
+            evictionCount++;
+        }
+    }
+    
+    private void unlink(Node<?> node) {
+        AccessQueue queue = queueOf(node);
+        if (queue != null) {
+            queue.remove(node);
+        }
+    }
+    
+    private AccessQueue queueOf(Node<?> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+                return protectedQueue;
+            default:
+                return null;
+        }
+    }
+    
+    private void updateTotals() {
+        keyCount = window.count + probation.count + protectedQueue.count;
+        byteCount = window.bytes + probation.bytes + protectedQueue.bytes;
+    }
+    
+    private static long weigh(Node<?> node) {
+        return KEY_OVERHEAD + node.key.length() + node.owner.weigh(node);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,185 @@
+package com.ratelimiter.eviction;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Key State Map
+ * Concurrent map of per-key state whose size is bounded by a {@link KeyStateBudget}
+ * 
+ * Values are created once per key and never replaced, an algorithm mutates them in place.
+ * A value may be evicted at any time to make room for others; code that locks on a value
+ * must not call into the map while it holds that lock.
+ */
+public final class KeyStateMap<V> {
+    private final KeyStateBudget budget;
+    private final ConcurrentHashMap<String, KeyStateBudget.Node<V>> entries;
+    private final ToLongFunction<? super V> weigher;
+    private final BiConsumer<String, ? super V> evictionListener;
+    
+    KeyStateMap(KeyStateBudget budget, ToLongFunction<? super V> weigher,
+                BiConsumer<String, ? super V> evictionListener) {
+        this.budget = budget;
+        this.entries = new ConcurrentHashMap<>();
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+    }
+    
+    /**
+     * Get the state of a key
+     * 
+     * @param key The key
+     * @return The state, or null if the key is not resident
+     */
+    public V get(String key) {
+        KeyStateBudget.Node<V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (budget.isBounded()) {
+            budget.recordRead(node);
+        }
+        return node.value;
+    }
+    
+    /**
+     * Get the state of a key, creating it if the key is not resident
+     * 
+     * @param key The key
+     * @param factory Creates the state of a new key, must not return null
+     * @return The existing or new state
+     */
+    public V computeIfAbsent(String key, Function<String, ? extends V> factory) {
+        KeyStateBudget.Node<V> node = entries.get(key);
+        if (node != null) {
+            if (budget.isBounded()) {
+                budget.recordRead(node);
+            }
+            return node.value;
+        }
+        node = entries.computeIfAbsent(key, k -> new KeyStateBudget.Node<>(k, factory.apply(k), this));
+        if (budget.isBounded()) {
+            // Outside computeIfAbsent, evictions remove from other maps and must not nest in a bin lock
+            budget.register(node);
+        }
+        return node.value;
+    }
+    
+    /**
+     * Remove the state of a key
+     * 
+     * @param key The key
+     * @return The removed state, or null if the key was not resident
+     */
+    public V remove(String key) {
+        KeyStateBudget.Node<V> node = entries.remove(key);
+        if (node == null) {
+            return null;
+        }
+        if (budget.isBounded()) {
+            budget.unregister(node);
+        }
+        return node.value;
+    }
+    
+    /**
+     * Remove the state of a key if it is still the given value
+     * 
+     * @param key The key
+     * @param value The expected state
+     * @return true if the state was removed
+     */
+    public boolean remove(String key, V value) {
+        KeyStateBudget.Node<V> node = entries.get(key);
+        if (node == null || node.value != value || !entries.remove(key, node)) {
+            return false;
+        }
+        if (budget.isBounded()) {
+            budget.unregister(node);
+        }
+        return true;
+    }
+    
+    /**
+     * Remove every key of this map
+     */
+    public void clear() {
+        for (String key : entries.keySet()) {
+            remove(key);
+        }
+    }
+    
+    /**
+     * Get the number of resident keys
+     * 
+     * @return Key count of this map
+     */
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Whether no key is resident
+     * 
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+    
+    /**
+     * Iterate over the resident keys and their state
+     * Weakly consistent like the iterators of ConcurrentHashMap; iterating does not count as access.
+     * 
+     * @return Iterable of key and state pairs
+     */
+    public Iterable<Map.Entry<String, V>> entries() {
+        return () -> new Iterator<Map.Entry<String, V>>() {
+            private final Iterator<KeyStateBudget.Node<V>> nodes = entries.values().iterator();
+            
+            @Override
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+            
+            @Override
+            public Map.Entry<String, V> next() {
+                KeyStateBudget.Node<V> node = nodes.next();
+                return new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+            }
+        };
+    }
+    
+    /**
+     * Drop an entry chosen by the budget, called with the budget locked
+     */
+    boolean evict(KeyStateBudget.Node<?> node) {
+        if (!entries.remove(node.key, node)) {
+            return false;
+        }
+        if (evictionListener != null) {
+            @SuppressWarnings("unchecked")
+            V value = (V) node.value;
+            evictionListener.accept(node.key, value);
+        }
+        return true;
+    }
+    
+    /**
+     * Whether a node is the current entry of its key, called with the budget locked
+     */
+    boolean isResident(KeyStateBudget.Node<?> node) {
+        return entries.get(node.key) == node;
+    }
+    
+    long weigh(KeyStateBudget.Node<?> node) {
+        @SuppressWarnings("unchecked")
+        V value = (V) node.value;
+        return weigher.applyAsLong(value);
+    }
+}
\ No newline at end of file
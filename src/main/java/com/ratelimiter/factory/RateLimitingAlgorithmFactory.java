@@ -1,11 +1,22 @@
 package com.ratelimiter.factory;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ratelimiter.algorithms.CompositeAlgorithm;
+import com.ratelimiter.algorithms.CountMinSketchAlgorithm;
+import com.ratelimiter.algorithms.CrdtWindowCounterAlgorithm;
+import com.ratelimiter.algorithms.GcraAlgorithm;
+import com.ratelimiter.algorithms.LockFreeTokenBucketAlgorithm;
 import com.ratelimiter.algorithms.SlidingWindowCounterAlgorithm;
 import com.ratelimiter.algorithms.SlidingWindowLogAlgorithm;
 import com.ratelimiter.algorithms.TokenBucketAlgorithm;
 import com.ratelimiter.core.RateLimitRule;
 import com.ratelimiter.core.RateLimitStorage;
 import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.crdt.CrdtCounterStorage;
+import com.ratelimiter.eviction.KeyStateBudget;
 
 /**
  * Algorithm Factory
@@ -16,36 +27,111 @@ public class RateLimitingAlgorithmFactory {
     /**
      * Create a rate limiting algorithm based on the specified type
      * 
-     * @param type The algorithm type (TOKEN_BUCKET, SLIDING_WINDOW_LOG, SLIDING_WINDOW_COUNTER)
+     * @param type The algorithm type (TOKEN_BUCKET, LOCK_FREE_TOKEN_BUCKET, SLIDING_WINDOW_LOG, SLIDING_WINDOW_COUNTER,
+     *             CRDT_WINDOW_COUNTER, COUNT_MIN_SKETCH, GCRA)
      * @param rule The rate limit rule configuration
      * @param storage The storage implementation to use
      * @return The created algorithm instance
      * @throws IllegalArgumentException if the algorithm type is unknown
      */
     public static RateLimitingAlgorithm createAlgorithm(String type, RateLimitRule rule, RateLimitStorage storage) {
+        return createAlgorithm(type, rule, storage, KeyStateBudget.unbounded());
+    }
+    
+    /**
+     * Create a rate limiting algorithm whose in-process per-key state is held within a budget
+     * Algorithms that keep their state in the storage are not affected by the budget.
+     * 
+     * @param type The algorithm type
+     * @param rule The rate limit rule configuration
+     * @param storage The storage implementation to use
+     * @param budget Bounds the per-key state held in memory
+     * @return The created algorithm instance
+     * @throws IllegalArgumentException if the algorithm type is unknown
+     */
+    public static RateLimitingAlgorithm createAlgorithm(String type, RateLimitRule rule, RateLimitStorage storage,
+                                                        KeyStateBudget budget) {
+        if (rule.isComposite()) {
+            return createComposite(type, rule, storage, budget);
+        }
+        return createBand(type, rule, storage, budget, 0);
+    }
+    
+    /**
+     * Create the algorithm of one band of a rule; storage-backed algorithms keep each band's state apart
+     */
+    private static RateLimitingAlgorithm createBand(String type, RateLimitRule rule, RateLimitStorage storage,
+                                                    KeyStateBudget budget, int band) {
         switch (type.toUpperCase()) {
             case "TOKEN_BUCKET":
                 double refillRate = rule.getMaxRequests() / (double) rule.getTimeWindow().getSeconds();
-                return new TokenBucketAlgorithm(rule.getMaxRequests(), refillRate, storage);
+                return new TokenBucketAlgorithm(rule.getMaxRequests(), refillRate, storage, band);
+            
+            case "LOCK_FREE_TOKEN_BUCKET":
+                // Uses the full window precision instead of whole seconds
+                double lockFreeRefillRate = rule.getMaxRequests() / (rule.getTimeWindow().toNanos() / 1_000_000_000.0);
+                return new LockFreeTokenBucketAlgorithm(rule.getMaxRequests(), lockFreeRefillRate, budget,
+                    storage.getTimeSource());
             
             case "SLIDING_WINDOW_LOG":
-                return new SlidingWindowLogAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(), storage);
+                return new SlidingWindowLogAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(), storage, budget);
             
             case "SLIDING_WINDOW_COUNTER":
-                return new SlidingWindowCounterAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(), storage);
+                return new SlidingWindowCounterAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(), storage, band);
+            
+            case "CRDT_WINDOW_COUNTER":
+                if (!(storage instanceof CrdtCounterStorage)) {
+                    throw new IllegalArgumentException("CRDT_WINDOW_COUNTER requires a CrdtCounterStorage");
+                }
+                return new CrdtWindowCounterAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(),
+                    (CrdtCounterStorage) storage, band);
+            
+            case "COUNT_MIN_SKETCH":
+                // Fixed memory per rule, shared by any number of keys
+                return new CountMinSketchAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(),
+                    storage.getTimeSource());
+            
+            case "GCRA":
+                return new GcraAlgorithm(rule.getMaxRequests(), rule.getTimeWindow(), rule.getMaxRequests(), storage,
+                    band);
             
             default:
                 throw new IllegalArgumentException("Unknown algorithm type: " + type);
         }
     }
     
+    /**
+     * Create one algorithm per band of a multi-band rule, decided together in one storage call
+     * 
+     * @throws IllegalArgumentException if the algorithm type does not keep its state in the storage
+     */
+    private static RateLimitingAlgorithm createComposite(String type, RateLimitRule rule, RateLimitStorage storage,
+                                                         KeyStateBudget budget) {
+        List<StorageBackedAlgorithm> bands = new ArrayList<>();
+        for (RateLimitRule.Band band : rule.getBands()) {
+            RateLimitRule bandRule = new RateLimitRule.Builder()
+                .maxRequests(band.getMaxRequests())
+                .timeWindow(band.getTimeWindow())
+                .algorithm(type)
+                .build();
+            RateLimitingAlgorithm algorithm = createBand(type, bandRule, storage, budget, bands.size());
+            if (!(algorithm instanceof StorageBackedAlgorithm)) {
+                throw new IllegalArgumentException("Multi-band rules need a storage-backed algorithm "
+                    + "(TOKEN_BUCKET, SLIDING_WINDOW_COUNTER, GCRA), not " + type);
+            }
+            bands.add((StorageBackedAlgorithm) algorithm);
+        }
+        return new CompositeAlgorithm(bands, storage);
+    }
+    
     /**
      * Get all supported algorithm types
      * 
      * @return Array of supported algorithm type names
      */
     public static String[] getSupportedAlgorithms() {
-        return new String[]{"TOKEN_BUCKET", "SLIDING_WINDOW_LOG", "SLIDING_WINDOW_COUNTER"};
+        return new String[]{"TOKEN_BUCKET", "LOCK_FREE_TOKEN_BUCKET", "SLIDING_WINDOW_LOG", "SLIDING_WINDOW_COUNTER",
+            "CRDT_WINDOW_COUNTER", "COUNT_MIN_SKETCH", "GCRA"};
     }
     
     /**
@@ -58,7 +144,11 @@ public class RateLimitingAlgorithmFactory {
         if (type == null) return false;
         String upperType = type.toUpperCase();
         return "TOKEN_BUCKET".equals(upperType) || 
+               "LOCK_FREE_TOKEN_BUCKET".equals(upperType) || 
                "SLIDING_WINDOW_LOG".equals(upperType) || 
-               "SLIDING_WINDOW_COUNTER".equals(upperType);
+               "SLIDING_WINDOW_COUNTER".equals(upperType) || 
+               "CRDT_WINDOW_COUNTER".equals(upperType) || 
+               "COUNT_MIN_SKETCH".equals(upperType) || 
+               "GCRA".equals(upperType);
     }
 }
\ No newline at end of file
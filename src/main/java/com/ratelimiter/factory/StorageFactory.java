@@ -2,6 +2,9 @@ package com.ratelimiter.factory;
 
 import com.ratelimiter.core.RateLimitStorage;
 import com.ratelimiter.storage.InMemoryRateLimitStorage;
+import com.ratelimiter.storage.JdbcRateLimitStorage;
+import com.ratelimiter.storage.OffHeapRateLimitStorage;
+import com.ratelimiter.storage.redis.RedisRateLimitStorage;
 
 /**
  * Storage Factory
@@ -12,23 +15,25 @@ public class StorageFactory {
     /**
      * Create a storage implementation based on the specified type
      * 
-     * @param type The storage type (MEMORY, REDIS, etc.)
+     * @param type The storage type (MEMORY, OFF_HEAP, REDIS, etc.)
      * @return The created storage instance
      * @throws IllegalArgumentException if the storage type is unknown
-     * @throws UnsupportedOperationException if the storage type is not implemented
      */
     public static RateLimitStorage createStorage(String type) {
         switch (type.toUpperCase()) {
             case "MEMORY":
                 return new InMemoryRateLimitStorage();
             
+            case "OFF_HEAP":
+                return new OffHeapRateLimitStorage();
+            
             case "REDIS":
-                // In production, this would create a Redis-backed storage
-                throw new UnsupportedOperationException("Redis storage not implemented in this demo");
+                // Connects lazily to localhost:6379; use the RedisRateLimitStorage constructors for other servers
+                return new RedisRateLimitStorage();
             
             case "DATABASE":
-                // In production, this would create a database-backed storage
-                throw new UnsupportedOperationException("Database storage not implemented in this demo");
+                // Embedded H2 database in the working directory; use JdbcRateLimitStorage.Builder for other databases
+                return new JdbcRateLimitStorage("jdbc:h2:./ratelimiter");
             
             default:
                 throw new IllegalArgumentException("Unknown storage type: " + type);
@@ -41,7 +46,7 @@ public class StorageFactory {
      * @return Array of supported storage type names
      */
     public static String[] getSupportedStorageTypes() {
-        return new String[]{"MEMORY", "REDIS", "DATABASE"};
+        return new String[]{"MEMORY", "OFF_HEAP", "REDIS", "DATABASE"};
     }
     
     /**
@@ -54,6 +59,7 @@ public class StorageFactory {
         if (type == null) return false;
         String upperType = type.toUpperCase();
         return "MEMORY".equals(upperType) || 
+               "OFF_HEAP".equals(upperType) || 
                "REDIS".equals(upperType) || 
                "DATABASE".equals(upperType);
     }
@@ -66,6 +72,10 @@ public class StorageFactory {
      */
     public static boolean isImplemented(String type) {
         if (type == null) return false;
-        return "MEMORY".equals(type.toUpperCase());
+        String upperType = type.toUpperCase();
+        return "MEMORY".equals(upperType) || 
+               "OFF_HEAP".equals(upperType) || 
+               "REDIS".equals(upperType) || 
+               "DATABASE".equals(upperType);
     }
 }
\ No newline at end of file
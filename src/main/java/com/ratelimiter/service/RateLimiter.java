@@ -1,14 +1,38 @@
 package com.ratelimiter.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
+import com.ratelimiter.algorithms.CompositeAlgorithm;
+import com.ratelimiter.algorithms.QuotaLeasingAlgorithm;
+import com.ratelimiter.core.AsyncRateLimitStorage;
+import com.ratelimiter.core.PacedAlgorithm;
 import com.ratelimiter.core.RateLimitResponse;
 import com.ratelimiter.core.RateLimitRule;
 import com.ratelimiter.core.RateLimitStorage;
 import com.ratelimiter.core.RateLimitingAlgorithm;
+import com.ratelimiter.core.StorageBackedAlgorithm;
+import com.ratelimiter.core.StorageOperation;
+import com.ratelimiter.core.TimeSource;
+import com.ratelimiter.eviction.KeyStateBudget;
 import com.ratelimiter.factory.RateLimitingAlgorithmFactory;
+import com.ratelimiter.snapshot.SnapshotManager;
+import com.ratelimiter.snapshot.SnapshotReader;
+import com.ratelimiter.snapshot.Snapshottable;
+import com.ratelimiter.storage.AsyncStorageAdapter;
 import com.ratelimiter.storage.InMemoryRateLimitStorage;
 
 /**
@@ -16,35 +40,140 @@ import com.ratelimiter.storage.InMemoryRateLimitStorage;
  * Orchestrates all components together using various design patterns
  */
 public class RateLimiter {
-    private final Map<String, RateLimitingAlgorithm> algorithms;
-    private final Map<String, RateLimitRule> rules;
+    // Rules of plain keys, resolved first
+    private final Map<String, RuleBinding> rules;
+    // Rules of template patterns such as "user:{id}", indexed by templateIndex
+    private final Map<String, RuleBinding> templates;
+    private final RuleTrie<RuleBinding> templateIndex;
     private final RateLimitStorage storage;
+    private final TimeSource timeSource;
+    private final AsyncRateLimitStorage asyncStorage;
+    private final SnapshotManager snapshotManager;
+    private final SnapshotReader restoredSnapshot;
+    // Share of each rule's limit leased locally per key, 0 when leasing is off
+    private final double leaseShare;
+    private final Duration leaseDuration;
+    private final KeyStateBudget keyStateBudget;
+    
+    /**
+     * A rule together with the algorithm that enforces it
+     * The algorithm of a template is shared by every key matching it and keeps per-key state,
+     * which is created lazily when a key is first checked.
+     */
+    private static final class RuleBinding {
+        final RateLimitRule rule;
+        final RateLimitingAlgorithm algorithm;
+        
+        RuleBinding(RateLimitRule rule, RateLimitingAlgorithm algorithm) {
+            this.rule = rule;
+            this.algorithm = algorithm;
+        }
+    }
     
     /**
      * Private constructor for builder pattern
      */
     private RateLimiter(Builder builder) {
-        this.algorithms = new ConcurrentHashMap<>();
-        this.rules = new ConcurrentHashMap<>(builder.rules);
-        this.storage = builder.storage;
+        this.rules = new ConcurrentHashMap<>();
+        this.templates = new ConcurrentHashMap<>();
+        this.templateIndex = new RuleTrie<>();
+        if (builder.storage != null) {
+            this.storage = builder.storage;
+            this.timeSource = builder.timeSource != null ? builder.timeSource : storage.getTimeSource();
+        } else {
+            this.timeSource = builder.timeSource != null ? builder.timeSource : TimeSource.SYSTEM;
+            this.storage = new InMemoryRateLimitStorage(timeSource);
+        }
+        this.leaseShare = builder.leaseShare;
+        this.leaseDuration = builder.leaseDuration;
+        this.keyStateBudget = builder.keyStateBudget;
+        if (builder.asyncStorage != null) {
+            this.asyncStorage = builder.asyncStorage;
+        } else if (storage instanceof AsyncRateLimitStorage) {
+            this.asyncStorage = (AsyncRateLimitStorage) storage;
+        } else {
+            this.asyncStorage = new AsyncStorageAdapter(storage);
+        }
+        
+        if (builder.snapshotFile != null) {
+            this.snapshotManager = new SnapshotManager(builder.snapshotFile, this::getSnapshotSources, timeSource);
+            this.restoredSnapshot = snapshotManager.restore();
+            if (restoredSnapshot != null && storage instanceof Snapshottable) {
+                ((Snapshottable) storage).restoreFrom(restoredSnapshot);
+            }
+        } else {
+            this.snapshotManager = null;
+            this.restoredSnapshot = null;
+        }
         
         // Initialize algorithms based on rules
-        initializeAlgorithms();
+        initializeAlgorithms(builder.rules);
+        
+        if (snapshotManager != null) {
+            snapshotManager.start(builder.snapshotInterval);
+        }
     }
     
     /**
      * Initialize algorithms for all configured rules
      */
-    private void initializeAlgorithms() {
-        for (Map.Entry<String, RateLimitRule> entry : rules.entrySet()) {
-            String key = entry.getKey();
-            RateLimitRule rule = entry.getValue();
-            RateLimitingAlgorithm algorithm = RateLimitingAlgorithmFactory.createAlgorithm(
-                rule.getAlgorithmType(), rule, storage);
-            algorithms.put(key, algorithm);
+    private void initializeAlgorithms(Map<String, RateLimitRule> configuredRules) {
+        for (Map.Entry<String, RateLimitRule> entry : configuredRules.entrySet()) {
+            addRule(entry.getKey(), entry.getValue());
         }
     }
     
+    /**
+     * Find the rule that applies to a key, an exact rule before any template
+     */
+    private RuleBinding resolve(String key) {
+        RuleBinding binding = rules.get(key);
+        if (binding == null && !templates.isEmpty()) {
+            binding = templateIndex.match(key);
+        }
+        return binding;
+    }
+    
+    /**
+     * Create the algorithm for a rule, attaching the restored snapshot if there is one
+     * and putting the local leasing tier in front of storage-backed algorithms if it is enabled
+     * Multi-band rules are not leased: leases are sized from the first band only and claimed from every
+     * band, so they may not fit a shorter band, and permits leased in its window outlive it.
+     */
+    private RateLimitingAlgorithm createAlgorithm(RateLimitRule rule) {
+        RateLimitingAlgorithm algorithm = RateLimitingAlgorithmFactory.createAlgorithm(
+            rule.getAlgorithmType(), rule, storage, keyStateBudget);
+        if (restoredSnapshot != null && !restoredSnapshot.isExhausted() && algorithm instanceof Snapshottable) {
+            ((Snapshottable) algorithm).restoreFrom(restoredSnapshot);
+        }
+        if (leaseShare > 0 && algorithm instanceof StorageBackedAlgorithm
+                && !(algorithm instanceof CompositeAlgorithm)) {
+            int maxLeaseSize = (int) Math.max(1, rule.getMaxRequests() * leaseShare);
+            algorithm = new QuotaLeasingAlgorithm((StorageBackedAlgorithm) algorithm, storage, maxLeaseSize,
+                leaseDuration, keyStateBudget);
+        }
+        return algorithm;
+    }
+    
+    /**
+     * Collect the storage and every distinct algorithm that supports snapshots
+     */
+    private Collection<Snapshottable> getSnapshotSources() {
+        List<Snapshottable> sources = new ArrayList<>();
+        if (storage instanceof Snapshottable) {
+            sources.add((Snapshottable) storage);
+        }
+        Set<RateLimitingAlgorithm> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<RuleBinding> bindings = new ArrayList<>(rules.values());
+        bindings.addAll(templates.values());
+        for (RuleBinding binding : bindings) {
+            if (binding.algorithm instanceof Snapshottable && seen.add(binding.algorithm)) {
+                sources.add((Snapshottable) binding.algorithm);
+            }
+        }
+        return sources;
+    }
+    
     /**
      * Check rate limit for the given key
      * 
@@ -52,84 +181,299 @@ public class RateLimiter {
      * @return RateLimitResponse indicating whether the request is allowed
      */
     public RateLimitResponse checkLimit(String key) {
-        RateLimitRule rule = rules.get(key);
-        if (rule == null) {
+        return checkLimit(key, 1);
+    }
+    
+    /**
+     * Check rate limit for a request that costs several permits, e.g. rows or bytes
+     * The permits are taken in one atomic step, all of them or none.
+     * 
+     * @param key The key to check rate limit for
+     * @param cost The permits the request takes, at least 1
+     * @return RateLimitResponse indicating whether the request is allowed
+     */
+    public RateLimitResponse checkLimit(String key, int cost) {
+        checkCost(cost);
+        RuleBinding binding = resolve(key);
+        if (binding == null) {
+            // Default: allow if no rule exists
+            return RateLimitResponse.allowed(Long.MAX_VALUE, timeSource.currentTimeMillis());
+        }
+        
+        long timestamp = timeSource.currentTimeMillis();
+        
+        return binding.algorithm.decide(key, timestamp, cost);
+    }
+    
+    /**
+     * Check rate limit for the given key without blocking the caller
+     * Storage-backed algorithms go through the asynchronous storage; algorithms that keep
+     * their state in process decide immediately and return a completed future.
+     * 
+     * @param key The key to check rate limit for
+     * @return Future completed with the RateLimitResponse
+     */
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key) {
+        return checkLimitAsync(key, 1);
+    }
+    
+    /**
+     * Check rate limit for a request that costs several permits without blocking the caller
+     * 
+     * @param key The key to check rate limit for
+     * @param cost The permits the request takes, at least 1
+     * @return Future completed with the RateLimitResponse
+     */
+    public CompletableFuture<RateLimitResponse> checkLimitAsync(String key, int cost) {
+        checkCost(cost);
+        RuleBinding binding = resolve(key);
+        if (binding == null) {
             // Default: allow if no rule exists
-            return RateLimitResponse.allowed(Long.MAX_VALUE, System.currentTimeMillis());
+            return CompletableFuture.completedFuture(
+                RateLimitResponse.allowed(Long.MAX_VALUE, timeSource.currentTimeMillis()));
         }
         
-        RateLimitingAlgorithm algorithm = algorithms.get(key);
-        if (algorithm == null) {
-            // This shouldn't happen if properly initialized, but handle gracefully
-            algorithm = RateLimitingAlgorithmFactory.createAlgorithm(
-                rule.getAlgorithmType(), rule, storage);
-            algorithms.put(key, algorithm);
+        RateLimitingAlgorithm algorithm = binding.algorithm;
+        long timestamp = timeSource.currentTimeMillis();
+        
+        if (algorithm instanceof StorageBackedAlgorithm) {
+            StorageBackedAlgorithm storageBacked = (StorageBackedAlgorithm) algorithm;
+            RateLimitResponse local = storageBacked.decideLocally(key, timestamp, cost);
+            if (local != null) {
+                return CompletableFuture.completedFuture(local);
+            }
+            StorageOperation operation = storageBacked.operationFor(key, timestamp, cost);
+            return asyncStorage.executeAsync(operation)
+                .thenApply(result -> storageBacked.decisionFor(key, operation, result, timestamp, cost));
+        }
+        return CompletableFuture.completedFuture(algorithm.decide(key, timestamp, cost));
+    }
+    
+    /**
+     * Check rate limits for several keys in one pass
+     * Rules are resolved and the clock is read once, and the storage operations of all
+     * storage-backed algorithms are sent to the storage as a single batch.
+     * 
+     * @param keys The keys to check, duplicates are checked once per occurrence
+     * @return One response per key, in iteration order of the collection
+     */
+    public List<RateLimitResponse> checkLimits(Collection<String> keys) {
+        return checkLimits(keys, null);
+    }
+    
+    /**
+     * Check rate limits for several requests of different cost in one pass
+     * 
+     * @param keys The keys to check, duplicates are checked once per occurrence
+     * @param costs The permits each request takes, in iteration order of the keys; null for 1 each
+     * @return One response per key, in iteration order of the collection
+     */
+    public List<RateLimitResponse> checkLimits(Collection<String> keys, int[] costs) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
+        }
+        if (costs != null) {
+            if (costs.length != keys.size()) {
+                throw new IllegalArgumentException("Costs must have one entry per key");
+            }
+            for (int cost : costs) {
+                checkCost(cost);
+            }
         }
         
-        long timestamp = System.currentTimeMillis();
+        int size = keys.size();
+        String[] batchedKeys = new String[size];
+        RateLimitResponse[] responses = new RateLimitResponse[size];
+        StorageBackedAlgorithm[] batched = new StorageBackedAlgorithm[size];
+        int[] operationIndexes = new int[size];
+        List<StorageOperation> operations = new ArrayList<>(size);
+        long timestamp = timeSource.currentTimeMillis();
         
-        if (algorithm.isAllowed(key, timestamp)) {
-            long resetTime = timestamp + rule.getTimeWindow().toMillis();
-            // Calculate remaining requests (approximation)
-            long remaining = Math.max(0, rule.getMaxRequests() - 1);
-            return RateLimitResponse.allowed(remaining, resetTime);
-        } else {
-            long resetTime = timestamp + rule.getTimeWindow().toMillis();
-            return RateLimitResponse.denied(rule.getTimeWindow(), resetTime);
+        int i = 0;
+        for (String key : keys) {
+            operationIndexes[i] = -1;
+            int cost = costs == null ? 1 : costs[i];
+            RuleBinding binding = resolve(key);
+            if (binding == null) {
+                // Default: allow if no rule exists
+                responses[i] = RateLimitResponse.allowed(Long.MAX_VALUE, timestamp);
+            } else {
+                RateLimitingAlgorithm algorithm = binding.algorithm;
+                if (algorithm instanceof StorageBackedAlgorithm) {
+                    StorageBackedAlgorithm storageBacked = (StorageBackedAlgorithm) algorithm;
+                    responses[i] = storageBacked.decideLocally(key, timestamp, cost);
+                    if (responses[i] == null) {
+                        batched[i] = storageBacked;
+                        batchedKeys[i] = key;
+                        operationIndexes[i] = operations.size();
+                        operations.add(storageBacked.operationFor(key, timestamp, cost));
+                    }
+                } else {
+                    responses[i] = algorithm.decide(key, timestamp, cost);
+                }
+            }
+            i++;
+        }
+        
+        if (!operations.isEmpty()) {
+            long[] results = storage.execute(operations);
+            for (i = 0; i < size; i++) {
+                int index = operationIndexes[i];
+                if (index >= 0) {
+                    responses[i] = batched[i].decisionFor(batchedKeys[i], operations.get(index), results[index],
+                        timestamp, costs == null ? 1 : costs[i]);
+                }
+            }
+        }
+        
+        return Arrays.asList(responses);
+    }
+    
+    /**
+     * Wait for a permit for the given key
+     * The permit is reserved right away and the caller parks until its turn, so waiters are
+     * served in the order they arrived and none of them has to retry.
+     * 
+     * @param key The key to acquire a permit for
+     * @throws InterruptedException if interrupted while waiting; the reserved permit is not returned
+     * @throws UnsupportedOperationException if the key's algorithm cannot reserve permits ahead
+     */
+    public void acquire(String key) throws InterruptedException {
+        acquire(key, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Wait for a permit for the given key, unless it cannot be had within the timeout
+     * If it cannot, nothing is reserved and the call returns without waiting.
+     * 
+     * @param key The key to acquire a permit for
+     * @param timeout Longest time to wait for the permit
+     * @return true if a permit was acquired, false if none is available within the timeout
+     * @throws InterruptedException if interrupted while waiting; the reserved permit is not returned
+     * @throws UnsupportedOperationException if the key's algorithm cannot reserve permits ahead
+     */
+    public boolean tryAcquire(String key, Duration timeout) throws InterruptedException {
+        if (timeout == null) {
+            throw new IllegalArgumentException("Timeout cannot be null");
+        }
+        return acquire(key, Math.max(0, timeout.toNanos()));
+    }
+    
+    private boolean acquire(String key, long maxWaitNanos) throws InterruptedException {
+        RuleBinding binding = resolve(key);
+        if (binding == null) {
+            // Default: allow if no rule exists
+            return true;
+        }
+        
+        long waitNanos = pacedAlgorithm(binding).reserve(key, timeSource.currentTimeMillis(), maxWaitNanos);
+        if (waitNanos < 0) {
+            return false;
+        }
+        
+        // Parking unmounts a virtual thread, so a waiter holds no carrier thread while it waits
+        long deadline = System.nanoTime() + waitNanos;
+        for (long remaining = waitNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Get the algorithm that reserves permits for a rule
+     * Leasing is bypassed: a reservation goes to the shared state directly.
+     */
+    private PacedAlgorithm pacedAlgorithm(RuleBinding binding) {
+        RateLimitingAlgorithm algorithm = binding.algorithm;
+        if (algorithm instanceof QuotaLeasingAlgorithm) {
+            algorithm = ((QuotaLeasingAlgorithm) algorithm).getDelegate();
+        }
+        if (!(algorithm instanceof PacedAlgorithm)) {
+            throw new UnsupportedOperationException("Algorithm " + algorithm.getAlgorithmName()
+                + " cannot reserve permits, use TOKEN_BUCKET, LOCK_FREE_TOKEN_BUCKET or GCRA");
+        }
+        return (PacedAlgorithm) algorithm;
+    }
+    
+    private static void checkCost(int cost) {
+        if (cost <= 0) {
+            throw new IllegalArgumentException("Cost must be positive");
         }
     }
     
     /**
      * Add a new rate limit rule
+     * The key may be a template of ':' separated segments where "*" or a placeholder such as "{id}"
+     * matches any single segment, e.g. "user:{id}" or "api:*:search". Each key matching a template
+     * is limited on its own, by one algorithm instance shared by all of them.
      * 
-     * @param key The key to apply the rule to
+     * @param key The key or template to apply the rule to
      * @param rule The rate limit rule
+     * @throws IllegalArgumentException if a wildcard does not span a whole segment
      */
     public void addRule(String key, RateLimitRule rule) {
         if (key == null || rule == null) {
             throw new IllegalArgumentException("Key and rule cannot be null");
         }
         
-        rules.put(key, rule);
-        RateLimitingAlgorithm algorithm = RateLimitingAlgorithmFactory.createAlgorithm(
-            rule.getAlgorithmType(), rule, storage);
-        algorithms.put(key, algorithm);
+        if (RuleTrie.isPattern(key)) {
+            RuleBinding binding = new RuleBinding(rule, createAlgorithm(rule));
+            templateIndex.put(key, binding);
+            templates.put(key, binding);
+        } else {
+            rules.put(key, new RuleBinding(rule, createAlgorithm(rule)));
+        }
     }
     
     /**
      * Remove a rate limit rule
+     * The state of a plain key is reset. A template does not know the keys it matched, so only state
+     * held in memory by its algorithm goes away with it; storage-backed algorithms leave each matched
+     * key's state in the storage until it expires, and a rule added later for such a key starts from
+     * it. Call {@link #resetKey(String)} before removing the template for keys that must start fresh.
      * 
-     * @param key The key to remove the rule for
+     * @param key The key or template to remove the rule for
      */
     public void removeRule(String key) {
         if (key == null) {
             return;
         }
         
-        rules.remove(key);
-        RateLimitingAlgorithm algorithm = algorithms.remove(key);
-        if (algorithm != null) {
-            algorithm.reset(key);
+        if (RuleTrie.isPattern(key)) {
+            // In-memory state goes with the shared algorithm, stored state expires on its own
+            templates.remove(key);
+            templateIndex.remove(key);
+            return;
+        }
+        RuleBinding binding = rules.remove(key);
+        if (binding != null) {
+            binding.algorithm.reset(key);
         }
     }
     
     /**
-     * Get the rule for a specific key
+     * Get the rule that applies to a specific key
      * 
      * @param key The key to get the rule for
-     * @return The rate limit rule, or null if not found
+     * @return The rule of the key, or of the most specific template matching it, or null if not found
      */
     public RateLimitRule getRule(String key) {
-        return rules.get(key);
+        RuleBinding binding = resolve(key);
+        return binding == null ? null : binding.rule;
     }
     
     /**
      * Get all configured rule keys
      * 
-     * @return Set of all rule keys
+     * @return Set of all rule keys and templates
      */
     public java.util.Set<String> getRuleKeys() {
-        return new java.util.HashSet<>(rules.keySet());
+        java.util.Set<String> keys = new java.util.HashSet<>(rules.keySet());
+        keys.addAll(templates.keySet());
+        return keys;
     }
     
     /**
@@ -155,9 +499,9 @@ public class RateLimiter {
      * @param key The key to reset
      */
     public void resetKey(String key) {
-        RateLimitingAlgorithm algorithm = algorithms.get(key);
-        if (algorithm != null) {
-            algorithm.reset(key);
+        RuleBinding binding = resolve(key);
+        if (binding != null) {
+            binding.algorithm.reset(key);
         }
     }
     
@@ -170,18 +514,75 @@ public class RateLimiter {
         return storage;
     }
     
+    /**
+     * Get the asynchronous storage used by checkLimitAsync
+     * 
+     * @return The asynchronous storage
+     */
+    public AsyncRateLimitStorage getAsyncStorage() {
+        return asyncStorage;
+    }
+    
+    /**
+     * Get the clock that request timestamps are taken from
+     * 
+     * @return The time source
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+    
+    /**
+     * Get the budget that bounds the per-key state of this rate limiter's algorithms
+     * 
+     * @return The key state budget, unbounded unless configured
+     */
+    public KeyStateBudget getKeyStateBudget() {
+        return keyStateBudget;
+    }
+    
+    /**
+     * Write a snapshot of all limiter state now
+     * 
+     * @return Number of records written
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalStateException if no snapshot file is configured
+     */
+    public int snapshot() throws IOException {
+        if (snapshotManager == null) {
+            throw new IllegalStateException("Snapshots are not configured for this rate limiter");
+        }
+        return snapshotManager.snapshot();
+    }
+    
+    /**
+     * Stop taking periodic and on-shutdown snapshots
+     */
+    public void stopSnapshots() {
+        if (snapshotManager != null) {
+            snapshotManager.stop();
+        }
+    }
+    
     /**
      * Builder Pattern for Rate Limiter
      * Provides a fluent interface for constructing rate limiter instances
      */
     public static class Builder {
         private final Map<String, RateLimitRule> rules = new HashMap<>();
-        private RateLimitStorage storage = new InMemoryRateLimitStorage();
+        private RateLimitStorage storage;
+        private TimeSource timeSource;
+        private AsyncRateLimitStorage asyncStorage;
+        private Path snapshotFile;
+        private Duration snapshotInterval;
+        private double leaseShare;
+        private Duration leaseDuration;
+        private KeyStateBudget keyStateBudget = KeyStateBudget.unbounded();
         
         /**
          * Add a rate limit rule
          * 
-         * @param key The key to apply the rule to
+         * @param key The key or template to apply the rule to, see {@link RateLimiter#addRule}
          * @param rule The rate limit rule
          * @return This builder instance
          */
@@ -207,6 +608,95 @@ public class RateLimiter {
             return this;
         }
         
+        /**
+         * Set the clock that request timestamps are taken from
+         * If not set, the storage's clock is used. The default in-memory storage is created with this clock;
+         * a storage set explicitly keeps its own, so give it the same source to keep expiries consistent.
+         * 
+         * @param timeSource The time source, such as a cached, monotonic or manual one
+         * @return This builder instance
+         */
+        public Builder timeSource(TimeSource timeSource) {
+            if (timeSource == null) {
+                throw new IllegalArgumentException("Time source cannot be null");
+            }
+            this.timeSource = timeSource;
+            return this;
+        }
+        
+        /**
+         * Set the asynchronous storage used by checkLimitAsync
+         * It must share its state with the synchronous storage. If not set, a storage that implements
+         * the asynchronous interface is used directly, any other one is adapted with {@link AsyncStorageAdapter}.
+         * 
+         * @param asyncStorage The asynchronous storage implementation
+         * @return This builder instance
+         */
+        public Builder asyncStorage(AsyncRateLimitStorage asyncStorage) {
+            if (asyncStorage == null) {
+                throw new IllegalArgumentException("Async storage cannot be null");
+            }
+            this.asyncStorage = asyncStorage;
+            return this;
+        }
+        
+        /**
+         * Persist limiter state to a memory-mapped snapshot file
+         * State from an existing file is restored lazily, a key is paged in on its first access.
+         * A snapshot is always written when the JVM shuts down.
+         * 
+         * @param file The snapshot file
+         * @param interval Time between periodic snapshots, or null to only snapshot on shutdown
+         * @return This builder instance
+         */
+        public Builder snapshot(Path file, Duration interval) {
+            if (file == null) {
+                throw new IllegalArgumentException("Snapshot file cannot be null");
+            }
+            this.snapshotFile = file;
+            this.snapshotInterval = interval;
+            return this;
+        }
+        
+        /**
+         * Serve decisions from permits leased in batches from the shared storage
+         * Applies to storage-backed algorithms of single-band rules. Each key's lease is sized from its
+         * request rate, capped at maxOverAdmission times the rule's limit, and dropped after leaseDuration.
+         * Those two values bound how far this instance can over-admit a key: by at most one lease per lease
+         * duration. Multi-band rules are not leased, a lease taken in one short window would be handed out
+         * in the next ones.
+         * 
+         * @param maxOverAdmission Largest lease as a share of each rule's limit, in (0, 1]
+         * @param leaseDuration Longest time leased permits are handed out
+         * @return This builder instance
+         */
+        public Builder leasing(double maxOverAdmission, Duration leaseDuration) {
+            if (!(maxOverAdmission > 0 && maxOverAdmission <= 1)) {
+                throw new IllegalArgumentException("Max over-admission must be in (0, 1]");
+            }
+            if (leaseDuration == null || leaseDuration.toMillis() <= 0) {
+                throw new IllegalArgumentException("Lease duration must be at least one millisecond");
+            }
+            this.leaseShare = maxOverAdmission;
+            this.leaseDuration = leaseDuration;
+            return this;
+        }
+        
+        /**
+         * Bound the per-key state held in memory by all algorithms and leases
+         * Once either limit is reached, keys are evicted W-TinyLFU style: new keys have to be seen more
+         * often than the resident key they would replace, so hot keys stay while one-off keys are dropped.
+         * An evicted key starts over with fresh state. State kept in the storage is bounded by its expiry.
+         * 
+         * @param maxKeys Most keys held across all algorithms
+         * @param maxBytes Most estimated bytes of keys and state held across all algorithms
+         * @return This builder instance
+         */
+        public Builder maxKeyState(int maxKeys, long maxBytes) {
+            this.keyStateBudget = new KeyStateBudget(maxKeys, maxBytes);
+            return this;
+        }
+        
         /**
          * Build the rate limiter instance
          * 
@@ -0,0 +1,352 @@
+package com.ratelimiter.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rule Trie
+ * Advanced: Resolves keys against template patterns one ':' separated segment at a time
+ *
+ * A pattern segment is a literal, "*" or a named placeholder such as "{id}"; both wildcard forms
+ * match exactly one non-empty segment. Where several patterns match, a literal segment wins over a
+ * wildcard at the first segment they differ.
+ *
+ * put and remove edit a trie of the patterns, which lookups walk following every node a key may have
+ * reached at once: no backtracking, but one map lookup per reached node and segment. Once as many
+ * lookups as the trie has nodes ran without an edit, the trie is compiled into a deterministic
+ * automaton: a state stands for every trie node a key may have reached, in the order the rule above
+ * prefers them, so a lookup takes one table probe per segment, compares segments in place and never
+ * backtracks. Registering many patterns thus costs no compilation, and compiling is paid for by the
+ * lookups it speeds up.
+ *
+ * Wildcards that share a level with many literals, such as "*:svc:*" next to "tenant:{id}:route",
+ * multiply the number of states. Compilation gives up past a few states per trie node and lookups keep
+ * walking the trie until the next edit. Lookups are lock-free and may run concurrently with put and
+ * remove.
+ */
+final class RuleTrie<T> {
+    static final char SEPARATOR = ':';
+    // Automaton states allowed per trie node before lookups walk the trie instead
+    private static final int STATES_PER_NODE = 4;
+    private static final int MIN_STATES = 1024;
+    
+    // Read by trie walks while put and remove edit it
+    private static final class Node<T> {
+        final Map<String, Node<T>> literals = new ConcurrentHashMap<>();
+        volatile Node<T> wildcard;
+        volatile T value;
+    }
+    
+    /**
+     * Immutable automaton state with an open-addressing table of its literal transitions
+     */
+    private static final class State<T> {
+        final T value;
+        final String[] literals;
+        final State<T>[] targets;
+        final int mask;
+        // Taken by any non-empty segment that is not one of the literals
+        State<T> wildcard;
+        
+        @SuppressWarnings("unchecked")
+        State(T value, int literalCount) {
+            this.value = value;
+            int capacity = literalCount == 0 ? 0 : Integer.highestOneBit(literalCount * 2 - 1) << 1;
+            this.literals = new String[capacity];
+            this.targets = (State<T>[]) new State<?>[capacity];
+            this.mask = capacity - 1;
+        }
+        
+        void addLiteral(String literal, State<T> target) {
+            int slot = literal.hashCode() & mask;
+            while (literals[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            literals[slot] = literal;
+            targets[slot] = target;
+        }
+        
+        /**
+         * Get the state reached by the segment key[start, end)
+         */
+        State<T> next(String key, int start, int end) {
+            if (literals.length > 0) {
+                int hash = 0;
+                for (int i = start; i < end; i++) {
+                    hash = 31 * hash + key.charAt(i);
+                }
+                int length = end - start;
+                for (int slot = hash & mask; literals[slot] != null; slot = (slot + 1) & mask) {
+                    String literal = literals[slot];
+                    if (literal.length() == length && literal.regionMatches(0, key, start, length)) {
+                        return targets[slot];
+                    }
+                }
+            }
+            return end > start ? wildcard : null;
+        }
+    }
+    
+    private final Node<T> root = new Node<>();
+    // Stands in for the automaton when it grew too large
+    private final State<T> walk = new State<>(null, 0);
+    private volatile int nodeCount = 1;
+    // Null while lookups since the last edit have not paid for a compilation yet
+    private volatile State<T> automaton;
+    private final AtomicInteger walksSinceEdit = new AtomicInteger();
+    // Lookups walk the trie rather than wait for a compilation in progress
+    private final AtomicBoolean compiling = new AtomicBoolean();
+    
+    /**
+     * Whether a key is a template pattern rather than a plain key
+     */
+    static boolean isPattern(String key) {
+        return key.indexOf('*') >= 0 || key.indexOf('{') >= 0;
+    }
+    
+    /**
+     * Add a pattern, replacing the value of an equal one
+     *
+     * @param pattern The template pattern
+     * @param value The value resolved for keys matching the pattern
+     * @return The value previously stored for the pattern, or null
+     * @throws IllegalArgumentException if a wildcard does not span a whole segment
+     */
+    synchronized T put(String pattern, T value) {
+        Node<T> node = root;
+        for (String segment : segments(pattern)) {
+            if (isWildcard(segment)) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node<>();
+                    nodeCount++;
+                }
+                node = node.wildcard;
+            } else {
+                Node<T> child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node<>();
+                    node.literals.put(segment, child);
+                    nodeCount++;
+                }
+                node = child;
+            }
+        }
+        T previous = node.value;
+        node.value = value;
+        edited();
+        return previous;
+    }
+    
+    /**
+     * Remove a pattern
+     * Emptied nodes stay in place, they are reused if the pattern is added again.
+     *
+     * @param pattern The template pattern
+     * @return The value stored for the pattern, or null
+     */
+    synchronized T remove(String pattern) {
+        Node<T> node = root;
+        for (String segment : segments(pattern)) {
+            node = isWildcard(segment) ? node.wildcard : node.literals.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        T previous = node.value;
+        node.value = null;
+        edited();
+        return previous;
+    }
+    
+    private void edited() {
+        automaton = null;
+        walksSinceEdit.set(0);
+    }
+    
+    /**
+     * Find the value of the most specific pattern matching a key
+     *
+     * @param key The concrete key
+     * @return The matching value, or null if no pattern matches
+     */
+    T match(String key) {
+        State<T> state = automaton;
+        if (state == null) {
+            if (walksSinceEdit.incrementAndGet() < nodeCount || (state = tryCompile()) == null) {
+                return walk(key);
+            }
+        }
+        if (state == walk) {
+            return walk(key);
+        }
+        int start = 0;
+        while (true) {
+            int end = key.indexOf(SEPARATOR, start);
+            boolean last = end < 0;
+            state = state.next(key, start, last ? key.length() : end);
+            if (state == null) {
+                return null;
+            }
+            if (last) {
+                return state.value;
+            }
+            start = end + 1;
+        }
+    }
+    
+    /**
+     * Follow every trie node the key may have reached, segment by segment
+     */
+    private T walk(String key) {
+        List<Node<T>> nodes = List.of(root);
+        int start = 0;
+        while (true) {
+            int end = key.indexOf(SEPARATOR, start);
+            boolean last = end < 0;
+            nodes = targets(nodes, key.substring(start, last ? key.length() : end));
+            if (nodes.isEmpty()) {
+                return null;
+            }
+            if (last) {
+                return valueOf(nodes);
+            }
+            start = end + 1;
+        }
+    }
+    
+    /**
+     * Compile the automaton unless a concurrent lookup already did
+     *
+     * @return The automaton, or null if another lookup is compiling it
+     */
+    private State<T> tryCompile() {
+        if (!compiling.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            synchronized (this) {
+                State<T> state = automaton;
+                if (state == null) {
+                    state = compile();
+                    automaton = state;
+                }
+                return state;
+            }
+        } finally {
+            compiling.set(false);
+        }
+    }
+    
+    /**
+     * Build the automaton from the trie; states are shared between equal lists of trie nodes
+     *
+     * @return The start state, or the walk marker once the automaton outgrows its bound
+     */
+    private State<T> compile() {
+        Map<List<Node<T>>, State<T>> states = new HashMap<>();
+        int maxStates = Math.max(MIN_STATES, STATES_PER_NODE * nodeCount);
+        State<T> start = new State<>(null, root.literals.size());
+        states.put(List.of(root), start);
+        return fill(start, List.of(root), states, maxStates) ? start : walk;
+    }
+    
+    private boolean fill(State<T> state, List<Node<T>> nodes, Map<List<Node<T>>, State<T>> states, int maxStates) {
+        // Literals of every node, in preference order
+        Set<String> literals = new LinkedHashSet<>();
+        for (Node<T> node : nodes) {
+            literals.addAll(node.literals.keySet());
+        }
+        for (String literal : literals) {
+            State<T> target = stateFor(targets(nodes, literal), states, maxStates);
+            if (target == null) {
+                return false;
+            }
+            state.addLiteral(literal, target);
+        }
+        
+        List<Node<T>> wildcards = targets(nodes, null);
+        if (!wildcards.isEmpty()) {
+            state.wildcard = stateFor(wildcards, states, maxStates);
+            return state.wildcard != null;
+        }
+        return true;
+    }
+    
+    /**
+     * @return The state, or null once the automaton outgrows its bound
+     */
+    private State<T> stateFor(List<Node<T>> nodes, Map<List<Node<T>>, State<T>> states, int maxStates) {
+        State<T> state = states.get(nodes);
+        if (state != null) {
+            return state;
+        }
+        if (states.size() >= maxStates) {
+            return null;
+        }
+        Set<String> literals = new LinkedHashSet<>();
+        for (Node<T> node : nodes) {
+            literals.addAll(node.literals.keySet());
+        }
+        state = new State<>(valueOf(nodes), literals.size());
+        states.put(nodes, state);
+        return fill(state, nodes, states, maxStates) ? state : null;
+    }
+    
+    /**
+     * Get the nodes a segment leads to, in preference order
+     *
+     * @param segment The segment, or null for any non-empty segment that is none of the literals
+     */
+    private static <T> List<Node<T>> targets(List<Node<T>> nodes, String segment) {
+        List<Node<T>> targets = new ArrayList<>();
+        for (Node<T> node : nodes) {
+            Node<T> target = segment == null ? null : node.literals.get(segment);
+            if (target != null) {
+                targets.add(target);
+            }
+            Node<T> wildcard = node.wildcard;
+            if (wildcard != null && (segment == null || !segment.isEmpty())) {
+                targets.add(wildcard);
+            }
+        }
+        return targets;
+    }
+    
+    /**
+     * A key ending here resolves to the first pattern in preference order that ends here
+     */
+    private static <T> T valueOf(List<Node<T>> nodes) {
+        for (Node<T> node : nodes) {
+            T value = node.value;
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    private static String[] segments(String pattern) {
+        String[] segments = pattern.split(String.valueOf(SEPARATOR), -1);
+        for (String segment : segments) {
+            if (!isWildcard(segment) && (isPattern(segment) || segment.indexOf('}') >= 0)) {
+                throw new IllegalArgumentException("Wildcards must span a whole segment: " + pattern);
+            }
+        }
+        return segments;
+    }
+    
+    private static boolean isWildcard(String segment) {
+        if (segment.equals("*")) {
+            return true;
+        }
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}'
+            && segment.indexOf('{', 1) < 0 && segment.indexOf('}') == segment.length() - 1;
+    }
+}
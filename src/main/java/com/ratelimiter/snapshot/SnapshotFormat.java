@@ -0,0 +1,61 @@
+package com.ratelimiter.snapshot;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Snapshot File Format
+ * 
+ * Header (32 bytes): magic, version, creation time, index offset, index slot count, record count
+ * Records: namespace length (short), namespace (UTF-8), key length (short), key (UTF-8),
+ *          valid-until time (long), value count (int), values (long each)
+ * Index: open-addressing table of (hash, record offset) pairs with linear probing;
+ *        an offset of 0 marks an empty slot, since records start after the header
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x524C534E; // "RLSN"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int INDEX_SLOT_BYTES = 16;
+    static final int MAX_STRING_BYTES = 0xFFFF;
+    
+    private SnapshotFormat() {
+    }
+    
+    /**
+     * Encode a namespace or key
+     * 
+     * @return The UTF-8 bytes, or null if they are too long for the length field
+     */
+    static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > MAX_STRING_BYTES ? null : bytes;
+    }
+    
+    /**
+     * 64-bit FNV-1a over namespace and key, finished with the MurmurHash3 mixer
+     */
+    static long hash(String namespace, String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < namespace.length(); i++) {
+            hash ^= namespace.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // Separator so ("ab", "c") and ("a", "bc") differ
+        hash ^= 0xFFFF;
+        hash *= 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    static int indexSlotsFor(int recordCount) {
+        return Math.max(16, Integer.highestOneBit(Math.max(1, recordCount) * 2 - 1) << 1);
+    }
+}
\ No newline at end of file
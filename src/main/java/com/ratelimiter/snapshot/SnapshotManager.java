@@ -0,0 +1,173 @@
+package com.ratelimiter.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Snapshot Manager
+ * Writes periodic and on-shutdown snapshots of limiter state, and opens the last one on startup
+ */
+public class SnapshotManager {
+    private static final Logger logger = Logger.getLogger(SnapshotManager.class.getName());
+    
+    private final Path file;
+    private final Supplier<Collection<Snapshottable>> sources;
+    private final TimeSource timeSource;
+    // Snapshot restored from, whose untaken records are carried over until it is exhausted
+    private SnapshotReader restored;
+    private ScheduledExecutorService scheduler;
+    private Thread shutdownHook;
+    
+    /**
+     * Constructor
+     * 
+     * @param file The snapshot file
+     * @param sources Supplies the components to snapshot, queried anew for every snapshot
+     */
+    public SnapshotManager(Path file, Supplier<Collection<Snapshottable>> sources) {
+        this(file, sources, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * Constructor with the clock the snapshotted state is kept with
+     * 
+     * @param file The snapshot file
+     * @param sources Supplies the components to snapshot, queried anew for every snapshot
+     * @param timeSource The clock that creation times are taken from and record validity is checked against
+     */
+    public SnapshotManager(Path file, Supplier<Collection<Snapshottable>> sources, TimeSource timeSource) {
+        if (file == null || sources == null || timeSource == null) {
+            throw new IllegalArgumentException("File, sources and time source cannot be null");
+        }
+        this.file = file;
+        this.sources = sources;
+        this.timeSource = timeSource;
+    }
+    
+    /**
+     * Open the existing snapshot for lazy restore
+     * An unreadable snapshot is logged and ignored, the limiter then starts cold.
+     * 
+     * @return The reader, or null if there is no usable snapshot
+     */
+    public synchronized SnapshotReader restore() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            restored = SnapshotReader.open(file, timeSource);
+            return restored;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable rate limiter snapshot " + file, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Start taking snapshots periodically and when the JVM shuts down
+     * 
+     * @param interval Time between snapshots, or null to only snapshot on shutdown
+     */
+    public synchronized void start(Duration interval) {
+        if (shutdownHook != null) {
+            return;
+        }
+        if (interval != null && !interval.isZero() && !interval.isNegative()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rate-limiter-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::snapshotQuietly, interval.toMillis(), interval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        }
+        shutdownHook = new Thread(this::snapshotQuietly, "rate-limiter-snapshot-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+    
+    /**
+     * Stop periodic and on-shutdown snapshots
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, the hook is running
+            }
+            shutdownHook = null;
+        }
+    }
+    
+    /**
+     * Write a snapshot now
+     * The file is written next to the target and moved into place, so readers never see a partial file.
+     * 
+     * @return Number of records written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized int snapshot() throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long createdAt = timeSource.currentTimeMillis();
+        int recordCount;
+        int skippedCount;
+        
+        try (SnapshotWriter writer = new SnapshotWriter(temporary)) {
+            for (Snapshottable source : sources.get()) {
+                source.writeSnapshot(writer);
+            }
+            if (restored != null) {
+                restored.copyUntakenTo(writer);
+                if (restored.isExhausted()) {
+                    restored = null;
+                }
+            }
+            writer.finish(createdAt);
+            recordCount = writer.getRecordCount();
+            skippedCount = writer.getSkippedCount();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (skippedCount > 0) {
+            logger.warning("Rate limiter snapshot " + file + " skipped " + skippedCount
+                + " keys longer than " + SnapshotFormat.MAX_STRING_BYTES + " bytes");
+        }
+        return recordCount;
+    }
+    
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to write rate limiter snapshot " + file, e);
+        }
+    }
+    
+    /**
+     * Get the snapshot file
+     * 
+     * @return The snapshot file path
+     */
+    public Path getFile() {
+        return file;
+    }
+}
\ No newline at end of file
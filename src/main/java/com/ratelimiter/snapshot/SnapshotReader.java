@@ -0,0 +1,237 @@
+package com.ratelimiter.snapshot;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Snapshot Reader
+ * Memory-maps a snapshot file and serves single records on demand, so opening it costs
+ * the same no matter how many keys it holds and pages are only read in when a key is touched.
+ * Every record is handed out at most once: after a key has been restored (or overwritten)
+ * the live state is authoritative and the snapshot must not bring the old state back.
+ * Records nobody has taken yet are carried over into the next snapshot, and once every record
+ * is taken or has expired the reader is exhausted and components let go of it.
+ */
+public final class SnapshotReader {
+    private final MappedByteBuffer buffer;
+    private final TimeSource timeSource;
+    private final long createdAt;
+    private final int indexOffset;
+    private final int indexSlots;
+    private final AtomicLongArray taken;
+    // Records not taken yet, including expired ones until a snapshot drops them
+    private final AtomicInteger remaining;
+    
+    private SnapshotReader(MappedByteBuffer buffer, TimeSource timeSource) throws IOException {
+        this.buffer = buffer;
+        this.timeSource = timeSource;
+        if (buffer.capacity() < SnapshotFormat.HEADER_BYTES
+                || buffer.getInt(0) != SnapshotFormat.MAGIC
+                || buffer.getInt(4) != SnapshotFormat.VERSION) {
+            throw new IOException("Not a rate limiter snapshot or unsupported version");
+        }
+        this.createdAt = buffer.getLong(8);
+        long offset = buffer.getLong(16);
+        this.indexSlots = buffer.getInt(24);
+        if (Integer.bitCount(indexSlots) != 1
+                || offset + (long) indexSlots * SnapshotFormat.INDEX_SLOT_BYTES != buffer.capacity()) {
+            throw new IOException("Corrupt snapshot index");
+        }
+        this.indexOffset = (int) offset;
+        this.taken = new AtomicLongArray((indexSlots + 63) / 64);
+        this.remaining = new AtomicInteger(buffer.getInt(28));
+    }
+    
+    /**
+     * Open a snapshot file
+     * 
+     * @param file The snapshot file
+     * @return The reader
+     * @throws IOException if the file cannot be mapped or is not a valid snapshot
+     */
+    public static SnapshotReader open(Path file) throws IOException {
+        return open(file, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * Open a snapshot file, checking record validity against a clock
+     * 
+     * @param file The snapshot file
+     * @param timeSource The clock the records' valid-until times were set with
+     * @return The reader
+     * @throws IOException if the file cannot be mapped or is not a valid snapshot
+     */
+    public static SnapshotReader open(Path file, TimeSource timeSource) throws IOException {
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than 2 GB: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            return new SnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), timeSource);
+        }
+    }
+    
+    /**
+     * Take the state of a key out of the snapshot
+     * 
+     * @param namespace The component the state belongs to
+     * @param key The key
+     * @return The state, or null if the key is not in the snapshot, was already taken or is no longer valid
+     */
+    public long[] take(String namespace, String key) {
+        long hash = SnapshotFormat.hash(namespace, key);
+        int mask = indexSlots - 1;
+        int slot = (int) hash & mask;
+        
+        for (int probes = 0; probes < indexSlots; probes++) {
+            int slotPosition = indexOffset + slot * SnapshotFormat.INDEX_SLOT_BYTES;
+            long recordOffset = buffer.getLong(slotPosition + 8);
+            if (recordOffset == 0) {
+                return null;
+            }
+            if (buffer.getLong(slotPosition) == hash && matches((int) recordOffset, namespace, key)) {
+                return markTaken(slot) ? readValues((int) recordOffset) : null;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+    
+    /**
+     * Forget that a key is in the snapshot, e.g. because it is being overwritten or reset
+     * 
+     * @param namespace The component the state belongs to
+     * @param key The key
+     */
+    public void discard(String namespace, String key) {
+        take(namespace, key);
+    }
+    
+    /**
+     * Copy every record nobody has taken yet into a new snapshot, so state that was restored but not
+     * touched since survives another restart; expired records are dropped for good instead
+     * Called after the live state has been written: a key that is live was taken before, so no key
+     * is written twice.
+     * 
+     * @param writer The snapshot being written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void copyUntakenTo(SnapshotWriter writer) throws IOException {
+        long now = timeSource.currentTimeMillis();
+        for (int slot = 0; slot < indexSlots; slot++) {
+            long recordOffset = buffer.getLong(indexOffset + slot * SnapshotFormat.INDEX_SLOT_BYTES + 8);
+            if (recordOffset == 0 || isTaken(slot)) {
+                continue;
+            }
+            int position = (int) recordOffset;
+            String namespace = readString(position);
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+            String key = readString(position);
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+            long validUntil = buffer.getLong(position);
+            if (now > validUntil) {
+                markTaken(slot);
+                continue;
+            }
+            long[] values = new long[buffer.getInt(position + 8)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getLong(position + 12 + i * 8);
+            }
+            writer.write(namespace, key, validUntil, values);
+        }
+    }
+    
+    /**
+     * Check whether every record has been taken, discarded or dropped as expired
+     * 
+     * @return true if the snapshot has nothing left to restore
+     */
+    public boolean isExhausted() {
+        return remaining.get() == 0;
+    }
+    
+    private String readString(int position) {
+        byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+        buffer.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private boolean matches(int recordOffset, String namespace, String key) {
+        int position = recordOffset;
+        int namespaceLength = buffer.getShort(position) & 0xFFFF;
+        if (!bytesEqual(position + 2, namespaceLength, SnapshotFormat.encode(namespace))) {
+            return false;
+        }
+        position += 2 + namespaceLength;
+        int keyLength = buffer.getShort(position) & 0xFFFF;
+        return bytesEqual(position + 2, keyLength, SnapshotFormat.encode(key));
+    }
+    
+    private boolean bytesEqual(int position, int length, byte[] expected) {
+        // Null for keys too long to be written, which are never in the snapshot
+        if (expected == null || length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private long[] readValues(int recordOffset) {
+        int position = recordOffset;
+        position += 2 + (buffer.getShort(position) & 0xFFFF);
+        position += 2 + (buffer.getShort(position) & 0xFFFF);
+        long validUntil = buffer.getLong(position);
+        if (timeSource.currentTimeMillis() > validUntil) {
+            return null;
+        }
+        int count = buffer.getInt(position + 8);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = buffer.getLong(position + 12 + i * 8);
+        }
+        return values;
+    }
+    
+    private boolean isTaken(int slot) {
+        return (taken.get(slot >>> 6) & 1L << slot) != 0;
+    }
+    
+    private boolean markTaken(int slot) {
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        while (true) {
+            long current = taken.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (taken.compareAndSet(word, current, current | bit)) {
+                remaining.decrementAndGet();
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Get the time the snapshot was written
+     * 
+     * @return Creation time in milliseconds
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.ratelimiter.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Snapshot Writer
+ * Streams records sequentially to the file and appends the lookup index when finished
+ */
+public final class SnapshotWriter implements Closeable {
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private long position;
+    private long[] hashes = new long[1024];
+    private long[] offsets = new long[1024];
+    private int recordCount;
+    private int skippedCount;
+    
+    SnapshotWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        
+        // Placeholder, the header is written last once the index offset is known
+        out.write(new byte[SnapshotFormat.HEADER_BYTES]);
+        this.position = SnapshotFormat.HEADER_BYTES;
+    }
+    
+    /**
+     * Write the state of one key
+     * A key or namespace longer than the format's 64 KB is skipped and counted instead, so one
+     * oversized client key cannot fail the whole snapshot; its state is not restored.
+     * 
+     * @param namespace The component the state belongs to, e.g. the storage or an algorithm name
+     * @param key The rate limit or storage key
+     * @param validUntil Time in milliseconds after which the state is worthless and is not restored
+     * @param values The state
+     * @throws IOException if the record cannot be written
+     */
+    public void write(String namespace, String key, long validUntil, long... values) throws IOException {
+        byte[] namespaceBytes = SnapshotFormat.encode(namespace);
+        byte[] keyBytes = SnapshotFormat.encode(key);
+        if (namespaceBytes == null || keyBytes == null) {
+            skippedCount++;
+            return;
+        }
+        
+        if (recordCount == hashes.length) {
+            hashes = Arrays.copyOf(hashes, recordCount * 2);
+            offsets = Arrays.copyOf(offsets, recordCount * 2);
+        }
+        hashes[recordCount] = SnapshotFormat.hash(namespace, key);
+        offsets[recordCount] = position;
+        recordCount++;
+        
+        out.writeShort(namespaceBytes.length);
+        out.write(namespaceBytes);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+        out.writeLong(validUntil);
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+        position += 2 + namespaceBytes.length + 2 + keyBytes.length + 8 + 4 + 8L * values.length;
+    }
+    
+    /**
+     * Write the index and header, and force everything to disk
+     */
+    void finish(long createdAt) throws IOException {
+        int indexSlots = SnapshotFormat.indexSlotsFor(recordCount);
+        long[] index = new long[indexSlots * 2];
+        int mask = indexSlots - 1;
+        for (int i = 0; i < recordCount; i++) {
+            int slot = (int) hashes[i] & mask;
+            while (index[slot * 2 + 1] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot * 2] = hashes[i];
+            index[slot * 2 + 1] = offsets[i];
+        }
+        
+        long indexOffset = position;
+        for (long value : index) {
+            out.writeLong(value);
+        }
+        out.flush();
+        
+        ByteBuffer header = ByteBuffer.allocate(SnapshotFormat.HEADER_BYTES);
+        header.putInt(SnapshotFormat.MAGIC);
+        header.putInt(SnapshotFormat.VERSION);
+        header.putLong(createdAt);
+        header.putLong(indexOffset);
+        header.putInt(indexSlots);
+        header.putInt(recordCount);
+        header.flip();
+        channel.write(header, 0);
+        channel.force(true);
+    }
+    
+    /**
+     * Get the number of records written so far
+     * 
+     * @return Record count
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+    
+    /**
+     * Get the number of records skipped because their key was too long for the format
+     * 
+     * @return Skipped record count
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
\ No newline at end of file
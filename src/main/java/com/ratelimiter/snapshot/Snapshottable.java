@@ -0,0 +1,25 @@
+package com.ratelimiter.snapshot;
+
+import java.io.IOException;
+
+/**
+ * Snapshot Support
+ * Implemented by storages and algorithms whose per-key state survives a restart
+ */
+public interface Snapshottable {
+    /**
+     * Write the current state of every key to the snapshot
+     * 
+     * @param writer The snapshot being written
+     * @throws IOException if the snapshot cannot be written
+     */
+    void writeSnapshot(SnapshotWriter writer) throws IOException;
+    
+    /**
+     * Restore state from a snapshot lazily
+     * Implementations keep the reader and take a key's record on the first access to that key.
+     * 
+     * @param reader The snapshot to restore from
+     */
+    void restoreFrom(SnapshotReader reader);
+}
\ No newline at end of file
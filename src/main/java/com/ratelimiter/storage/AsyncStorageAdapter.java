@@ -0,0 +1,87 @@
+package com.ratelimiter.storage;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.ratelimiter.core.AsyncRateLimitStorage;
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageOperation;
+
+/**
+ * Async Storage Adapter
+ * Adapter Pattern - Exposes a synchronous storage through the asynchronous interface
+ * by running its calls on an executor, by default one virtual thread per call
+ */
+public class AsyncStorageAdapter implements AsyncRateLimitStorage {
+    private final RateLimitStorage storage;
+    private final Executor executor;
+    
+    /**
+     * Holder for the default executor, created on first use
+     */
+    private static class DefaultExecutor {
+        static final Executor INSTANCE = create();
+        
+        /**
+         * Use virtual threads when the runtime has them (Java 21+), otherwise a cached pool of daemon threads
+         */
+        private static Executor create() {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "rate-limiter-async-storage");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+    
+    /**
+     * Constructor using the default executor
+     * 
+     * @param storage The synchronous storage to adapt
+     */
+    public AsyncStorageAdapter(RateLimitStorage storage) {
+        this(storage, DefaultExecutor.INSTANCE);
+    }
+    
+    /**
+     * Constructor with a custom executor
+     * 
+     * @param storage The synchronous storage to adapt
+     * @param executor The executor the blocking storage calls run on
+     */
+    public AsyncStorageAdapter(RateLimitStorage storage, Executor executor) {
+        if (storage == null || executor == null) {
+            throw new IllegalArgumentException("Storage and executor cannot be null");
+        }
+        this.storage = storage;
+        this.executor = executor;
+    }
+    
+    @Override
+    public CompletableFuture<Long> executeAsync(StorageOperation operation) {
+        return CompletableFuture.supplyAsync(() -> storage.execute(operation), executor);
+    }
+    
+    @Override
+    public CompletableFuture<long[]> executeAsync(List<StorageOperation> operations) {
+        return CompletableFuture.supplyAsync(() -> storage.execute(operations), executor);
+    }
+    
+    /**
+     * Get the adapted storage
+     * 
+     * @return The synchronous storage
+     */
+    public RateLimitStorage getStorage() {
+        return storage;
+    }
+}
\ No newline at end of file
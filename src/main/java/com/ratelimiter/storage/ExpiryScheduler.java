@@ -0,0 +1,33 @@
+package com.ratelimiter.storage;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared Expiry Scheduler
+ * A single daemon thread drives the expiry work of every storage and algorithm instance in the JVM,
+ * so creating them does not create threads and never keeps the JVM alive
+ */
+public final class ExpiryScheduler {
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rate-limiter-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private ExpiryScheduler() {
+    }
+    
+    /**
+     * Run a task periodically on the shared expiry thread
+     * 
+     * @param task The task to run
+     * @param periodMillis The period between runs in milliseconds
+     * @return The handle used to cancel the task
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long periodMillis) {
+        return EXECUTOR.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+}
\ No newline at end of file
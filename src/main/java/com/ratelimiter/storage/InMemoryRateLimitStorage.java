@@ -1,87 +1,461 @@
 package com.ratelimiter.storage;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.TimeSource;
+import com.ratelimiter.snapshot.SnapshotReader;
+import com.ratelimiter.snapshot.SnapshotWriter;
+import com.ratelimiter.snapshot.Snapshottable;
 
 /**
  * In-Memory Storage Implementation
  * Thread-safe with TTL support and automatic cleanup
+ * Expired entries are reclaimed incrementally by a hierarchical timing wheel
+ * Updates of a resident key change its entry in place and allocate nothing
  */
-public class InMemoryRateLimitStorage implements RateLimitStorage {
-    private final ConcurrentHashMap<String, StorageEntry> storage;
-    private final ScheduledExecutorService cleanupExecutor;
+public class InMemoryRateLimitStorage implements RateLimitStorage, Snapshottable {
+    private static final Logger logger = Logger.getLogger(InMemoryRateLimitStorage.class.getName());
+    private static final Duration DEFAULT_EXPIRY_TICK = Duration.ofMillis(100);
+    private static final String SNAPSHOT_NAMESPACE = "storage";
     
-    private static class StorageEntry {
-        final AtomicLong value;
-        final long expiryTime;
+    private final ConcurrentHashMap<StorageKey, StorageEntry> storage;
+    private final TimeSource timeSource;
+    private final TimingWheel timingWheel;
+    private final ScheduledFuture<?> expiryTask;
+    // Snapshot still being restored from, consulted when a key is not in the map yet
+    private volatile SnapshotReader snapshot;
+    
+    /**
+     * State of one key, updated in place for as long as the key is resident
+     * Value and expiry are read and written together under the entry's monitor, so an update
+     * allocates nothing; an expired entry is revived by overwriting both.
+     */
+    private static final class StorageEntry {
+        // Expiry check for the key, scheduled once when the entry is added
+        final TimingWheel.Timer timer;
+        // Guarded by this entry
+        long value;
+        long expiryTime;
+        // Set once the entry has left the map, an update that finds it set has to look the key up again
+        boolean removed;
         
-        StorageEntry(long value, long expiryTime) {
-            this.value = new AtomicLong(value);
+        StorageEntry(long value, long expiryTime, TimingWheel.Timer timer) {
+            this.value = value;
             this.expiryTime = expiryTime;
+            this.timer = timer;
+        }
+        
+        boolean isExpired(long now) {
+            return now > expiryTime;
         }
         
-        boolean isExpired() {
-            return System.currentTimeMillis() > expiryTime;
+        boolean isLive(long now) {
+            return !removed && now <= expiryTime;
+        }
+        
+        void update(long value, long expiryTime) {
+            this.value = value;
+            this.expiryTime = expiryTime;
         }
     }
     
     public InMemoryRateLimitStorage() {
+        this(DEFAULT_EXPIRY_TICK);
+    }
+    
+    /**
+     * Constructor with a custom clock
+     * 
+     * @param timeSource The clock that expiry times are set and checked against
+     */
+    public InMemoryRateLimitStorage(TimeSource timeSource) {
+        this(DEFAULT_EXPIRY_TICK, timeSource);
+    }
+    
+    /**
+     * Constructor with a custom expiry resolution
+     * 
+     * @param expiryTick How often expired entries are reclaimed; entries stay resident at most this long past expiry
+     */
+    public InMemoryRateLimitStorage(Duration expiryTick) {
+        this(expiryTick, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * Constructor with a custom expiry resolution and clock
+     * 
+     * @param expiryTick How often expired entries are reclaimed; entries stay resident at most this long past expiry
+     * @param timeSource The clock that expiry times are set and checked against
+     */
+    public InMemoryRateLimitStorage(Duration expiryTick, TimeSource timeSource) {
+        if (expiryTick == null || expiryTick.toMillis() <= 0) {
+            throw new IllegalArgumentException("Expiry tick must be at least one millisecond");
+        }
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
         this.storage = new ConcurrentHashMap<>();
-        this.cleanupExecutor = Executors.newScheduledThreadPool(1);
-        
-        // Cleanup expired entries every 60 seconds
-        cleanupExecutor.scheduleAtFixedRate(this::cleanupExpiredEntries, 60, 60, TimeUnit.SECONDS);
+        this.timeSource = timeSource;
+        this.timingWheel = new TimingWheel(expiryTick.toMillis(), timeSource.currentTimeMillis());
+        this.expiryTask = ExpiryScheduler.schedule(this::cleanupExpiredEntries, expiryTick.toMillis());
+    }
+    
+    @Override
+    public TimeSource getTimeSource() {
+        return timeSource;
     }
     
     @Override
     public void increment(String key, long value, Duration expiry) {
-        long expiryTime = System.currentTimeMillis() + expiry.toMillis();
-        storage.compute(key, (k, entry) -> {
-            if (entry == null || entry.isExpired()) {
-                return new StorageEntry(value, expiryTime);
-            }
-            entry.value.addAndGet(value);
-            return entry;
-        });
+        incrementAndGet(key, value, expiry);
     }
     
     @Override
     public long get(String key) {
+        return get(StorageKey.of(key));
+    }
+    
+    @Override
+    public long get(StorageKey key) {
+        restoreFromSnapshot(key);
         StorageEntry entry = storage.get(key);
-        if (entry == null || entry.isExpired()) {
+        if (entry == null) {
             return 0;
         }
-        return entry.value.get();
+        long now = timeSource.currentTimeMillis();
+        synchronized (entry) {
+            return entry.isLive(now) ? entry.value : 0;
+        }
     }
     
     @Override
     public void set(String key, long value, Duration expiry) {
-        long expiryTime = System.currentTimeMillis() + expiry.toMillis();
-        storage.put(key, new StorageEntry(value, expiryTime));
+        set(StorageKey.of(key), value, expiry);
+    }
+    
+    @Override
+    public void set(StorageKey key, long value, Duration expiry) {
+        discardFromSnapshot(key);
+        long expiryTime = timeSource.currentTimeMillis() + expiry.toMillis();
+        while (true) {
+            StorageEntry entry = entryFor(key, expiryTime);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                entry.update(value, expiryTime);
+                return;
+            }
+        }
     }
     
     @Override
     public void delete(String key) {
-        storage.remove(key);
+        delete(StorageKey.of(key));
+    }
+    
+    @Override
+    public void delete(StorageKey key) {
+        discardFromSnapshot(key);
+        StorageEntry entry = storage.get(key);
+        if (entry != null) {
+            synchronized (entry) {
+                remove(key, entry);
+            }
+        }
+    }
+    
+    @Override
+    public boolean exists(String name) {
+        StorageKey key = StorageKey.of(name);
+        restoreFromSnapshot(key);
+        StorageEntry entry = storage.get(key);
+        if (entry == null) {
+            return false;
+        }
+        long now = timeSource.currentTimeMillis();
+        synchronized (entry) {
+            return entry.isLive(now);
+        }
+    }
+    
+    @Override
+    public long incrementAndGet(String key, long delta, Duration expiry) {
+        return incrementAndGet(StorageKey.of(key), delta, expiry);
+    }
+    
+    @Override
+    public long incrementAndGet(StorageKey key, long delta, Duration expiry) {
+        restoreFromSnapshot(key);
+        long now = timeSource.currentTimeMillis();
+        long expiryTime = now + expiry.toMillis();
+        while (true) {
+            StorageEntry entry = entryFor(key, expiryTime);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                if (entry.isExpired(now)) {
+                    entry.update(delta, expiryTime);
+                } else {
+                    entry.value += delta;
+                }
+                return entry.value;
+            }
+        }
+    }
+    
+    @Override
+    public boolean compareAndSet(String key, long expect, long update, Duration expiry) {
+        return compareAndSet(StorageKey.of(key), expect, update, expiry);
+    }
+    
+    @Override
+    public boolean compareAndSet(StorageKey key, long expect, long update, Duration expiry) {
+        restoreFromSnapshot(key);
+        long now = timeSource.currentTimeMillis();
+        long expiryTime = now + expiry.toMillis();
+        while (true) {
+            StorageEntry entry = entryFor(key, expiryTime);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                long current = entry.isExpired(now) ? 0 : entry.value;
+                if (current != expect) {
+                    return false;
+                }
+                entry.update(update, expiryTime);
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        return incrementIfBelow(StorageKey.of(key), delta, limit, expiry);
+    }
+    
+    @Override
+    public long incrementIfBelow(StorageKey key, long delta, long limit, Duration expiry) {
+        restoreFromSnapshot(key);
+        long now = timeSource.currentTimeMillis();
+        long expiryTime = now + expiry.toMillis();
+        while (true) {
+            StorageEntry entry = entryFor(key, expiryTime);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                boolean live = !entry.isExpired(now);
+                long next = (live ? entry.value : 0) + delta;
+                if (next <= limit) {
+                    // A live key keeps its expiry, as with incrementAndGet
+                    entry.update(next, live ? entry.expiryTime : expiryTime);
+                }
+                return next;
+            }
+        }
+    }
+    
+    @Override
+    public long advanceIfBelow(String key, long step, long floor, long limit, Duration expiry) {
+        return advanceIfBelow(StorageKey.of(key), step, floor, limit, expiry);
+    }
+    
+    @Override
+    public long advanceIfBelow(StorageKey key, long step, long floor, long limit, Duration expiry) {
+        restoreFromSnapshot(key);
+        long now = timeSource.currentTimeMillis();
+        long expiryTime = now + expiry.toMillis();
+        while (true) {
+            StorageEntry entry = entryFor(key, expiryTime);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                long current = entry.isExpired(now) ? 0 : entry.value;
+                long next = Math.max(current, floor) + step;
+                if (next <= limit) {
+                    entry.update(next, expiryTime);
+                }
+                return next;
+            }
+        }
     }
     
     @Override
-    public boolean exists(String key) {
+    public long incrementIfBelow(StorageKey key, StorageKey previousKey, double previousWeight, long delta,
+                                 long limit, Duration expiry) {
+        long previous = (long) Math.floor(get(previousKey) * previousWeight);
+        return incrementIfBelow(key, delta, limit - previous, expiry) + previous;
+    }
+    
+    @Override
+    public long[] multiGet(StorageKey... keys) {
+        long[] values = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+        }
+        return values;
+    }
+    
+    /**
+     * Get the entry of a key, adding an expired one if the key is not resident
+     * The new entry's expiry check is scheduled right away, so if no update revives it, it is
+     * reclaimed like any other expired entry. Only adding a key allocates.
+     */
+    private StorageEntry entryFor(StorageKey key, long expiryTime) {
         StorageEntry entry = storage.get(key);
-        return entry != null && !entry.isExpired();
+        if (entry != null) {
+            return entry;
+        }
+        StorageEntry created = new StorageEntry(0, Long.MIN_VALUE, new TimingWheel.Timer(key));
+        entry = storage.putIfAbsent(key, created);
+        if (entry != null) {
+            return entry;
+        }
+        timingWheel.schedule(created.timer, expiryTime);
+        return created;
+    }
+    
+    /**
+     * Take an entry out of the map, called holding the entry's monitor
+     */
+    private void remove(StorageKey key, StorageEntry entry) {
+        if (!entry.removed) {
+            entry.removed = true;
+            storage.remove(key, entry);
+        }
+    }
+    
+    @Override
+    public void writeSnapshot(SnapshotWriter writer) throws IOException {
+        long now = timeSource.currentTimeMillis();
+        for (Map.Entry<StorageKey, StorageEntry> entry : storage.entrySet()) {
+            StorageEntry storageEntry = entry.getValue();
+            long value;
+            long expiryTime;
+            synchronized (storageEntry) {
+                if (!storageEntry.isLive(now)) {
+                    continue;
+                }
+                value = storageEntry.value;
+                expiryTime = storageEntry.expiryTime;
+            }
+            writer.write(SNAPSHOT_NAMESPACE, entry.getKey().name(), expiryTime, value, expiryTime);
+        }
+    }
+    
+    @Override
+    public void restoreFrom(SnapshotReader reader) {
+        this.snapshot = reader;
+    }
+    
+    /**
+     * Page a key in from the snapshot on its first access
+     */
+    private void restoreFromSnapshot(StorageKey key) {
+        SnapshotReader reader = restoringSnapshot();
+        if (reader == null || storage.containsKey(key)) {
+            return;
+        }
+        storage.computeIfAbsent(key, k -> {
+            long[] state = reader.take(SNAPSHOT_NAMESPACE, k.name());
+            if (state == null) {
+                return null;
+            }
+            StorageEntry entry = new StorageEntry(state[0], state[1], new TimingWheel.Timer(k));
+            timingWheel.schedule(entry.timer, state[1]);
+            return entry;
+        });
+    }
+    
+    /**
+     * Make sure a key that is overwritten or deleted is never restored afterwards
+     */
+    private void discardFromSnapshot(StorageKey key) {
+        SnapshotReader reader = restoringSnapshot();
+        if (reader != null) {
+            reader.discard(SNAPSHOT_NAMESPACE, key.name());
+        }
+    }
+    
+    /**
+     * Get the snapshot still being restored from, letting go of it once it is exhausted
+     */
+    private SnapshotReader restoringSnapshot() {
+        SnapshotReader reader = snapshot;
+        if (reader != null && reader.isExhausted()) {
+            snapshot = null;
+            return null;
+        }
+        return reader;
     }
     
     /**
      * Clean up expired entries to prevent memory leaks
+     * Only looks at the keys whose timers became due since the last tick
      */
     private void cleanupExpiredEntries() {
-        storage.entrySet().removeIf(entry -> entry.getValue().isExpired());
+        try {
+            long now = timeSource.currentTimeMillis();
+            TimingWheel.Timer timer = timingWheel.advance(now);
+            while (timer != null) {
+                TimingWheel.Timer next = timer.next();
+                expire(timer, now);
+                timer = next;
+            }
+        } catch (RuntimeException e) {
+            // An exception would silently cancel the periodic task
+            logger.log(Level.SEVERE, "Expired entry cleanup failed", e);
+        }
+    }
+    
+    /**
+     * Remove the key if it expired, otherwise check again at its current expiry time
+     */
+    private void expire(TimingWheel.Timer timer, long now) {
+        StorageEntry entry = storage.get(timer.key);
+        if (entry == null || entry.timer != timer) {
+            // Deleted, or deleted and added again with a timer of its own
+            return;
+        }
+        synchronized (entry) {
+            if (entry.removed) {
+                return;
+            }
+            if (!entry.isExpired(now)) {
+                timingWheel.schedule(timer, entry.expiryTime + 1);
+                return;
+            }
+            remove(timer.key, entry);
+        }
+    }
+    
+    /**
+     * Get the value and expiry time of a live entry, for tiers that persist this storage
+     * 
+     * @param key The storage key
+     * @return {value, expiryTime}, or null if the key is missing or expired
+     */
+    long[] entryState(StorageKey key) {
+        StorageEntry entry = storage.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = timeSource.currentTimeMillis();
+        synchronized (entry) {
+            return entry.isLive(now) ? new long[]{entry.value, entry.expiryTime} : null;
+        }
     }
     
     /**
@@ -97,22 +471,18 @@ public class InMemoryRateLimitStorage implements RateLimitStorage {
      * Clear all entries from storage
      */
     public void clear() {
-        storage.clear();
+        for (Map.Entry<StorageKey, StorageEntry> entry : storage.entrySet()) {
+            synchronized (entry.getValue()) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
     }
     
     /**
-     * Shutdown the cleanup executor
+     * Stop the expiry task of this storage
      * Should be called when the storage is no longer needed
      */
     public void shutdown() {
-        cleanupExecutor.shutdown();
-        try {
-            if (!cleanupExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                cleanupExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            cleanupExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+        expiryTask.cancel(false);
     }
 }
\ No newline at end of file
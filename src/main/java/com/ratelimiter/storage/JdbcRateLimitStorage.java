@@ -0,0 +1,734 @@
+package com.ratelimiter.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Database Storage Implementation
+ * Advanced: Write-behind JDBC storage; every operation is served by an in-memory tier and
+ * changed counters are written back to the database in coalesced batches
+ * 
+ * The table is loaded into memory when the storage is created, so reads never touch the database.
+ * Writes mark their key dirty; a background task writes the latest value of each dirty key once per
+ * interval, however many times it changed. The update that brings the unwritten changes to half of
+ * maxPendingUpdates wakes the writer to write them right away instead of at the next interval.
+ * Only the writer thread talks to the database: while it is unreachable, reads are still served from
+ * memory, the writer retries with exponential backoff and the changes stay pending until it is back.
+ * 
+ * maxPendingUpdates bounds the changes a crash can lose. Once that many are unwritten, typically
+ * during a database outage, writes fail with an IllegalStateException without changing anything,
+ * like the requests of a remote storage that cannot be reached, until the writer catches up. Threads
+ * writing at the same moment may each add one change past the bound. Rejected writes are logged and
+ * counted, see {@link #getRejectedUpdates()}.
+ * 
+ * Keys longer than the key column are stored under a name made of their start and a SHA-256 digest
+ * of the whole key, in memory as well, so they are written and reloaded like any other key. A row the
+ * database rejects on its own, like a value a constraint forbids, is dropped from the batch and logged
+ * instead of holding back the other changes, see {@link #getDroppedUpdates()}.
+ * The database is assumed to be owned by this storage, one process per table.
+ */
+public class JdbcRateLimitStorage implements RateLimitStorage {
+    private static final Logger logger = Logger.getLogger(JdbcRateLimitStorage.class.getName());
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // Length of the key column, in chars
+    private static final int MAX_KEY_LENGTH = 512;
+    private static final char DIGEST_SEPARATOR = '#';
+    private static final int DIGEST_CHARS = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final String tableName;
+    private final int maxPendingUpdates;
+    // Woken at half the bound, so the writer normally catches up before writes are rejected
+    private final int wakeThreshold;
+    private final InMemoryRateLimitStorage memory;
+    private final Set<StorageKey> dirtyKeys;
+    private final AtomicInteger pendingUpdates;
+    private final AtomicLong rejectedUpdates;
+    private final AtomicLong droppedUpdates;
+    // Set while writes are rejected, so an outage logs its first rejection only
+    private final AtomicBoolean rejecting;
+    private final ScheduledExecutorService writer;
+    private final long writeIntervalNanos;
+    // Set while a wake-up of the writer is queued, so a burst of updates queues one
+    private final AtomicBoolean wakeRequested;
+    private Connection connection;
+    private volatile boolean shutdown;
+    // Written by the writer thread only; while it is non-zero the writer is backing off and is not woken
+    private volatile int failedWrites;
+    private long retryDelayNanos;
+    private long retryAt;
+    
+    /**
+     * Storage with the default write interval and loss bound
+     * 
+     * @param jdbcUrl JDBC URL of the database, e.g. jdbc:h2:./ratelimiter
+     */
+    public JdbcRateLimitStorage(String jdbcUrl) {
+        this(new Builder().url(jdbcUrl));
+    }
+    
+    private JdbcRateLimitStorage(Builder builder) {
+        this.jdbcUrl = builder.url;
+        this.user = builder.user;
+        this.password = builder.password;
+        this.tableName = builder.tableName;
+        this.maxPendingUpdates = builder.maxPendingUpdates;
+        this.wakeThreshold = Math.max(1, builder.maxPendingUpdates / 2);
+        this.memory = new InMemoryRateLimitStorage(builder.timeSource);
+        this.dirtyKeys = ConcurrentHashMap.newKeySet();
+        this.pendingUpdates = new AtomicInteger();
+        this.rejectedUpdates = new AtomicLong();
+        this.droppedUpdates = new AtomicLong();
+        this.rejecting = new AtomicBoolean();
+        this.writeIntervalNanos = builder.writeInterval.toNanos();
+        this.wakeRequested = new AtomicBoolean();
+        
+        try {
+            createTable();
+            load();
+        } catch (SQLException e) {
+            memory.shutdown();
+            closeConnection();
+            throw new IllegalArgumentException("Cannot open rate limit table " + tableName + " at " + jdbcUrl, e);
+        }
+        
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = builder.writeInterval.toMillis();
+        writer.scheduleWithFixedDelay(this::writeBehind, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public TimeSource getTimeSource() {
+        return memory.getTimeSource();
+    }
+    
+    @Override
+    public void increment(String key, long value, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        memory.increment(key, value, expiry);
+        markDirty(key);
+    }
+    
+    @Override
+    public long get(String key) {
+        key = fit(key);
+        return memory.get(key);
+    }
+    
+    @Override
+    public void set(String key, long value, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        memory.set(key, value, expiry);
+        markDirty(key);
+    }
+    
+    @Override
+    public void delete(String key) {
+        key = fit(key);
+        checkBacklog();
+        memory.delete(key);
+        markDirty(key);
+    }
+    
+    @Override
+    public boolean exists(String key) {
+        key = fit(key);
+        return memory.exists(key);
+    }
+    
+    @Override
+    public long incrementAndGet(String key, long delta, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        long value = memory.incrementAndGet(key, delta, expiry);
+        markDirty(key);
+        return value;
+    }
+    
+    @Override
+    public boolean compareAndSet(String key, long expect, long update, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        boolean set = memory.compareAndSet(key, expect, update, expiry);
+        if (set) {
+            markDirty(key);
+        }
+        return set;
+    }
+    
+    @Override
+    public long[] multiGet(String... keys) {
+        String[] fitted = keys;
+        for (int i = 0; i < keys.length; i++) {
+            String key = fit(keys[i]);
+            if (key != keys[i]) {
+                if (fitted == keys) {
+                    fitted = keys.clone();
+                }
+                fitted[i] = key;
+            }
+        }
+        return memory.multiGet(fitted);
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        long result = memory.incrementIfBelow(key, delta, limit, expiry);
+        if (result <= limit) {
+            markDirty(key);
+        }
+        return result;
+    }
+    
+    @Override
+    public long advanceIfBelow(String key, long step, long floor, long limit, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        long result = memory.advanceIfBelow(key, step, floor, limit, expiry);
+        if (result <= limit) {
+            markDirty(key);
+        }
+        return result;
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, String previousKey, double previousWeight, long delta, long limit,
+                                 Duration expiry) {
+        key = fit(key);
+        previousKey = fit(previousKey);
+        checkBacklog();
+        long result = memory.incrementIfBelow(key, previousKey, previousWeight, delta, limit, expiry);
+        if (result <= limit) {
+            markDirty(key);
+        }
+        return result;
+    }
+    
+    @Override
+    public long get(StorageKey key) {
+        key = fit(key);
+        return memory.get(key);
+    }
+    
+    @Override
+    public void delete(StorageKey key) {
+        key = fit(key);
+        checkBacklog();
+        memory.delete(key);
+        markDirty(key);
+    }
+    
+    @Override
+    public long[] multiGet(StorageKey... keys) {
+        StorageKey[] fitted = keys;
+        for (int i = 0; i < keys.length; i++) {
+            StorageKey key = fit(keys[i]);
+            if (key != keys[i]) {
+                if (fitted == keys) {
+                    fitted = keys.clone();
+                }
+                fitted[i] = key;
+            }
+        }
+        return memory.multiGet(fitted);
+    }
+    
+    @Override
+    public long incrementIfBelow(StorageKey key, long delta, long limit, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        long result = memory.incrementIfBelow(key, delta, limit, expiry);
+        if (result <= limit) {
+            markDirty(key);
+        }
+        return result;
+    }
+    
+    @Override
+    public long advanceIfBelow(StorageKey key, long step, long floor, long limit, Duration expiry) {
+        key = fit(key);
+        checkBacklog();
+        long result = memory.advanceIfBelow(key, step, floor, limit, expiry);
+        if (result <= limit) {
+            markDirty(key);
+        }
+        return result;
+    }
+    
+    @Override
+    public long incrementIfBelow(StorageKey key, StorageKey previousKey, double previousWeight, long delta,
+                                 long limit, Duration expiry) {
+        key = fit(key);
+        previousKey = fit(previousKey);
+        checkBacklog();
+        long result = memory.incrementIfBelow(key, previousKey, previousWeight, delta, limit, expiry);
+        if (result <= limit) {
+            markDirty(key);
+        }
+        return result;
+    }
+    
+    /**
+     * Write all pending changes to the database now
+     * 
+     * @return Number of keys written or deleted
+     * @throws SQLException if the database could not be written; the unwritten keys stay pending
+     */
+    public synchronized int flush() throws SQLException {
+        if (dirtyKeys.isEmpty()) {
+            return 0;
+        }
+        // Changes made from here on may be written too but stay counted, which errs on the safe side
+        int taken = pendingUpdates.get();
+        
+        // Take each key before reading its state, so a change made meanwhile marks it again
+        List<StorageKey> keys = new ArrayList<>(dirtyKeys.size());
+        for (Iterator<StorageKey> iterator = dirtyKeys.iterator(); iterator.hasNext(); ) {
+            keys.add(iterator.next());
+            iterator.remove();
+        }
+        
+        try {
+            writeBatch(keys);
+        } catch (SQLException e) {
+            // Tell a row the database rejects apart from an outage by writing the keys one by one
+            writeEach(keys, e);
+        }
+        if (pendingUpdates.addAndGet(-taken) < maxPendingUpdates && rejecting.compareAndSet(true, false)) {
+            logger.info("Write-behind to " + tableName + " caught up, accepting writes again");
+        }
+        return keys.size();
+    }
+    
+    /**
+     * Get the number of changes not yet written to the database
+     * 
+     * @return Pending change count
+     */
+    public int getPendingUpdates() {
+        return pendingUpdates.get();
+    }
+    
+    /**
+     * Get the number of writes rejected because maxPendingUpdates changes were unwritten
+     * 
+     * @return Rejected write count since the storage was created
+     */
+    public long getRejectedUpdates() {
+        return rejectedUpdates.get();
+    }
+    
+    /**
+     * Get the number of changes dropped because the database rejected their row
+     * 
+     * @return Dropped change count since the storage was created
+     */
+    public long getDroppedUpdates() {
+        return droppedUpdates.get();
+    }
+    
+    /**
+     * Stop the write-behind task, write what is pending and close the database connection
+     * Should be called when the storage is no longer needed
+     */
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        synchronized (this) {
+            closeConnection();
+        }
+        memory.shutdown();
+    }
+    
+    /**
+     * Reject a write while maxPendingUpdates changes are unwritten, so a crash cannot lose more
+     * 
+     * @throws IllegalStateException if the bound is reached
+     */
+    private void checkBacklog() {
+        int pending = pendingUpdates.get();
+        if (pending < maxPendingUpdates) {
+            return;
+        }
+        rejectedUpdates.incrementAndGet();
+        if (rejecting.compareAndSet(false, true)) {
+            logger.warning("Write-behind to " + tableName + " has " + pending
+                + " unwritten changes, rejecting writes until it catches up");
+        }
+        throw new IllegalStateException("Write-behind to " + tableName + " is " + pending
+            + " changes behind, the limit is " + maxPendingUpdates);
+    }
+    
+    /**
+     * Get the name a key is stored under, the key itself unless it is too long for the key column
+     */
+    private static String fit(String key) {
+        return key == null || key.length() <= MAX_KEY_LENGTH ? key : digestName(key);
+    }
+    
+    private static StorageKey fit(StorageKey key) {
+        return key == null || key.length() <= MAX_KEY_LENGTH ? key : StorageKey.of(digestName(key.name()));
+    }
+    
+    /**
+     * Start of the key followed by the hex SHA-256 digest of all of it, exactly MAX_KEY_LENGTH chars
+     * or one less when the start would end in half a surrogate pair
+     */
+    private static String digestName(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        int prefix = MAX_KEY_LENGTH - 1 - DIGEST_CHARS;
+        if (Character.isHighSurrogate(key.charAt(prefix - 1))) {
+            prefix--;
+        }
+        StringBuilder name = new StringBuilder(prefix + 1 + DIGEST_CHARS)
+            .append(key, 0, prefix)
+            .append(DIGEST_SEPARATOR);
+        for (byte b : digest) {
+            name.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return name.toString();
+    }
+    
+    private void markDirty(String key) {
+        markDirty(StorageKey.of(key));
+    }
+    
+    private void markDirty(StorageKey key) {
+        dirtyKeys.add(key);
+        if (pendingUpdates.incrementAndGet() >= wakeThreshold && !shutdown && failedWrites == 0
+                && wakeRequested.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::writeBehind);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the final flush writes the pending changes
+            }
+        }
+    }
+    
+    /**
+     * Write the pending changes on the writer thread, backing off while the database is unreachable
+     * Only the first failure of an outage is logged as a warning, the retries are logged at FINE.
+     */
+    private void writeBehind() {
+        wakeRequested.set(false);
+        long now = System.nanoTime();
+        if (failedWrites > 0 && now - retryAt < 0) {
+            return;
+        }
+        try {
+            flush();
+            if (failedWrites > 0) {
+                logger.info("Write-behind to " + tableName + " recovered after " + failedWrites + " failed attempts");
+                failedWrites = 0;
+            }
+        } catch (SQLException e) {
+            failedWrites++;
+            if (failedWrites == 1) {
+                retryDelayNanos = writeIntervalNanos;
+                logger.log(Level.WARNING, "Write-behind to " + tableName + " failed, retrying with backoff", e);
+            } else {
+                retryDelayNanos = Math.min(retryDelayNanos * 2, Math.max(MAX_RETRY_DELAY_NANOS, writeIntervalNanos));
+                logger.log(Level.FINE, "Write-behind to " + tableName + " failed again (attempt " + failedWrites
+                    + "), " + getPendingUpdates() + " changes pending", e);
+            }
+            retryAt = System.nanoTime() + retryDelayNanos;
+        }
+    }
+    
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Write-behind to " + tableName + " failed, will retry", e);
+        }
+    }
+    
+    /**
+     * Write the keys of a failed batch one by one, dropping the rows the database rejects
+     * The first failure that is not about its row is taken for an outage: it and the keys not
+     * yet written go back to pending.
+     */
+    private void writeEach(List<StorageKey> keys, SQLException batchFailure) throws SQLException {
+        for (int i = 0; i < keys.size(); i++) {
+            StorageKey key = keys.get(i);
+            try {
+                writeBatch(Collections.singletonList(key));
+            } catch (SQLException e) {
+                if (!isRowError(e)) {
+                    dirtyKeys.addAll(keys.subList(i, keys.size()));
+                    e.addSuppressed(batchFailure);
+                    throw e;
+                }
+                droppedUpdates.incrementAndGet();
+                logger.log(Level.WARNING, "Write-behind to " + tableName + " dropped the change of key "
+                    + key.name() + ", the database rejected its row", e);
+            }
+        }
+    }
+    
+    /**
+     * Whether the database rejected the data of a row, SQL states of class 22 (data exception) or
+     * 23 (integrity constraint violation), as opposed to failing the exchange
+     */
+    private static boolean isRowError(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            String state = cause.getSQLState();
+            if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void writeBatch(List<StorageKey> keys) throws SQLException {
+        Connection conn = connection();
+        long now = memory.getTimeSource().currentTimeMillis();
+        List<String> liveKeys = new ArrayList<>(keys.size());
+        List<long[]> liveStates = new ArrayList<>(keys.size());
+        
+        try (PreparedStatement update = conn.prepareStatement(
+                 "UPDATE " + tableName + " SET counter_value = ?, expires_at = ? WHERE counter_key = ?");
+             PreparedStatement delete = conn.prepareStatement(
+                 "DELETE FROM " + tableName + " WHERE counter_key = ?")) {
+            for (StorageKey key : keys) {
+                long[] state = memory.entryState(key);
+                if (state == null) {
+                    delete.setString(1, key.name());
+                    delete.addBatch();
+                } else {
+                    update.setLong(1, state[0]);
+                    update.setLong(2, state[1]);
+                    update.setString(3, key.name());
+                    update.addBatch();
+                    liveKeys.add(key.name());
+                    liveStates.add(state);
+                }
+            }
+            int[] updated = update.executeBatch();
+            delete.executeBatch();
+            
+            // Keys without a row yet; a portable upsert is an update followed by an insert of the misses
+            try (PreparedStatement insert = conn.prepareStatement(
+                     "INSERT INTO " + tableName + " (counter_key, counter_value, expires_at) VALUES (?, ?, ?)")) {
+                boolean inserts = false;
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] == 0) {
+                        insert.setString(1, liveKeys.get(i));
+                        insert.setLong(2, liveStates.get(i)[0]);
+                        insert.setLong(3, liveStates.get(i)[1]);
+                        insert.addBatch();
+                        inserts = true;
+                    }
+                }
+                if (inserts) {
+                    insert.executeBatch();
+                }
+            }
+            
+            try (PreparedStatement expired = conn.prepareStatement(
+                     "DELETE FROM " + tableName + " WHERE expires_at < ?")) {
+                expired.setLong(1, now);
+                expired.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(conn);
+            throw e;
+        }
+    }
+    
+    private void createTable() throws SQLException {
+        Connection conn = connection();
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                + "counter_key VARCHAR(" + MAX_KEY_LENGTH + ") PRIMARY KEY, "
+                + "counter_value BIGINT NOT NULL, "
+                + "expires_at BIGINT NOT NULL)");
+            // Each batch also drops expired rows
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + tableName + "_expires_at ON " + tableName
+                + " (expires_at)");
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(conn);
+            throw e;
+        }
+    }
+    
+    /**
+     * Load every unexpired row into the in-memory tier
+     */
+    private void load() throws SQLException {
+        long now = memory.getTimeSource().currentTimeMillis();
+        try (PreparedStatement select = connection().prepareStatement(
+                 "SELECT counter_key, counter_value, expires_at FROM " + tableName + " WHERE expires_at >= ?")) {
+            select.setLong(1, now);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    memory.set(rows.getString(1), rows.getLong(2), Duration.ofMillis(rows.getLong(3) - now));
+                }
+            }
+        }
+    }
+    
+    /**
+     * The connection used by the write-behind task, reopened if it was lost
+     */
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = DriverManager.getConnection(jdbcUrl, user, password);
+            connection.setAutoCommit(false);
+        }
+        return connection;
+    }
+    
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.log(Level.FINE, "Error closing database connection", e);
+            }
+            connection = null;
+        }
+    }
+    
+    private void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            // The connection is unusable, the next exchange reopens it
+            closeConnection();
+        }
+    }
+    
+    /**
+     * Builder Pattern for JdbcRateLimitStorage
+     */
+    public static class Builder {
+        private String url;
+        private String user;
+        private String password;
+        private String tableName = "rate_limit_counters";
+        private Duration writeInterval = Duration.ofSeconds(1);
+        private int maxPendingUpdates = 10_000;
+        private TimeSource timeSource = TimeSource.SYSTEM;
+        
+        public Builder url(String url) {
+            if (url == null || url.trim().isEmpty()) {
+                throw new IllegalArgumentException("JDBC URL cannot be null or empty");
+            }
+            this.url = url;
+            return this;
+        }
+        
+        public Builder credentials(String user, String password) {
+            this.user = user;
+            this.password = password;
+            return this;
+        }
+        
+        public Builder tableName(String tableName) {
+            if (tableName == null || !TABLE_NAME.matcher(tableName).matches()) {
+                throw new IllegalArgumentException("Invalid table name: " + tableName);
+            }
+            this.tableName = tableName;
+            return this;
+        }
+        
+        /**
+         * How often changed counters are written to the database
+         */
+        public Builder writeInterval(Duration writeInterval) {
+            if (writeInterval == null || writeInterval.toMillis() <= 0) {
+                throw new IllegalArgumentException("Write interval must be at least one millisecond");
+            }
+            this.writeInterval = writeInterval;
+            return this;
+        }
+        
+        /**
+         * Most unwritten changes, which a crash would lose; writes fail once that many are pending
+         * and the writer is woken ahead of the next interval at half of it
+         */
+        public Builder maxPendingUpdates(int maxPendingUpdates) {
+            if (maxPendingUpdates <= 0) {
+                throw new IllegalArgumentException("Max pending updates must be positive");
+            }
+            this.maxPendingUpdates = maxPendingUpdates;
+            return this;
+        }
+        
+        /**
+         * Clock that expiry times are set and checked against, also for the stored expiry times
+         */
+        public Builder timeSource(TimeSource timeSource) {
+            if (timeSource == null) {
+                throw new IllegalArgumentException("Time source cannot be null");
+            }
+            this.timeSource = timeSource;
+            return this;
+        }
+        
+        public JdbcRateLimitStorage build() {
+            if (url == null) {
+                throw new IllegalArgumentException("JDBC URL must be set");
+            }
+            return new JdbcRateLimitStorage(this);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,600 @@
+package com.ratelimiter.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.concurrent.locks.StampedLock;
+
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageKey;
+import com.ratelimiter.core.TimeSource;
+
+/**
+ * Off-Heap Storage Implementation
+ * Keeps hashed keys, values and expiry times in open-addressing tables outside the Java heap,
+ * so millions of keys cost 24 bytes each and put no pressure on the garbage collector.
+ * 
+ * Keys are stored as 64-bit hashes only; two distinct keys with the same hash share a slot.
+ * The table is split into lock-striped segments: writes take the segment's write lock,
+ * reads are optimistic and only fall back to the read lock when they raced with a writer.
+ * The memory budget is fixed. When a segment is full, a short sweep turns expired entries into
+ * tombstones, which do not count against the load; once they make up an eighth of the segment it is
+ * compacted. If the sweep finds nothing, the soonest-expiring entry near the key is given up, so an
+ * insert into a segment full of live keys costs a bounded number of probes.
+ */
+public class OffHeapRateLimitStorage implements RateLimitStorage {
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 64L * 1024 * 1024;
+    
+    private static final int SLOT_BYTES = 24;
+    private static final int HASH_OFFSET = 0;
+    private static final int VALUE_OFFSET = 8;
+    private static final int EXPIRY_OFFSET = 16;
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = 1;
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MIN_SEGMENT_SLOTS = 1024;
+    // Largest power of two number of slots that still fits a single ByteBuffer
+    private static final int MAX_SEGMENT_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+    private static final int EVICTION_WINDOW = 16;
+    private static final int SWEEP_SLOTS = 64;
+    
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final TimeSource timeSource;
+    
+    /**
+     * One lock-striped open-addressing table with linear probing
+     * Slot layout: hash (EMPTY, TOMBSTONE or key hash), value, expiry time
+     */
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        final ByteBuffer slots;
+        final int capacity;
+        final int mask;
+        final int maxUsed;
+        final int compactThreshold;
+        // Slots that are not EMPTY, i.e. live, expired or tombstones
+        int used;
+        // Slots holding TOMBSTONE, from deletes and from expired entries found by the sweep
+        int tombstones;
+        // Next slot the sweep looks at
+        int sweepCursor;
+        
+        Segment(int capacity) {
+            this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.maxUsed = capacity - capacity / 4;
+            this.compactThreshold = capacity / 8;
+        }
+        
+        long hashAt(int slot) {
+            return slots.getLong(slot * SLOT_BYTES + HASH_OFFSET);
+        }
+        
+        long valueAt(int slot) {
+            return slots.getLong(slot * SLOT_BYTES + VALUE_OFFSET);
+        }
+        
+        long expiryAt(int slot) {
+            return slots.getLong(slot * SLOT_BYTES + EXPIRY_OFFSET);
+        }
+        
+        void write(int slot, long hash, long value, long expiryTime) {
+            int offset = slot * SLOT_BYTES;
+            slots.putLong(offset + HASH_OFFSET, hash);
+            slots.putLong(offset + VALUE_OFFSET, value);
+            slots.putLong(offset + EXPIRY_OFFSET, expiryTime);
+        }
+        
+        void writeValue(int slot, long value) {
+            slots.putLong(slot * SLOT_BYTES + VALUE_OFFSET, value);
+        }
+        
+        /**
+         * Find the slot holding the hash
+         * 
+         * @return The slot index, or -1 if the hash is not present
+         */
+        int find(long hash) {
+            int slot = (int) hash & mask;
+            for (int probes = 0; probes < capacity; probes++) {
+                long slotHash = hashAt(slot);
+                if (slotHash == hash) {
+                    return slot;
+                }
+                if (slotHash == EMPTY) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+        
+        /**
+         * Find the slot holding the hash, or claim one for it (write lock must be held)
+         * A claimed slot is initialised as an expired entry, so callers treat it like a stale one.
+         */
+        int findOrClaim(long hash, long now) {
+            for (;;) {
+                int slot = (int) hash & mask;
+                int expired = -1;
+                int free = -1;
+                for (int probes = 0; probes < capacity; probes++) {
+                    long slotHash = hashAt(slot);
+                    if (slotHash == hash) {
+                        return slot;
+                    }
+                    if (slotHash == EMPTY || slotHash == TOMBSTONE) {
+                        if (free < 0) {
+                            free = slot;
+                        }
+                        if (slotHash == EMPTY) {
+                            break;
+                        }
+                    } else if (expired < 0 && expiryAt(slot) < now) {
+                        expired = slot;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                
+                // Full once live (and not yet swept expired) entries reach the load limit, or once tombstones
+                // leave too few EMPTY slots for probes to end quickly
+                boolean full = used - tombstones >= maxUsed || used >= maxUsed + compactThreshold;
+                int claimed;
+                if (expired >= 0) {
+                    claimed = expired;
+                } else if (free >= 0 && !full) {
+                    claimed = free;
+                } else if (tombstones >= compactThreshold) {
+                    compact(now);
+                    continue;
+                } else if (sweep(now)) {
+                    continue;
+                } else {
+                    claimed = evict(hash, free);
+                }
+                
+                long claimedHash = hashAt(claimed);
+                if (claimedHash == EMPTY) {
+                    used++;
+                } else if (claimedHash == TOMBSTONE) {
+                    tombstones--;
+                }
+                write(claimed, hash, 0, Long.MIN_VALUE);
+                return claimed;
+            }
+        }
+        
+        /**
+         * Turn the expired entries among the next few slots into tombstones, so they are counted
+         * 
+         * @return true if any entry was turned
+         */
+        boolean sweep(long now) {
+            boolean swept = false;
+            for (int i = 0; i < SWEEP_SLOTS; i++) {
+                int slot = sweepCursor;
+                sweepCursor = (slot + 1) & mask;
+                long slotHash = hashAt(slot);
+                if (slotHash != EMPTY && slotHash != TOMBSTONE && expiryAt(slot) < now) {
+                    write(slot, TOMBSTONE, 0, 0);
+                    tombstones++;
+                    swept = true;
+                }
+            }
+            return swept;
+        }
+        
+        /**
+         * Rebuild the table without tombstones and expired entries
+         * Only run once enough tombstones have built up, so its cost is spread over the slots it frees.
+         */
+        void compact(long now) {
+            long[] live = new long[used * 3];
+            int liveCount = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                long slotHash = hashAt(slot);
+                if (slotHash != EMPTY && slotHash != TOMBSTONE && expiryAt(slot) >= now) {
+                    live[liveCount * 3] = slotHash;
+                    live[liveCount * 3 + 1] = valueAt(slot);
+                    live[liveCount * 3 + 2] = expiryAt(slot);
+                    liveCount++;
+                }
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                write(slot, EMPTY, 0, 0);
+            }
+            for (int i = 0; i < liveCount; i++) {
+                int slot = (int) live[i * 3] & mask;
+                while (hashAt(slot) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                write(slot, live[i * 3], live[i * 3 + 1], live[i * 3 + 2]);
+            }
+            used = liveCount;
+            tombstones = 0;
+        }
+        
+        /**
+         * Make room for the hash in a full segment by giving up the entry with the earliest expiry
+         * Only entries on the hash's probe path qualify, otherwise lookups would not reach the key.
+         * If the path has none, the key takes its free slot and the soonest-expiring entry after that
+         * slot is dropped instead, so the segment never fills up and probes keep ending at an EMPTY slot.
+         * 
+         * @param free The first free slot on the hash's probe path, or -1 if there is none
+         */
+        int evict(long hash, int free) {
+            int slot = (int) hash & mask;
+            int candidate = -1;
+            for (int probes = 0; probes < Math.min(EVICTION_WINDOW, capacity); probes++) {
+                long slotHash = hashAt(slot);
+                if (slotHash == EMPTY) {
+                    break;
+                }
+                if (slotHash != TOMBSTONE && (candidate < 0 || expiryAt(slot) < expiryAt(candidate))) {
+                    candidate = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (candidate >= 0) {
+                return candidate;
+            }
+            
+            int victim = -1;
+            slot = (free + 1) & mask;
+            for (int probes = 1; probes < Math.min(EVICTION_WINDOW, capacity); probes++) {
+                long slotHash = hashAt(slot);
+                if (slotHash != EMPTY && slotHash != TOMBSTONE && (victim < 0 || expiryAt(slot) < expiryAt(victim))) {
+                    victim = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (victim >= 0) {
+                write(victim, TOMBSTONE, 0, 0);
+                tombstones++;
+            }
+            return free;
+        }
+        
+        void clear() {
+            for (int slot = 0; slot < capacity; slot++) {
+                write(slot, EMPTY, 0, 0);
+            }
+            used = 0;
+            tombstones = 0;
+        }
+    }
+    
+    public OffHeapRateLimitStorage() {
+        this(DEFAULT_MAX_MEMORY_BYTES);
+    }
+    
+    /**
+     * Constructor with a fixed memory budget
+     * 
+     * @param maxMemoryBytes Upper bound for the off-heap tables; 75% of the slots are usable
+     */
+    public OffHeapRateLimitStorage(long maxMemoryBytes) {
+        this(maxMemoryBytes, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * Constructor with a fixed memory budget and clock
+     * 
+     * @param maxMemoryBytes Upper bound for the off-heap tables; 75% of the slots are usable
+     * @param timeSource The clock that expiry times are set and checked against
+     */
+    public OffHeapRateLimitStorage(long maxMemoryBytes, TimeSource timeSource) {
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+        long totalSlots = maxMemoryBytes / SLOT_BYTES;
+        if (totalSlots < MIN_SEGMENT_SLOTS) {
+            throw new IllegalArgumentException("Memory budget must hold at least " + MIN_SEGMENT_SLOTS + " entries");
+        }
+        
+        int segmentCount = (int) Math.min(MAX_SEGMENTS, Long.highestOneBit(totalSlots / MIN_SEGMENT_SLOTS));
+        long slotsPerSegment = Math.min(MAX_SEGMENT_SLOTS, Long.highestOneBit(totalSlots / segmentCount));
+        
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int) slotsPerSegment);
+        }
+        // The top bits pick the segment, the low bits the home slot inside it
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+        this.timeSource = timeSource;
+    }
+    
+    @Override
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+    
+    @Override
+    public void increment(String key, long value, Duration expiry) {
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.findOrClaim(hash, now);
+            if (segment.expiryAt(slot) < now) {
+                segment.write(slot, hash, value, now + expiry.toMillis());
+            } else {
+                segment.writeValue(slot, segment.valueAt(slot) + value);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public long get(String key) {
+        return getHashed(hash(key));
+    }
+    
+    @Override
+    public long get(StorageKey key) {
+        return getHashed(hash(key));
+    }
+    
+    private long getHashed(long hash) {
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.tryOptimisticRead();
+        long value = read(segment, hash, now);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = read(segment, hash, now);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+    
+    @Override
+    public void set(String key, long value, Duration expiry) {
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.findOrClaim(hash, now);
+            segment.write(slot, hash, value, now + expiry.toMillis());
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public void delete(String key) {
+        deleteHashed(hash(key));
+    }
+    
+    @Override
+    public void delete(StorageKey key) {
+        deleteHashed(hash(key));
+    }
+    
+    private void deleteHashed(long hash) {
+        Segment segment = segmentFor(hash);
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.find(hash);
+            if (slot >= 0) {
+                // Keep the slot occupied so probe chains through it stay intact
+                segment.write(slot, TOMBSTONE, 0, 0);
+                segment.tombstones++;
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public boolean exists(String key) {
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.readLock();
+        try {
+            int slot = segment.find(hash);
+            return slot >= 0 && segment.expiryAt(slot) >= now;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+    
+    @Override
+    public long incrementAndGet(String key, long delta, Duration expiry) {
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.findOrClaim(hash, now);
+            if (segment.expiryAt(slot) < now) {
+                segment.write(slot, hash, delta, now + expiry.toMillis());
+                return delta;
+            }
+            long next = segment.valueAt(slot) + delta;
+            segment.writeValue(slot, next);
+            return next;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public boolean compareAndSet(String key, long expect, long update, Duration expiry) {
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.findOrClaim(hash, now);
+            long current = segment.expiryAt(slot) < now ? 0 : segment.valueAt(slot);
+            if (current != expect) {
+                return false;
+            }
+            segment.write(slot, hash, update, now + expiry.toMillis());
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        return incrementIfBelowHashed(hash(key), delta, limit, expiry);
+    }
+    
+    @Override
+    public long incrementIfBelow(StorageKey key, long delta, long limit, Duration expiry) {
+        return incrementIfBelowHashed(hash(key), delta, limit, expiry);
+    }
+    
+    private long incrementIfBelowHashed(long hash, long delta, long limit, Duration expiry) {
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.findOrClaim(hash, now);
+            boolean live = segment.expiryAt(slot) >= now;
+            long next = (live ? segment.valueAt(slot) : 0) + delta;
+            if (next <= limit) {
+                if (live) {
+                    segment.writeValue(slot, next);
+                } else {
+                    segment.write(slot, hash, next, now + expiry.toMillis());
+                }
+            }
+            return next;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public long advanceIfBelow(String key, long step, long floor, long limit, Duration expiry) {
+        return advanceIfBelowHashed(hash(key), step, floor, limit, expiry);
+    }
+    
+    @Override
+    public long advanceIfBelow(StorageKey key, long step, long floor, long limit, Duration expiry) {
+        return advanceIfBelowHashed(hash(key), step, floor, limit, expiry);
+    }
+    
+    private long advanceIfBelowHashed(long hash, long step, long floor, long limit, Duration expiry) {
+        Segment segment = segmentFor(hash);
+        long now = timeSource.currentTimeMillis();
+        
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.findOrClaim(hash, now);
+            long current = segment.expiryAt(slot) < now ? 0 : segment.valueAt(slot);
+            long next = Math.max(current, floor) + step;
+            if (next <= limit) {
+                segment.write(slot, hash, next, now + expiry.toMillis());
+            }
+            return next;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Read a value; may see torn data when racing a writer, which the caller detects by validating its stamp
+     */
+    private long read(Segment segment, long hash, long now) {
+        int slot = segment.find(hash);
+        if (slot < 0 || segment.expiryAt(slot) < now) {
+            return 0;
+        }
+        return segment.valueAt(slot);
+    }
+    
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+    
+    /**
+     * 64-bit FNV-1a over the key's chars, finished with the MurmurHash3 mixer
+     * A {@link StorageKey} hashes the same as its name without building it.
+     * Never returns the EMPTY or TOMBSTONE markers.
+     */
+    static long hash(CharSequence key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY || hash == TOMBSTONE ? hash + 2 : hash;
+    }
+    
+    /**
+     * Get the number of occupied slots, including expired entries not yet reclaimed (for monitoring)
+     * 
+     * @return Number of occupied slots
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (int slot = 0; slot < segment.capacity; slot++) {
+                    long slotHash = segment.hashAt(slot);
+                    if (slotHash != EMPTY && slotHash != TOMBSTONE) {
+                        size++;
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Get the number of entries the storage can hold (for monitoring)
+     * 
+     * @return Usable slot count across all segments
+     */
+    public long capacity() {
+        long capacity = 0;
+        for (Segment segment : segments) {
+            capacity += segment.maxUsed;
+        }
+        return capacity;
+    }
+    
+    /**
+     * Clear all entries from storage
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.ratelimiter.storage;
+
+import com.ratelimiter.core.StorageKey;
+
+/**
+ * Hierarchical Timing Wheel
+ * O(1) scheduling of key expiries; due timers are handed out slot by slot as time advances,
+ * so reclamation is incremental instead of a sweep over the whole key space.
+ * 
+ * Level 0 has one slot per tick, every further level has slots WHEEL_SIZE times wider.
+ * Timers on a higher level are cascaded down when the lower levels wrap around.
+ * Deadlines beyond the top level are parked in its farthest slot and simply fire early;
+ * the owner is expected to reschedule them.
+ */
+final class TimingWheel {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN_TICKS = 1L << (WHEEL_BITS * LEVELS);
+    
+    private final long tickMillis;
+    private final Timer[] slots;
+    private long currentTick;
+    
+    /**
+     * A scheduled expiry check for a storage key
+     */
+    static final class Timer {
+        final StorageKey key;
+        private long deadlineTick;
+        private Timer next;
+        
+        Timer(StorageKey key) {
+            this.key = key;
+        }
+        
+        Timer next() {
+            return next;
+        }
+    }
+    
+    TimingWheel(long tickMillis, long startTime) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new Timer[LEVELS * WHEEL_SIZE];
+        this.currentTick = startTime / tickMillis;
+    }
+    
+    /**
+     * Schedule a timer to become due at the given time
+     * 
+     * @param timer The timer, which must not be scheduled already
+     * @param deadline The time in milliseconds at which the timer is due
+     */
+    synchronized void schedule(Timer timer, long deadline) {
+        // Round up so a timer never fires before its deadline
+        long deadlineTick = (deadline + tickMillis - 1) / tickMillis;
+        timer.deadlineTick = Math.min(Math.max(deadlineTick, currentTick + 1), currentTick + MAX_SPAN_TICKS - 1);
+        insert(timer);
+    }
+    
+    /**
+     * Advance the wheel to the given time and detach every timer that became due
+     * 
+     * @param now The current time in milliseconds
+     * @return The due timers linked through {@link Timer#next()}, or null if none are due
+     */
+    synchronized Timer advance(long now) {
+        long targetTick = now / tickMillis;
+        Timer due = null;
+        
+        while (currentTick < targetTick) {
+            currentTick++;
+            
+            // Cascade higher levels first so timers landing on this tick are fired below
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    Timer timer = takeSlot(level, currentTick);
+                    while (timer != null) {
+                        Timer next = timer.next;
+                        insert(timer);
+                        timer = next;
+                    }
+                }
+            }
+            
+            Timer timer = takeSlot(0, currentTick);
+            while (timer != null) {
+                Timer next = timer.next;
+                timer.next = due;
+                due = timer;
+                timer = next;
+            }
+        }
+        
+        return due;
+    }
+    
+    private void insert(Timer timer) {
+        long delta = timer.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int index = level * WHEEL_SIZE + (int) ((timer.deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        timer.next = slots[index];
+        slots[index] = timer;
+    }
+    
+    private Timer takeSlot(int level, long tick) {
+        int index = level * WHEEL_SIZE + (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        Timer head = slots[index];
+        slots[index] = null;
+        return head;
+    }
+}
\ No newline at end of file
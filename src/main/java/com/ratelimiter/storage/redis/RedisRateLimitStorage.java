@@ -0,0 +1,330 @@
+package com.ratelimiter.storage.redis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ratelimiter.core.RateLimitStorage;
+import com.ratelimiter.core.StorageOperation;
+
+/**
+ * Redis Storage Implementation
+ * Advanced: Speaks RESP over pooled NIO connections; every atomic operation is one server-side
+ * script call and batches are pipelined, so each rate limit decision costs one round trip
+ * 
+ * Scripts are called by SHA with EVALSHA. A server that does not have a script cached yet
+ * answers NOSCRIPT, and the call is repeated once with EVAL, which also caches it.
+ */
+public class RedisRateLimitStorage implements RateLimitStorage, AutoCloseable {
+    public static final String DEFAULT_HOST = "localhost";
+    public static final int DEFAULT_PORT = 6379;
+    public static final int DEFAULT_POOL_SIZE = 8;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 2000;
+    
+    private final RespConnectionPool pool;
+    
+    public RedisRateLimitStorage() {
+        this(DEFAULT_HOST, DEFAULT_PORT);
+    }
+    
+    public RedisRateLimitStorage(String host, int port) {
+        this(host, port, DEFAULT_POOL_SIZE, DEFAULT_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * @param host Redis host
+     * @param port Redis port
+     * @param poolSize Maximum number of open connections
+     * @param timeoutMillis Connect, read and pool wait timeout
+     */
+    public RedisRateLimitStorage(String host, int port, int poolSize, int timeoutMillis) {
+        if (host == null || port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid Redis address: " + host + ":" + port);
+        }
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        // Connections are opened on first use, so creating the storage never blocks
+        this.pool = new RespConnectionPool(InetSocketAddress.createUnresolved(host, port), poolSize, timeoutMillis);
+    }
+    
+    @Override
+    public void increment(String key, long value, Duration expiry) {
+        call(script(RedisScript.INCREMENT, new String[]{key}, value, millis(expiry)));
+    }
+    
+    @Override
+    public long get(String key) {
+        return toLong(call(new Object[]{"GET", key}));
+    }
+    
+    @Override
+    public void set(String key, long value, Duration expiry) {
+        call(new Object[]{"SET", key, value, "PX", millis(expiry)});
+    }
+    
+    @Override
+    public void delete(String key) {
+        call(new Object[]{"DEL", key});
+    }
+    
+    @Override
+    public boolean exists(String key) {
+        return toLong(call(new Object[]{"EXISTS", key})) > 0;
+    }
+    
+    @Override
+    public long incrementAndGet(String key, long delta, Duration expiry) {
+        return toLong(call(script(RedisScript.INCREMENT, new String[]{key}, delta, millis(expiry))));
+    }
+    
+    @Override
+    public boolean compareAndSet(String key, long expect, long update, Duration expiry) {
+        return toLong(call(script(RedisScript.COMPARE_AND_SET, new String[]{key}, expect, update, millis(expiry)))) == 1;
+    }
+    
+    @Override
+    public long[] multiGet(String... keys) {
+        Object[] command = new Object[keys.length + 1];
+        command[0] = "MGET";
+        System.arraycopy(keys, 0, command, 1, keys.length);
+        Object[] replies = (Object[]) call(command);
+        long[] values = new long[keys.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toLong(replies[i]);
+        }
+        return values;
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, long delta, long limit, Duration expiry) {
+        return toLong(call(commandFor(StorageOperation.incrementIfBelow(key, delta, limit, expiry))));
+    }
+    
+    @Override
+    public long advanceIfBelow(String key, long step, long floor, long limit, Duration expiry) {
+        return toLong(call(commandFor(StorageOperation.advanceIfBelow(key, step, floor, limit, expiry))));
+    }
+    
+    @Override
+    public long incrementIfBelow(String key, String previousKey, double previousWeight, long delta, long limit,
+                                 Duration expiry) {
+        return toLong(call(commandFor(
+            StorageOperation.incrementIfBelow(key, previousKey, previousWeight, delta, limit, expiry))));
+    }
+    
+    @Override
+    public long[] executeAll(List<StorageOperation> operations) {
+        return toLongs(call(commandFor(StorageOperation.all(operations))));
+    }
+    
+    @Override
+    public long execute(StorageOperation operation) {
+        if (operation.getType() == StorageOperation.Type.EACH) {
+            return execute(Collections.singletonList(operation))[0];
+        }
+        return resultOf(operation, call(commandFor(operation)));
+    }
+    
+    /**
+     * Pipeline the operations, where the parts of an EACH operation are sent as commands of their own
+     */
+    @Override
+    public long[] execute(List<StorageOperation> operations) {
+        List<Object[]> commands = new ArrayList<>(operations.size());
+        for (StorageOperation operation : operations) {
+            if (operation.getType() == StorageOperation.Type.EACH) {
+                for (StorageOperation part : operation.getOperations()) {
+                    commands.add(commandFor(part));
+                }
+            } else {
+                commands.add(commandFor(operation));
+            }
+        }
+        Object[] replies = exchange(commands);
+        long[] results = new long[operations.size()];
+        int reply = 0;
+        for (int i = 0; i < results.length; i++) {
+            StorageOperation operation = operations.get(i);
+            if (operation.getType() == StorageOperation.Type.EACH) {
+                List<StorageOperation> parts = operation.getOperations();
+                long[] partResults = new long[parts.size()];
+                for (int j = 0; j < partResults.length; j++) {
+                    partResults[j] = resultOf(parts.get(j), replies[reply++]);
+                }
+                results[i] = operation.recordResults(partResults);
+            } else {
+                results[i] = resultOf(operation, replies[reply++]);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Close all pooled connections
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+    
+    /**
+     * Translate an operation into its single command
+     */
+    private Object[] commandFor(StorageOperation operation) {
+        switch (operation.getType()) {
+            case GET:
+                return new Object[]{"GET", operation.getKey()};
+            
+            case INCREMENT_IF_BELOW:
+                String[] keys = operation.getPreviousKey() == null
+                    ? new String[]{operation.getKey()}
+                    : new String[]{operation.getKey(), operation.getPreviousKey()};
+                return script(RedisScript.INCREMENT_IF_BELOW, keys, operation.getAmount(), operation.getLimit(),
+                    millis(operation.getExpiry()), operation.getPreviousWeight());
+            
+            case ADVANCE_IF_BELOW:
+                return script(RedisScript.ADVANCE_IF_BELOW, new String[]{operation.getKey()}, operation.getAmount(),
+                    operation.getFloor(), operation.getLimit(), millis(operation.getExpiry()));
+            
+            case ALL:
+                return allCommand(operation.getOperations());
+            
+            case EACH:
+                throw new IllegalArgumentException("EACH operations are sent as one command per part");
+            
+            default:
+                throw new IllegalArgumentException("Unknown operation type: " + operation.getType());
+        }
+    }
+    
+    /**
+     * Encode conditional updates for the script that applies all or none of them
+     */
+    private static Object[] allCommand(List<StorageOperation> operations) {
+        String[] keys = new String[operations.size() * 2];
+        Object[] args = new Object[operations.size() * 6];
+        for (int i = 0; i < operations.size(); i++) {
+            StorageOperation operation = operations.get(i);
+            boolean increment = operation.getType() == StorageOperation.Type.INCREMENT_IF_BELOW;
+            keys[2 * i] = operation.getKey();
+            keys[2 * i + 1] = operation.getPreviousKey() != null ? operation.getPreviousKey() : operation.getKey();
+            args[6 * i] = increment ? 1 : 2;
+            args[6 * i + 1] = operation.getAmount();
+            args[6 * i + 2] = operation.getFloor();
+            args[6 * i + 3] = operation.getLimit();
+            args[6 * i + 4] = millis(operation.getExpiry());
+            args[6 * i + 5] = operation.getPreviousWeight();
+        }
+        return script(RedisScript.ALL_IF_BELOW, keys, args);
+    }
+    
+    private static Object[] script(RedisScript script, String[] keys, Object... args) {
+        Object[] command = new Object[3 + keys.length + args.length];
+        command[0] = "EVALSHA";
+        command[1] = script.getSha();
+        command[2] = keys.length;
+        System.arraycopy(keys, 0, command, 3, keys.length);
+        System.arraycopy(args, 0, command, 3 + keys.length, args.length);
+        return command;
+    }
+    
+    private Object call(Object[] command) {
+        return exchange(Collections.singletonList(command))[0];
+    }
+    
+    /**
+     * Pipeline commands over one pooled connection
+     * Scripts the server reports as not cached are sent again with their source in a second pipeline.
+     */
+    private Object[] exchange(List<Object[]> commands) {
+        RespConnection connection = pool.borrow();
+        try {
+            Object[] replies = connection.pipeline(commands);
+            
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < replies.length; i++) {
+                if (replies[i] instanceof RespCodec.Error && ((RespCodec.Error) replies[i]).hasPrefix("NOSCRIPT")) {
+                    missing.add(i);
+                }
+            }
+            if (!missing.isEmpty()) {
+                List<Object[]> retries = new ArrayList<>(missing.size());
+                for (int index : missing) {
+                    retries.add(withSource(commands.get(index)));
+                }
+                Object[] retried = connection.pipeline(retries);
+                for (int i = 0; i < retried.length; i++) {
+                    replies[missing.get(i)] = retried[i];
+                }
+            }
+            
+            for (Object reply : replies) {
+                if (reply instanceof RespCodec.Error) {
+                    throw new IllegalStateException("Redis error: " + reply);
+                }
+            }
+            return replies;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Redis request failed", e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+    
+    /**
+     * Turn an EVALSHA command into the equivalent EVAL
+     */
+    private static Object[] withSource(Object[] command) {
+        Object[] eval = command.clone();
+        eval[0] = "EVAL";
+        for (RedisScript script : RedisScript.values()) {
+            if (script.getSha().equals(command[1])) {
+                eval[1] = script.getSource();
+                return eval;
+            }
+        }
+        throw new IllegalStateException("Unknown script: " + command[1]);
+    }
+    
+    /**
+     * Read the reply to an operation, where the script of an ALL operation replies with the result of every part
+     */
+    private static long resultOf(StorageOperation operation, Object reply) {
+        if (operation.getType() == StorageOperation.Type.ALL) {
+            return operation.recordResults(toLongs(reply));
+        }
+        return toLong(reply);
+    }
+    
+    private static long[] toLongs(Object reply) {
+        Object[] replies = (Object[]) reply;
+        long[] values = new long[replies.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toLong(replies[i]);
+        }
+        return values;
+    }
+    
+    private static long toLong(Object reply) {
+        if (reply == null) {
+            return 0;
+        }
+        if (reply instanceof Long) {
+            return (Long) reply;
+        }
+        return Long.parseLong(RespCodec.asString(reply));
+    }
+    
+    private static long millis(Duration expiry) {
+        // PX rejects 0, and a key that expires immediately is the same as one never written
+        return Math.max(1, expiry.toMillis());
+    }
+}
\ No newline at end of file
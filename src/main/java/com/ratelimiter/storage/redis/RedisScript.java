@@ -0,0 +1,179 @@
+package com.ratelimiter.storage.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Server-side Lua scripts for the atomic storage operations
+ * Each script reads and conditionally updates its keys in one step on the server, so a
+ * rate limit decision is one EVALSHA round trip with no client-side retry loop.
+ * 
+ * Redis runs Lua numbers as doubles, which hold integers exactly up to 2^53: enough for counters,
+ * but nanosecond instants around the current epoch are past 1.7e18, where a double can only tell
+ * multiples of 256 apart. The advancing scripts therefore split each value into a high and a low part
+ * of nine decimal digits, both exact, do their arithmetic on the parts and reply with the result as a
+ * string, so any long is advanced and compared exactly.
+ */
+enum RedisScript {
+    /**
+     * KEYS[1]; ARGV: delta, expiry ms. Expiry is applied only when the key is created.
+     */
+    INCREMENT(
+        "local value = redis.call('INCRBY', KEYS[1], ARGV[1])\n" +
+        "if redis.call('PTTL', KEYS[1]) < 0 then redis.call('PEXPIRE', KEYS[1], ARGV[2]) end\n" +
+        "return value\n"),
+    
+    /**
+     * KEYS[1]; ARGV: expect, update, expiry ms. A missing key has the value 0; returns 1 if set.
+     */
+    COMPARE_AND_SET(
+        "local current = tonumber(redis.call('GET', KEYS[1]) or '0')\n" +
+        "if current ~= tonumber(ARGV[1]) then return 0 end\n" +
+        "redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])\n" +
+        "return 1\n"),
+    
+    /**
+     * KEYS[1], optional KEYS[2] previous window; ARGV: delta, limit, expiry ms, previous weight.
+     * Returns current + delta + floor(previous * weight); the increment is stored if that is within the limit.
+     */
+    INCREMENT_IF_BELOW(
+        "local previous = 0\n" +
+        "if #KEYS > 1 then\n" +
+        "  previous = math.floor(tonumber(redis.call('GET', KEYS[2]) or '0') * tonumber(ARGV[4]))\n" +
+        "end\n" +
+        "local result = tonumber(redis.call('GET', KEYS[1]) or '0') + tonumber(ARGV[1]) + previous\n" +
+        "if result <= tonumber(ARGV[2]) then\n" +
+        "  redis.call('INCRBY', KEYS[1], ARGV[1])\n" +
+        "  if redis.call('PTTL', KEYS[1]) < 0 then redis.call('PEXPIRE', KEYS[1], ARGV[3]) end\n" +
+        "end\n" +
+        "return result\n"),
+    
+    /**
+     * KEYS[1]; ARGV: step, floor, limit, expiry ms.
+     * Returns max(current, floor) + step as a string; it is stored with a fresh expiry if within the limit.
+     */
+    ADVANCE_IF_BELOW(ExactIntegers.FUNCTIONS +
+        "local ch, cl = split(redis.call('GET', KEYS[1]) or '0')\n" +
+        "local fh, fl = split(ARGV[2])\n" +
+        "if above(fh, fl, ch, cl) then ch, cl = fh, fl end\n" +
+        "local rh, rl = add(ch, cl, split(ARGV[1]))\n" +
+        "local result = join(rh, rl)\n" +
+        "if not above(rh, rl, split(ARGV[3])) then\n" +
+        "  redis.call('SET', KEYS[1], result, 'PX', ARGV[4])\n" +
+        "end\n" +
+        "return result\n"),
+    
+    /**
+     * Two KEYS per update: key and previous window key, the key again if there is none;
+     * six ARGV per update: kind (1 increment, 2 advance), amount, floor, limit, expiry ms, previous weight.
+     * Evaluates every update first and applies all of them only if each is within its limit.
+     * Returns the result of each update as its own script would, applied or not.
+     */
+    ALL_IF_BELOW(ExactIntegers.FUNCTIONS +
+        "local count = #KEYS / 2\n" +
+        "local next = {}\n" +
+        "local over = false\n" +
+        "for i = 1, count do\n" +
+        "  local a = (i - 1) * 6\n" +
+        "  local current = redis.call('GET', KEYS[2 * i - 1]) or '0'\n" +
+        "  if ARGV[a + 1] == '1' then\n" +
+        "    local previous = 0\n" +
+        "    if KEYS[2 * i] ~= KEYS[2 * i - 1] then\n" +
+        "      previous = math.floor(tonumber(redis.call('GET', KEYS[2 * i]) or '0') * tonumber(ARGV[a + 6]))\n" +
+        "    end\n" +
+        "    next[i] = tonumber(current) + tonumber(ARGV[a + 2]) + previous\n" +
+        "    if next[i] > tonumber(ARGV[a + 4]) then over = true end\n" +
+        "  else\n" +
+        "    local ch, cl = split(current)\n" +
+        "    local fh, fl = split(ARGV[a + 3])\n" +
+        "    if above(fh, fl, ch, cl) then ch, cl = fh, fl end\n" +
+        "    local rh, rl = add(ch, cl, split(ARGV[a + 2]))\n" +
+        "    next[i] = join(rh, rl)\n" +
+        "    if above(rh, rl, split(ARGV[a + 4])) then over = true end\n" +
+        "  end\n" +
+        "end\n" +
+        "if over then return next end\n" +
+        "for i = 1, count do\n" +
+        "  local a = (i - 1) * 6\n" +
+        "  local key = KEYS[2 * i - 1]\n" +
+        "  if ARGV[a + 1] == '1' then\n" +
+        "    redis.call('INCRBY', key, ARGV[a + 2])\n" +
+        "    if redis.call('PTTL', key) < 0 then redis.call('PEXPIRE', key, ARGV[a + 5]) end\n" +
+        "  else\n" +
+        "    redis.call('SET', key, next[i], 'PX', ARGV[a + 5])\n" +
+        "  end\n" +
+        "end\n" +
+        "return next\n");
+    
+    /**
+     * Lua functions for longs split as high * 1e9 + low with 0 <= low < 1e9, exact in doubles
+     */
+    private static final class ExactIntegers {
+        static final String FUNCTIONS =
+            "local function split(text)\n" +
+            "  local negative = string.sub(text, 1, 1) == '-'\n" +
+            "  local digits = negative and string.sub(text, 2) or text\n" +
+            "  local high = tonumber(string.sub(digits, 1, -10)) or 0\n" +
+            "  local low = tonumber(string.sub(digits, -9))\n" +
+            "  if negative then\n" +
+            "    high, low = -high, -low\n" +
+            "    if low < 0 then high, low = high - 1, low + 1e9 end\n" +
+            "  end\n" +
+            "  return high, low\n" +
+            "end\n" +
+            "local function above(h1, l1, h2, l2)\n" +
+            "  return h1 > h2 or (h1 == h2 and l1 > l2)\n" +
+            "end\n" +
+            "local function add(h1, l1, h2, l2)\n" +
+            "  local high, low = h1 + h2, l1 + l2\n" +
+            "  if low >= 1e9 then high, low = high + 1, low - 1e9 end\n" +
+            "  return high, low\n" +
+            "end\n" +
+            "local function pad(low)\n" +
+            "  local text = tostring(low)\n" +
+            "  return string.rep('0', 9 - #text) .. text\n" +
+            "end\n" +
+            "local function join(high, low)\n" +
+            "  if high >= 0 then\n" +
+            "    if high == 0 then return tostring(low) end\n" +
+            "    return tostring(high) .. pad(low)\n" +
+            "  end\n" +
+            "  if low > 0 then high, low = high + 1, 1e9 - low end\n" +
+            "  if high == 0 then return '-' .. tostring(low) end\n" +
+            "  return '-' .. tostring(-high) .. pad(low)\n" +
+            "end\n";
+    }
+    
+    private final String source;
+    private final String sha;
+    
+    RedisScript(String source) {
+        this.source = source;
+        this.sha = sha1(source);
+    }
+    
+    String getSource() {
+        return source;
+    }
+    
+    /**
+     * SHA-1 of the source, which is how EVALSHA and SCRIPT LOAD identify a script
+     */
+    String getSha() {
+        return sha;
+    }
+    
+    static String sha1(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
\ No newline at end of file
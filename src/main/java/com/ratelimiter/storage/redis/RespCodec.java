@@ -0,0 +1,182 @@
+package com.ratelimiter.storage.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RESP (REdis Serialization Protocol) encoder and incremental decoder
+ * Shared by the client storage and the embedded server. Decoding works on whatever bytes
+ * have arrived so far and returns {@link #INCOMPLETE} until a whole value is buffered.
+ */
+final class RespCodec {
+    static final Object INCOMPLETE = new Object();
+    
+    private static final byte[] CRLF = {'\r', '\n'};
+    
+    /**
+     * Error reply sent by the server, e.g. "-NOSCRIPT No matching script"
+     */
+    static final class Error {
+        final String message;
+        
+        Error(String message) {
+            this.message = message;
+        }
+        
+        boolean hasPrefix(String prefix) {
+            return message.startsWith(prefix);
+        }
+        
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+    
+    private RespCodec() {
+    }
+    
+    /**
+     * Append a command, an array of bulk strings, to the output
+     */
+    static void writeCommand(ByteArrayOutputStream out, Object... args) {
+        writeHeader(out, '*', args.length);
+        for (Object arg : args) {
+            writeBulk(out, String.valueOf(arg).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    static void writeSimple(ByteArrayOutputStream out, String value) {
+        out.write('+');
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(CRLF);
+    }
+    
+    static void writeError(ByteArrayOutputStream out, String message) {
+        out.write('-');
+        out.writeBytes(message.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(CRLF);
+    }
+    
+    static void writeInteger(ByteArrayOutputStream out, long value) {
+        writeHeader(out, ':', value);
+    }
+    
+    static void writeBulk(ByteArrayOutputStream out, byte[] value) {
+        if (value == null) {
+            writeHeader(out, '$', -1);
+            return;
+        }
+        writeHeader(out, '$', value.length);
+        out.writeBytes(value);
+        out.writeBytes(CRLF);
+    }
+    
+    static void writeArrayHeader(ByteArrayOutputStream out, int length) {
+        writeHeader(out, '*', length);
+    }
+    
+    private static void writeHeader(ByteArrayOutputStream out, char type, long value) {
+        out.write(type);
+        out.writeBytes(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(CRLF);
+    }
+    
+    /**
+     * Decode one value from the buffer
+     * Simple strings decode to String, errors to {@link Error}, integers to Long, bulk strings
+     * to byte[] and arrays to Object[]; null bulk strings and arrays decode to null.
+     * On {@link #INCOMPLETE} the buffer position is left unchanged.
+     * 
+     * @param buffer Buffer in read mode
+     * @return The decoded value, or INCOMPLETE if more bytes are needed
+     */
+    static Object read(ByteBuffer buffer) {
+        int start = buffer.position();
+        Object value = readValue(buffer);
+        if (value == INCOMPLETE) {
+            buffer.position(start);
+        }
+        return value;
+    }
+    
+    private static Object readValue(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return INCOMPLETE;
+        }
+        byte type = buffer.get();
+        String line = readLine(buffer);
+        if (line == null) {
+            return INCOMPLETE;
+        }
+        switch (type) {
+            case '+':
+                return line;
+            
+            case '-':
+                return new Error(line);
+            
+            case ':':
+                return Long.parseLong(line);
+            
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                if (buffer.remaining() < length + 2) {
+                    return INCOMPLETE;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                buffer.position(buffer.position() + 2);
+                return bytes;
+            }
+            
+            case '*': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                Object[] elements = new Object[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = readValue(buffer);
+                    if (elements[i] == INCOMPLETE) {
+                        return INCOMPLETE;
+                    }
+                }
+                return elements;
+            }
+            
+            default:
+                throw new IllegalArgumentException("Invalid RESP type byte: " + (char) type);
+        }
+    }
+    
+    /**
+     * Read up to the next CRLF, or return null if it has not arrived yet
+     */
+    private static String readLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        for (int i = start; i + 1 < buffer.limit(); i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                byte[] bytes = new byte[i - start];
+                buffer.get(bytes);
+                buffer.position(i + 2);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Text of a bulk string or simple string reply
+     */
+    static String asString(Object value) {
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+}
\ No newline at end of file
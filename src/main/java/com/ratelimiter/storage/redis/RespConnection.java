@@ -0,0 +1,152 @@
+package com.ratelimiter.storage.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * A single RESP connection over a non-blocking NIO socket channel
+ * Commands are pipelined: a batch is written with one write and its replies are read back
+ * in order, so a batch of any size costs one network round trip. A private selector bounds
+ * every wait by the timeout, which a blocking channel cannot do.
+ */
+final class RespConnection implements AutoCloseable {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey selectionKey;
+    private final int timeoutMillis;
+    private ByteBuffer readBuffer;
+    private boolean broken;
+    
+    RespConnection(InetSocketAddress address, int timeoutMillis) throws IOException {
+        this.timeoutMillis = timeoutMillis;
+        this.channel = SocketChannel.open();
+        Selector opened = null;
+        try {
+            InetSocketAddress resolved = address.isUnresolved()
+                ? new InetSocketAddress(address.getHostString(), address.getPort())
+                : address;
+            channel.socket().connect(resolved, timeoutMillis);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            opened = Selector.open();
+            this.selectionKey = channel.register(opened, 0);
+        } catch (IOException e) {
+            if (opened != null) {
+                opened.close();
+            }
+            channel.close();
+            throw e;
+        }
+        this.selector = opened;
+        this.readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        readBuffer.flip();
+    }
+    
+    /**
+     * Send commands in one write and read their replies
+     * 
+     * @param commands Each command as its arguments, starting with the command name
+     * @return The replies in the same order; error replies are returned as {@link RespCodec.Error}
+     */
+    Object[] pipeline(List<Object[]> commands) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * commands.size());
+        for (Object[] command : commands) {
+            RespCodec.writeCommand(out, command);
+        }
+        
+        try {
+            ByteBuffer request = ByteBuffer.wrap(out.toByteArray());
+            while (request.hasRemaining()) {
+                if (channel.write(request) == 0) {
+                    await(SelectionKey.OP_WRITE);
+                }
+            }
+            
+            Object[] replies = new Object[commands.size()];
+            for (int i = 0; i < replies.length; i++) {
+                replies[i] = readReply();
+            }
+            return replies;
+        } catch (IOException | RuntimeException e) {
+            // The stream position is unknown now, never reuse this connection
+            broken = true;
+            throw e;
+        }
+    }
+    
+    private Object readReply() throws IOException {
+        while (true) {
+            Object reply = RespCodec.read(readBuffer);
+            if (reply != RespCodec.INCOMPLETE) {
+                return reply;
+            }
+            fill();
+        }
+    }
+    
+    /**
+     * Read more bytes, compacting the buffer and growing it when a reply does not fit
+     */
+    private void fill() throws IOException {
+        if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            grown.put(readBuffer);
+            readBuffer = grown;
+        } else {
+            readBuffer.compact();
+        }
+        int read = channel.read(readBuffer);
+        if (read == 0) {
+            await(SelectionKey.OP_READ);
+            read = channel.read(readBuffer);
+        }
+        readBuffer.flip();
+        if (read < 0) {
+            throw new EOFException("Connection closed by server");
+        }
+    }
+    
+    /**
+     * Wait until the channel is ready for the operation, or fail after the timeout
+     */
+    private void await(int operation) throws IOException {
+        selectionKey.interestOps(operation);
+        try {
+            if (selector.select(timeoutMillis) == 0) {
+                throw new SocketTimeoutException("No response from server within " + timeoutMillis + " ms");
+            }
+            selector.selectedKeys().clear();
+        } finally {
+            selectionKey.interestOps(0);
+        }
+    }
+    
+    boolean isUsable() {
+        return !broken && channel.isOpen();
+    }
+    
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
\ No newline at end of file
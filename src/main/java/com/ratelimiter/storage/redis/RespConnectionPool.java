@@ -0,0 +1,76 @@
+package com.ratelimiter.storage.redis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of RESP connections
+ * Connections are opened lazily up to the pool size and reused; a connection that failed
+ * mid-exchange is closed instead of being returned.
+ */
+final class RespConnectionPool implements AutoCloseable {
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final BlockingQueue<RespConnection> idle;
+    private final Semaphore permits;
+    private volatile boolean closed;
+    
+    RespConnectionPool(InetSocketAddress address, int poolSize, int timeoutMillis) {
+        this.address = address;
+        this.timeoutMillis = timeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+        this.permits = new Semaphore(poolSize);
+    }
+    
+    /**
+     * Borrow a connection, opening one if none is idle and the pool is not at its size
+     */
+    RespConnection borrow() {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Timed out waiting for a connection to " + address);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a connection to " + address, e);
+        }
+        
+        RespConnection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        try {
+            return new RespConnection(address, timeoutMillis);
+        } catch (IOException e) {
+            permits.release();
+            throw new UncheckedIOException("Cannot connect to " + address, e);
+        }
+    }
+    
+    /**
+     * Return a borrowed connection
+     */
+    void release(RespConnection connection) {
+        if (closed || !connection.isUsable() || !idle.offer(connection)) {
+            connection.close();
+        }
+        permits.release();
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        RespConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.ratelimiter.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ratelimiter.core.RateLimitRule;
+
+/**
+ * Drives ring changes through a loopback cluster and checks that keys keep their state across them
+ */
+class LoopbackClusterTest {
+    private static final int LIMIT = 10;
+    private static final Map<String, RateLimitRule> RULES = Map.of("user:{id}", new RateLimitRule.Builder()
+        .maxRequests(LIMIT)
+        .timeWindow(Duration.ofMinutes(10))
+        .algorithm("SLIDING_WINDOW_COUNTER")
+        .build());
+    
+    private LoopbackCluster cluster;
+    
+    @AfterEach
+    void stop() {
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+    
+    @Test
+    void keyNearItsLimitStaysLimitedWhenANodeJoins() {
+        cluster = new LoopbackCluster(RULES, 2);
+        // Nodes are numbered in order, the joining one is node-2
+        String key = movedKey(cluster.getRing(), cluster.getRing().withNode("node-2"));
+        String previousOwner = cluster.getRing().ownerOf(key);
+        assertEquals(LIMIT - 2, admitted(cluster.getNode("node-0"), key, LIMIT - 2));
+        
+        ClusterRateLimiter joined = cluster.addNode();
+        assertEquals("node-2", joined.getNodeId());
+        assertEquals("node-2", joined.getOwner(key));
+        
+        // The previous owner still decides, so nothing is reset, and the new owner only records;
+        // entering at the new owner records before the response, other nodes record asynchronously
+        assertEquals(2, admitted(joined, key, 2));
+        assertFalse(cluster.getNode(previousOwner).checkLimit(key).isAllowed());
+        assertFalse(cluster.getNode("node-0").checkLimit(key).isAllowed());
+        assertFalse(joined.checkLimit(key).isAllowed());
+        
+        // The new owner recorded exactly the two permits admitted during the handoff, this check takes a third
+        assertEquals(LIMIT - 3, joined.getLocalRateLimiter().checkLimit(key).getRemainingRequests());
+    }
+    
+    @Test
+    void keyNearItsLimitStaysLimitedWhenItsOwnerLeaves() {
+        cluster = new LoopbackCluster(RULES, 3);
+        String key = movedKey(cluster.getRing(), cluster.getRing().withoutNode("node-1"));
+        assertEquals("node-1", cluster.getRing().ownerOf(key));
+        String entry = cluster.getRing().withoutNode("node-1").ownerOf(key);
+        assertEquals(LIMIT - 1, admitted(cluster.getNode(entry), key, LIMIT - 1));
+        
+        cluster.removeNode("node-1", true);
+        ClusterRateLimiter newOwner = cluster.getNode(entry);
+        assertEquals(entry, newOwner.getOwner(key));
+        
+        // The departing node serves its keys until the handoff is over
+        assertTrue(newOwner.checkLimit(key).isAllowed());
+        for (ClusterRateLimiter node : cluster.getNodes()) {
+            assertFalse(node.checkLimit(key).isAllowed());
+        }
+        
+        // Only the permit admitted during the handoff was recorded, this check takes a second
+        assertEquals(LIMIT - 2, newOwner.getLocalRateLimiter().checkLimit(key).getRemainingRequests());
+    }
+    
+    @Test
+    void unreachableOwnerFallsBackToLocalState() {
+        cluster = new LoopbackCluster(RULES, 2);
+        String key = ownedKey(cluster.getRing(), "node-1");
+        ClusterRateLimiter entry = cluster.getNode("node-0");
+        // Taken at the owner itself, a slow first forward could otherwise fall back to the entry node
+        assertEquals(3, admitted(cluster.getNode("node-1"), key, 3));
+        
+        // The owner stops answering without leaving the ring
+        cluster.getNode("node-1").close();
+        assertEquals(LIMIT, admitted(entry, key, LIMIT + 5));
+        
+        // The limit was applied to the entry node's own state
+        assertFalse(entry.getLocalRateLimiter().checkLimit(key).isAllowed());
+        
+        // Once the crashed owner is taken off the ring, the entry node owns the key and keeps its state
+        cluster.removeNode("node-1", false);
+        assertEquals("node-0", entry.getOwner(key));
+        assertFalse(entry.checkLimit(key).isAllowed());
+    }
+    
+    private static int admitted(ClusterRateLimiter node, String key, int requests) {
+        int admitted = 0;
+        for (int i = 0; i < requests; i++) {
+            if (node.checkLimit(key).isAllowed()) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+    
+    private static String movedKey(ConsistentHashRing before, ConsistentHashRing after) {
+        for (int i = 0; ; i++) {
+            String key = "user:" + i;
+            if (!before.ownerOf(key).equals(after.ownerOf(key))) {
+                return key;
+            }
+        }
+    }
+    
+    private static String ownedKey(ConsistentHashRing ring, String nodeId) {
+        for (int i = 0; ; i++) {
+            String key = "user:" + i;
+            if (ring.ownerOf(key).equals(nodeId)) {
+                return key;
+            }
+        }
+    }
+}
\ No newline at end of file
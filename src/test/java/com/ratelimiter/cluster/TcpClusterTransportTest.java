@@ -0,0 +1,89 @@
+package com.ratelimiter.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ratelimiter.core.RateLimitResponse;
+
+/**
+ * Sends checks between two transports on loopback ports, and to a port nothing listens on
+ */
+class TcpClusterTransportTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    
+    private TcpClusterTransport client;
+    private TcpClusterTransport server;
+    
+    @BeforeEach
+    void open() throws IOException {
+        client = new TcpClusterTransport();
+        server = new TcpClusterTransport();
+        // Answers with the key's length as the remaining count
+        server.start(new ClusterTransport.Handler() {
+            @Override
+            public RateLimitResponse check(String key, int cost) {
+                return RateLimitResponse.allowed(key.length(), 0);
+            }
+            
+            @Override
+            public void record(String key, int cost) {
+            }
+        });
+        client.addPeer("server", server.getLocalAddress());
+    }
+    
+    @AfterEach
+    void close() {
+        client.close();
+        server.close();
+    }
+    
+    @Test
+    void keysOfAnyLengthAreSentWithoutFailingOtherChecks() throws Exception {
+        // Longer than the 65535 bytes a modified UTF-8 string can take
+        String longKey = "é".repeat(40_000);
+        CompletableFuture<RateLimitResponse> before = client.check("server", "key", 1);
+        CompletableFuture<RateLimitResponse> longCheck = client.check("server", longKey, 1);
+        CompletableFuture<RateLimitResponse> after = client.check("server", "other", 1);
+        
+        assertEquals(3, answer(before).getRemainingRequests());
+        assertEquals(40_000, answer(longCheck).getRemainingRequests());
+        assertEquals(5, answer(after).getRemainingRequests());
+    }
+    
+    @Test
+    void checksToAnUnreachablePeerFailWithoutWaitingForTheConnection() throws Exception {
+        InetSocketAddress unused;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            unused = (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+        client.addPeer("down", unused);
+        
+        CompletableFuture<RateLimitResponse> first = client.check("down", "key", 1);
+        ExecutionException failure = assertThrows(ExecutionException.class,
+            () -> first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof IOException);
+        
+        // Backing off: the next check fails before it returns instead of trying to connect again
+        assertTrue(client.check("down", "key", 1).isCompletedExceptionally());
+        // Other peers are not affected
+        assertEquals(3, answer(client.check("server", "key", 1)).getRemainingRequests());
+    }
+    
+    private static RateLimitResponse answer(CompletableFuture<RateLimitResponse> future) throws Exception {
+        return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,26 @@
+package com.ratelimiter.crdt;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.ratelimiter.clock.ManualTimeSource;
+
+/**
+ * Runs a short simulation, which only ends in agreement if the simulator reads the counts where the
+ * algorithm stores them; the clock is stopped, so the run never crosses into the next window
+ */
+class CrdtSimulatorTest {
+    
+    @Test
+    void nodesAgreeOnTheAdmittedTotal() {
+        CrdtSimulator simulator = new CrdtSimulator(2, Duration.ofMillis(10), Duration.ZERO, 0,
+            new ManualTimeSource());
+        CrdtSimulator.Result result = simulator.run(200, 2000);
+        
+        assertTrue(result.getAdmitted() >= 200, result.toString());
+        assertTrue(result.getConvergenceMillis() >= 0, result.toString());
+    }
+}
\ No newline at end of file
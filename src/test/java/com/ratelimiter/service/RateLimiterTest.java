@@ -0,0 +1,55 @@
+package com.ratelimiter.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.ratelimiter.clock.ManualTimeSource;
+import com.ratelimiter.core.RateLimitRule;
+
+/**
+ * Runs rules through the limiter's own setup of algorithms, on a clock that only moves when told to
+ */
+class RateLimiterTest {
+    
+    @Test
+    void multiBandRuleKeepsItsShortBandWithLeasingOn() {
+        // Starts on a second boundary, so the first requests share the short band's window
+        ManualTimeSource clock = new ManualTimeSource(1_700_000_000_000L);
+        RateLimiter limiter = new RateLimiter.Builder()
+            .timeSource(clock)
+            .leasing(0.04, Duration.ofMinutes(1))
+            .addRule("user:{id}", new RateLimitRule.Builder()
+                .maxRequests(100)
+                .timeWindow(Duration.ofHours(1))
+                .addBand(5, Duration.ofSeconds(1))
+                .algorithm("SLIDING_WINDOW_COUNTER")
+                .build())
+            .build();
+        
+        // Back to back requests, which would lease the rest of a 4 permit lease from the first second
+        assertTrue(limiter.checkLimit("user:1").isAllowed());
+        clock.advance(Duration.ofMillis(1));
+        assertTrue(limiter.checkLimit("user:1").isAllowed());
+        
+        // Two seconds on, the sliding counter weighs in nothing from before, and permits leased back then
+        // must not add to the 5 the short band admits
+        clock.advance(Duration.ofSeconds(2));
+        assertEquals(5, admitted(limiter, "user:1", 20));
+        clock.advance(Duration.ofSeconds(2));
+        assertEquals(5, admitted(limiter, "user:1", 20));
+    }
+    
+    private static int admitted(RateLimiter limiter, String key, int requests) {
+        int admitted = 0;
+        for (int i = 0; i < requests; i++) {
+            if (limiter.checkLimit(key).isAllowed()) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+}
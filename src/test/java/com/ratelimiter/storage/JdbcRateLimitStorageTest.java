@@ -0,0 +1,212 @@
+package com.ratelimiter.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the write-behind storage against an in-memory H2 database, read back through a second connection
+ */
+class JdbcRateLimitStorageTest {
+    private static final Duration EXPIRY = Duration.ofMinutes(1);
+    private static final String TABLE = "rate_limit_counters";
+    private static final long TIMEOUT_MILLIS = 10_000;
+    
+    private String url;
+    private Connection admin;
+    private JdbcRateLimitStorage storage;
+    
+    @BeforeEach
+    void open() throws SQLException {
+        // Kept alive by the admin connection, so it outlives a storage that is shut down
+        url = "jdbc:h2:mem:" + UUID.randomUUID();
+        admin = DriverManager.getConnection(url);
+    }
+    
+    @AfterEach
+    void close() throws SQLException {
+        if (storage != null) {
+            storage.shutdown();
+        }
+        admin.close();
+    }
+    
+    @Test
+    void changesAreWrittenBehindCoalesced() throws SQLException {
+        storage = new JdbcRateLimitStorage.Builder().url(url).writeInterval(Duration.ofMillis(20)).build();
+        for (int i = 0; i < 5; i++) {
+            storage.increment("counter", 1, EXPIRY);
+        }
+        storage.set("gone", 7, EXPIRY);
+        
+        awaitWritten();
+        assertEquals(5, stored("counter"));
+        assertEquals(7, stored("gone"));
+        
+        storage.delete("gone");
+        storage.incrementIfBelow("counter", 1, 10, EXPIRY);
+        assertEquals(2, storage.flush());
+        assertEquals(0, storage.getPendingUpdates());
+        assertEquals(6, stored("counter"));
+        assertEquals(-1, stored("gone"));
+    }
+    
+    @Test
+    void counterIsReloadedOnConstruction() throws SQLException {
+        storage = new JdbcRateLimitStorage(url);
+        storage.incrementAndGet("counter", 3, EXPIRY);
+        storage.advanceIfBelow("tat", 10, 100, 1000, EXPIRY);
+        storage.shutdown();
+        assertEquals(3, stored("counter"));
+        
+        storage = new JdbcRateLimitStorage(url);
+        assertEquals(3, storage.get("counter"));
+        assertEquals(110, storage.get("tat"));
+        assertEquals(4, storage.incrementAndGet("counter", 1, EXPIRY));
+    }
+    
+    @Test
+    void writesAreRejectedAtTheBoundAndResumeAfterAnOutage() throws SQLException {
+        storage = new JdbcRateLimitStorage.Builder()
+            .url(url)
+            .writeInterval(Duration.ofMillis(20))
+            .maxPendingUpdates(4)
+            .build();
+        storage.increment("counter", 1, EXPIRY);
+        awaitWritten();
+        
+        execute("DROP TABLE " + TABLE);
+        for (int i = 0; i < 4; i++) {
+            storage.increment("counter", 1, EXPIRY);
+        }
+        // The writer cannot catch up, so the bound holds however long the outage lasts
+        assertEquals(4, storage.getPendingUpdates());
+        assertThrows(IllegalStateException.class, () -> storage.increment("counter", 1, EXPIRY));
+        assertThrows(IllegalStateException.class, () -> storage.incrementIfBelow("counter", 1, 100, EXPIRY));
+        assertEquals(2, storage.getRejectedUpdates());
+        // Reads keep being served and the rejected writes changed nothing
+        assertEquals(5, storage.get("counter"));
+        
+        execute("CREATE TABLE " + TABLE + " (counter_key VARCHAR(512) PRIMARY KEY, "
+            + "counter_value BIGINT NOT NULL, expires_at BIGINT NOT NULL)");
+        awaitWritten();
+        assertEquals(5, stored("counter"));
+        
+        assertEquals(6, storage.incrementAndGet("counter", 1, EXPIRY));
+        awaitWritten();
+        assertEquals(6, stored("counter"));
+    }
+    
+    @Test
+    void keysLongerThanTheColumnAreWrittenAndReloaded() throws SQLException {
+        storage = new JdbcRateLimitStorage.Builder()
+            .url(url)
+            .writeInterval(Duration.ofMillis(20))
+            .maxPendingUpdates(100)
+            .build();
+        String longKey = "k".repeat(600);
+        String otherLongKey = "k".repeat(599) + "j";
+        for (int i = 0; i < 150; i++) {
+            storage.increment(longKey, 1, EXPIRY);
+            storage.increment("counter", 1, EXPIRY);
+            awaitBelow(100);
+        }
+        storage.increment(otherLongKey, 7, EXPIRY);
+        awaitWritten();
+        assertEquals(150, stored("counter"));
+        assertEquals(0, storage.getDroppedUpdates());
+        storage.shutdown();
+        
+        storage = new JdbcRateLimitStorage(url);
+        assertEquals(150, storage.get(longKey));
+        assertEquals(7, storage.get(otherLongKey));
+        assertEquals(151, storage.incrementAndGet(longKey, 1, EXPIRY));
+        assertEquals(150, storage.get("counter"));
+    }
+    
+    @Test
+    void rowsTheDatabaseRejectsAreDroppedWithoutHoldingBackTheBatch() throws SQLException {
+        storage = new JdbcRateLimitStorage.Builder()
+            .url(url)
+            .writeInterval(Duration.ofMillis(20))
+            .maxPendingUpdates(4)
+            .build();
+        execute("ALTER TABLE " + TABLE + " ADD CONSTRAINT small_values CHECK (counter_value < 1000)");
+        
+        storage.set("poison", 5000, EXPIRY);
+        storage.increment("counter", 1, EXPIRY);
+        awaitWritten();
+        assertEquals(1, storage.getDroppedUpdates());
+        assertEquals(-1, stored("poison"));
+        assertEquals(1, stored("counter"));
+        
+        // Writes keep being accepted and written although the rejected key changes again
+        for (int i = 0; i < 10; i++) {
+            storage.increment("poison", 1, EXPIRY);
+            storage.increment("counter", 1, EXPIRY);
+            awaitBelow(4);
+        }
+        awaitWritten();
+        assertEquals(11, stored("counter"));
+        assertEquals(0, storage.getRejectedUpdates());
+    }
+    
+    /**
+     * Wait until two more changes fit under the given bound
+     */
+    private void awaitBelow(int pending) {
+        await(() -> storage.getPendingUpdates() < pending - 1);
+    }
+    
+    private void awaitWritten() {
+        await(() -> storage.getPendingUpdates() == 0);
+    }
+    
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the write-behind");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+    }
+    
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = admin.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+    
+    /**
+     * Value written to the table for a key, -1 when it has no row
+     */
+    private long stored(String key) throws SQLException {
+        try (PreparedStatement query = admin.prepareStatement(
+                 "SELECT counter_value FROM " + TABLE + " WHERE counter_key = ?")) {
+            query.setString(1, key);
+            try (ResultSet rows = query.executeQuery()) {
+                return rows.next() ? rows.getLong(1) : -1;
+            }
+        }
+    }
+}
\ No newline at end of file
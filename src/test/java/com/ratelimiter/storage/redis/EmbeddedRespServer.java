@@ -0,0 +1,608 @@
+package com.ratelimiter.storage.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+/**
+ * Embedded RESP Server
+ * In-JVM stand-in for Redis, so {@link RedisRateLimitStorage} can be run and verified without an
+ * external server. Implements the commands the storage uses (GET, SET, DEL, EXISTS, INCRBY, MGET,
+ * PEXPIRE, PTTL, EVAL, EVALSHA, SCRIPT LOAD) on a single selector thread, like Redis itself.
+ * 
+ * Scripts run in LuaJ, with redis.call bound to the same commands and replies converted the way Redis
+ * converts them, so the storage's own Lua is what the tests exercise, including its double arithmetic.
+ * Like Redis, EVALSHA answers NOSCRIPT until a script has been sent with EVAL or SCRIPT LOAD, so the
+ * storage's fallback path is exercised too.
+ */
+class EmbeddedRespServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(EmbeddedRespServer.class.getName());
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    
+    private final int requestedPort;
+    private final Map<String, Value> data = new HashMap<>();
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+    private final Globals lua = JsePlatform.standardGlobals();
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+    private long lastSweep;
+    
+    /**
+     * A stored string with its absolute expiry in milliseconds, 0 for none
+     */
+    private static final class Value {
+        final String text;
+        long expiresAt;
+        
+        Value(String text, long expiresAt) {
+            this.text = text;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    /**
+     * Per-connection buffers: bytes received but not yet parsed, replies not yet written
+     */
+    private static final class Client {
+        ByteBuffer input = ByteBuffer.allocate(16 * 1024);
+        final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+    }
+    
+    /**
+     * Server on an ephemeral port, see {@link #getPort()}
+     */
+    EmbeddedRespServer() {
+        this(0);
+    }
+    
+    /**
+     * @param port Port to listen on, 0 for an ephemeral port
+     */
+    EmbeddedRespServer(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port: " + port);
+        }
+        this.requestedPort = port;
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                String[] command = new String[args.narg()];
+                for (int i = 0; i < command.length; i++) {
+                    command[i] = args.arg(i + 1).tojstring();
+                }
+                Object reply = reply(command);
+                if (reply instanceof RespCodec.Error) {
+                    throw new LuaError(reply.toString());
+                }
+                return toLua(reply);
+            }
+        });
+        lua.set("redis", redis);
+    }
+    
+    /**
+     * Bind to the loopback interface and start serving on a daemon thread
+     * 
+     * @return This server
+     */
+    synchronized EmbeddedRespServer start() throws IOException {
+        if (running) {
+            return this;
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort));
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        
+        running = true;
+        thread = new Thread(this::serve, "embedded-resp-server");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+    
+    /**
+     * Get the port the server listens on
+     * 
+     * @return The bound port
+     */
+    int getPort() {
+        if (serverChannel == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(SWEEP_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void serve() {
+        try {
+            while (running) {
+                selector.select(SWEEP_INTERVAL_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        logger.log(Level.FINE, "Dropping client connection", e);
+                        closeClient(key);
+                    }
+                }
+                sweepExpired();
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Embedded RESP server stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeClient(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Client());
+        }
+    }
+    
+    private void read(SelectionKey key) throws IOException {
+        Client client = (Client) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (!client.input.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(client.input.capacity() * 2);
+            client.input.flip();
+            grown.put(client.input);
+            client.input = grown;
+        }
+        if (channel.read(client.input) < 0) {
+            closeClient(key);
+            return;
+        }
+        
+        // Run every complete command that has arrived; pipelined commands get their replies in one write
+        ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        client.input.flip();
+        Object command;
+        while ((command = RespCodec.read(client.input)) != RespCodec.INCOMPLETE) {
+            if (!(command instanceof Object[])) {
+                throw new IllegalArgumentException("Expected a command array");
+            }
+            write(replies, reply(toArguments((Object[]) command)));
+        }
+        client.input.compact();
+        
+        if (replies.size() > 0) {
+            client.output.add(ByteBuffer.wrap(replies.toByteArray()));
+            write(key);
+        }
+    }
+    
+    private void write(SelectionKey key) throws IOException {
+        Client client = (Client) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        while (!client.output.isEmpty()) {
+            ByteBuffer buffer = client.output.peek();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            client.output.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+    
+    private void closeClient(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+    
+    private static String[] toArguments(Object[] command) {
+        String[] args = new String[command.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = RespCodec.asString(command[i]);
+        }
+        return args;
+    }
+    
+    /**
+     * Run one command
+     * 
+     * @return The reply, in the types {@link RespCodec#read} decodes replies to
+     */
+    private Object reply(String[] args) {
+        if (args.length == 0) {
+            return new RespCodec.Error("ERR empty command");
+        }
+        try {
+            return execute(args);
+        } catch (IllegalArgumentException e) {
+            return new RespCodec.Error(e.getMessage());
+        }
+    }
+    
+    private Object execute(String[] args) {
+        switch (args[0].toUpperCase()) {
+            case "PING":
+                return "PONG";
+            
+            case "GET":
+                requireArguments(args, 2);
+                return bulk(text(args[1]));
+            
+            case "SET":
+                return set(args);
+            
+            case "DEL":
+            case "EXISTS": {
+                requireArguments(args, 2);
+                boolean delete = "DEL".equalsIgnoreCase(args[0]);
+                long count = 0;
+                for (int i = 1; i < args.length; i++) {
+                    if (live(args[i]) != null) {
+                        count++;
+                        if (delete) {
+                            data.remove(args[i]);
+                        }
+                    }
+                }
+                return count;
+            }
+            
+            case "INCR":
+                requireArguments(args, 2);
+                return incrementBy(args[1], 1);
+            
+            case "INCRBY":
+                requireArguments(args, 3);
+                return incrementBy(args[1], parseLong(args[2]));
+            
+            case "MGET": {
+                requireArguments(args, 2);
+                Object[] values = new Object[args.length - 1];
+                for (int i = 1; i < args.length; i++) {
+                    values[i - 1] = bulk(text(args[i]));
+                }
+                return values;
+            }
+            
+            case "PEXPIRE":
+                requireArguments(args, 3);
+                return expire(args[1], parseLong(args[2])) ? 1L : 0L;
+            
+            case "PTTL":
+                requireArguments(args, 2);
+                return ttl(args[1]);
+            
+            case "FLUSHALL":
+            case "FLUSHDB":
+                data.clear();
+                return "OK";
+            
+            case "DBSIZE":
+                return (long) data.size();
+            
+            case "SCRIPT":
+                return script(args);
+            
+            case "EVAL":
+            case "EVALSHA":
+                return eval(args);
+            
+            default:
+                throw new IllegalArgumentException("ERR unknown command '" + args[0] + "'");
+        }
+    }
+    
+    private Object set(String[] args) {
+        requireArguments(args, 3);
+        long expiresAt = 0;
+        for (int i = 3; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("ERR syntax error");
+            }
+            long amount = parseLong(args[i + 1]);
+            if (amount <= 0) {
+                throw new IllegalArgumentException("ERR invalid expire time in 'set' command");
+            }
+            if ("PX".equalsIgnoreCase(args[i])) {
+                expiresAt = System.currentTimeMillis() + amount;
+            } else if ("EX".equalsIgnoreCase(args[i])) {
+                expiresAt = System.currentTimeMillis() + amount * 1000;
+            } else {
+                throw new IllegalArgumentException("ERR syntax error");
+            }
+        }
+        data.put(args[1], new Value(args[2], expiresAt));
+        return "OK";
+    }
+    
+    private Object script(String[] args) {
+        requireArguments(args, 2);
+        switch (args[1].toUpperCase()) {
+            case "LOAD":
+                requireArguments(args, 3);
+                loadScript(args[2]);
+                return bulk(RedisScript.sha1(args[2]));
+            
+            case "FLUSH":
+                scripts.clear();
+                return "OK";
+            
+            default:
+                throw new IllegalArgumentException("ERR unknown SCRIPT subcommand '" + args[1] + "'");
+        }
+    }
+    
+    /**
+     * EVAL source|EVALSHA sha, numkeys, keys..., args...
+     */
+    private Object eval(String[] args) {
+        requireArguments(args, 3);
+        LuaValue script;
+        if ("EVAL".equalsIgnoreCase(args[0])) {
+            script = loadScript(args[1]);
+        } else {
+            script = scripts.get(args[1]);
+            if (script == null) {
+                throw new IllegalArgumentException("NOSCRIPT No matching script. Please use EVAL.");
+            }
+        }
+        
+        int keyCount = (int) parseLong(args[2]);
+        if (keyCount < 0 || 3 + keyCount > args.length) {
+            throw new IllegalArgumentException("ERR Number of keys can't be greater than number of args");
+        }
+        LuaTable keys = new LuaTable();
+        for (int i = 0; i < keyCount; i++) {
+            keys.set(i + 1, LuaValue.valueOf(args[3 + i]));
+        }
+        LuaTable argv = new LuaTable();
+        for (int i = 3 + keyCount; i < args.length; i++) {
+            argv.set(i - 2 - keyCount, LuaValue.valueOf(args[i]));
+        }
+        lua.set("KEYS", keys);
+        lua.set("ARGV", argv);
+        try {
+            // Atomic because the server is single-threaded
+            return fromLua(script.call());
+        } catch (LuaError e) {
+            throw new IllegalArgumentException("ERR Error running script: " + e.getMessage());
+        }
+    }
+    
+    private LuaValue loadScript(String source) {
+        try {
+            LuaValue script = lua.load(source, "@user_script");
+            scripts.put(RedisScript.sha1(source), script);
+            return script;
+        } catch (LuaError e) {
+            throw new IllegalArgumentException("ERR Error compiling script: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Convert a reply for redis.call: integers become numbers, a missing value false, a status {ok = ...}
+     */
+    private static LuaValue toLua(Object reply) {
+        if (reply == null) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Long) {
+            return LuaValue.valueOf((double) (Long) reply);
+        }
+        if (reply instanceof byte[]) {
+            return LuaValue.valueOf((byte[]) reply);
+        }
+        if (reply instanceof Object[]) {
+            Object[] elements = (Object[]) reply;
+            LuaTable table = new LuaTable();
+            for (int i = 0; i < elements.length; i++) {
+                table.set(i + 1, toLua(elements[i]));
+            }
+            return table;
+        }
+        LuaTable status = new LuaTable();
+        status.set("ok", LuaValue.valueOf((String) reply));
+        return status;
+    }
+    
+    /**
+     * Convert a script's return value: numbers are truncated to integers, tables become arrays up to
+     * their first nil, true becomes 1 and false nil
+     */
+    private static Object fromLua(LuaValue value) {
+        switch (value.type()) {
+            case LuaValue.TNUMBER:
+                return (long) value.todouble();
+            
+            case LuaValue.TSTRING: {
+                LuaString string = value.checkstring();
+                byte[] bytes = new byte[string.length()];
+                string.copyInto(0, bytes, 0, bytes.length);
+                return bytes;
+            }
+            
+            case LuaValue.TBOOLEAN:
+                return value.toboolean() ? 1L : null;
+            
+            case LuaValue.TTABLE: {
+                LuaValue error = value.get("err");
+                if (!error.isnil()) {
+                    return new RespCodec.Error(error.tojstring());
+                }
+                LuaValue status = value.get("ok");
+                if (!status.isnil()) {
+                    return status.tojstring();
+                }
+                int length = 0;
+                while (!value.get(length + 1).isnil()) {
+                    length++;
+                }
+                Object[] elements = new Object[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = fromLua(value.get(i + 1));
+                }
+                return elements;
+            }
+            
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Append a reply in the types {@link RespCodec#read} decodes replies to
+     */
+    private static void write(ByteArrayOutputStream out, Object reply) {
+        if (reply == null || reply instanceof byte[]) {
+            RespCodec.writeBulk(out, (byte[]) reply);
+        } else if (reply instanceof Long) {
+            RespCodec.writeInteger(out, (Long) reply);
+        } else if (reply instanceof RespCodec.Error) {
+            RespCodec.writeError(out, reply.toString());
+        } else if (reply instanceof Object[]) {
+            Object[] elements = (Object[]) reply;
+            RespCodec.writeArrayHeader(out, elements.length);
+            for (Object element : elements) {
+                write(out, element);
+            }
+        } else {
+            RespCodec.writeSimple(out, (String) reply);
+        }
+    }
+    
+    /**
+     * Get a key's value, dropping it if it has expired
+     */
+    private Value live(String key) {
+        Value value = data.get(key);
+        if (value != null && value.expiresAt != 0 && value.expiresAt <= System.currentTimeMillis()) {
+            data.remove(key);
+            return null;
+        }
+        return value;
+    }
+    
+    private String text(String key) {
+        Value value = live(key);
+        return value == null ? null : value.text;
+    }
+    
+    private long incrementBy(String key, long delta) {
+        Value value = live(key);
+        long next = (value == null ? 0 : parseLong(value.text)) + delta;
+        data.put(key, new Value(Long.toString(next), value == null ? 0 : value.expiresAt));
+        return next;
+    }
+    
+    private boolean expire(String key, long millis) {
+        Value value = live(key);
+        if (value == null) {
+            return false;
+        }
+        value.expiresAt = System.currentTimeMillis() + millis;
+        return true;
+    }
+    
+    /**
+     * Remaining time to live in milliseconds: -2 for a missing key, -1 for a key without expiry
+     */
+    private long ttl(String key) {
+        Value value = live(key);
+        if (value == null) {
+            return -2;
+        }
+        if (value.expiresAt == 0) {
+            return -1;
+        }
+        return value.expiresAt - System.currentTimeMillis();
+    }
+    
+    private void sweepExpired() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+        lastSweep = now;
+        data.values().removeIf(value -> value.expiresAt != 0 && value.expiresAt <= now);
+    }
+    
+    private static byte[] bulk(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static void requireArguments(String[] args, int minimum) {
+        if (args.length < minimum) {
+            throw new IllegalArgumentException("ERR wrong number of arguments for '" + args[0] + "' command");
+        }
+    }
+    
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR value is not an integer or out of range");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,191 @@
+package com.ratelimiter.storage.redis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ratelimiter.core.StorageOperation;
+
+/**
+ * Runs the Redis storage and its Lua scripts against the embedded server, or against a real Redis
+ * given with -Dredis.port and optionally -Dredis.host, whose data and scripts are flushed first
+ */
+class RedisRateLimitStorageTest {
+    private static final Duration EXPIRY = Duration.ofMinutes(1);
+    
+    private EmbeddedRespServer server;
+    private InetSocketAddress address;
+    private RedisRateLimitStorage storage;
+    
+    @BeforeEach
+    void start() throws IOException {
+        String port = System.getProperty("redis.port");
+        if (port == null) {
+            server = new EmbeddedRespServer().start();
+            address = new InetSocketAddress("localhost", server.getPort());
+        } else {
+            address = new InetSocketAddress(System.getProperty("redis.host", "localhost"), Integer.parseInt(port));
+        }
+        try (RespConnection connection = connect()) {
+            connection.pipeline(List.of(new Object[]{"FLUSHDB"}, new Object[]{"SCRIPT", "FLUSH"}));
+        }
+        storage = new RedisRateLimitStorage(address.getHostString(), address.getPort());
+    }
+    
+    @AfterEach
+    void stop() {
+        storage.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    @Test
+    void weightedPreviousWindowCountsTowardsTheLimit() {
+        storage.set("previous", 10, EXPIRY);
+        
+        // floor(10 * 0.55) + 0 + 1 = 6, within the limit and stored
+        assertEquals(6, storage.incrementIfBelow("current", "previous", 0.55, 1, 6, EXPIRY));
+        assertEquals(1, storage.get("current"));
+        
+        // floor(10 * 0.55) + 1 + 1 = 7, over the limit and not stored
+        assertEquals(7, storage.incrementIfBelow("current", "previous", 0.55, 1, 6, EXPIRY));
+        assertEquals(1, storage.get("current"));
+        
+        // Less of the previous window counts later on
+        assertEquals(4, storage.incrementIfBelow("current", "previous", 0.2, 1, 6, EXPIRY));
+        assertEquals(2, storage.get("current"));
+    }
+    
+    @Test
+    void advanceRaisesTheValueToTheFloorFirst() {
+        assertEquals(110, storage.advanceIfBelow("tat", 10, 100, 200, EXPIRY));
+        assertEquals(110, storage.get("tat"));
+        
+        // A floor below the value does not lower it
+        assertEquals(120, storage.advanceIfBelow("tat", 10, 50, 200, EXPIRY));
+        assertEquals(120, storage.get("tat"));
+        
+        // Over the limit the advanced value is returned but not stored
+        assertEquals(130, storage.advanceIfBelow("tat", 10, 50, 125, EXPIRY));
+        assertEquals(120, storage.get("tat"));
+        
+        // A floor above the value replaces it
+        assertEquals(505, storage.advanceIfBelow("tat", 5, 500, 600, EXPIRY));
+        assertEquals(505, storage.get("tat"));
+    }
+    
+    @Test
+    void advanceIsExactForNanosecondInstants() {
+        // Past 2^53, where a double would round every step to a multiple of 256
+        long now = 1_700_000_000_123_456_789L;
+        assertEquals(now + 1000, storage.advanceIfBelow("tat", 1000, now, now + 5000, EXPIRY));
+        assertEquals(now + 1001, storage.advanceIfBelow("tat", 1, now, now + 5000, EXPIRY));
+        assertEquals(now + 1001, storage.get("tat"));
+        
+        // One nanosecond over the limit is denied
+        assertEquals(now + 5001, storage.advanceIfBelow("tat", 4000, now, now + 5000, EXPIRY));
+        assertEquals(now + 1001, storage.get("tat"));
+        
+        // Floors far in the past are negative, and so are the values raised to them
+        long floor = now - Long.MAX_VALUE / 4;
+        storage.set("bucket", floor, EXPIRY);
+        assertEquals(floor + 999_999_999, storage.advanceIfBelow("bucket", 999_999_999, floor - 5, now, EXPIRY));
+        assertEquals(floor + 1_000_000_000, storage.advanceIfBelow("bucket", 1, floor, now, EXPIRY));
+        assertEquals(floor + 1_000_000_000, storage.get("bucket"));
+        storage.set("negative", -20, EXPIRY);
+        assertEquals(-15, storage.advanceIfBelow("negative", 5, -30, 0, EXPIRY));
+        assertEquals(-15, storage.get("negative"));
+        
+        StorageOperation all = StorageOperation.all(List.of(
+            StorageOperation.advanceIfBelow("tat", 7, now, now + 5000, EXPIRY),
+            StorageOperation.incrementIfBelow("counter", 1, 10, EXPIRY)));
+        assertEquals(0, storage.execute(all));
+        assertArrayEquals(new long[]{now + 1008, 1}, all.getResults());
+        assertEquals(now + 1008, storage.get("tat"));
+    }
+    
+    @Test
+    void rejectedAllLeavesEveryKeyUnchanged() {
+        storage.set("counter", 3, EXPIRY);
+        storage.set("tat", 100, EXPIRY);
+        storage.set("full", 5, EXPIRY);
+        List<StorageOperation> parts = List.of(
+            StorageOperation.incrementIfBelow("counter", 1, 10, EXPIRY),
+            StorageOperation.advanceIfBelow("tat", 10, 0, 1000, EXPIRY),
+            StorageOperation.incrementIfBelow("full", 1, 5, EXPIRY));
+        
+        assertArrayEquals(new long[]{4, 110, 6}, storage.executeAll(parts));
+        assertEquals(3, storage.get("counter"));
+        assertEquals(100, storage.get("tat"));
+        assertEquals(5, storage.get("full"));
+        
+        StorageOperation all = StorageOperation.all(parts);
+        assertEquals(3, storage.execute(all));
+        assertArrayEquals(new long[]{4, 110, 6}, all.getResults());
+        assertEquals(3, storage.get("counter"));
+        assertEquals(100, storage.get("tat"));
+        assertEquals(5, storage.get("full"));
+    }
+    
+    @Test
+    void admittedAllAppliesEveryPart() {
+        StorageOperation all = StorageOperation.all(List.of(
+            StorageOperation.incrementIfBelow("counter", 2, 10, EXPIRY),
+            StorageOperation.advanceIfBelow("tat", 10, 100, 1000, EXPIRY)));
+        
+        assertEquals(0, storage.execute(all));
+        assertArrayEquals(new long[]{2, 110}, all.getResults());
+        assertEquals(2, storage.get("counter"));
+        assertEquals(110, storage.get("tat"));
+    }
+    
+    @Test
+    void eachAppliesThePartsOnTheirOwn() {
+        StorageOperation each = StorageOperation.each(List.of(
+            StorageOperation.incrementIfBelow("counter", 3, 5, EXPIRY),
+            StorageOperation.incrementIfBelow("counter", 3, 5, EXPIRY),
+            StorageOperation.incrementIfBelow("counter", 2, 5, EXPIRY)));
+        
+        long[] results = storage.execute(List.of(StorageOperation.get("counter"), each));
+        assertArrayEquals(new long[]{0, 3}, results);
+        assertArrayEquals(new long[]{3, 6, 5}, each.getResults());
+        assertEquals(5, storage.get("counter"));
+    }
+    
+    @Test
+    void scriptsMissingFromTheServerAreSentWithEval() throws IOException {
+        Object[] evalsha = {"EVALSHA", RedisScript.INCREMENT_IF_BELOW.getSha(), 1, "key", 1, 10, 60000, 0};
+        try (RespConnection connection = connect()) {
+            // The flushed server has no scripts cached
+            Object reply = connection.pipeline(Collections.singletonList(evalsha))[0];
+            assertInstanceOf(RespCodec.Error.class, reply);
+            assertTrue(((RespCodec.Error) reply).hasPrefix("NOSCRIPT"));
+            
+            assertEquals(1, storage.incrementIfBelow("key", 1, 10, EXPIRY));
+            
+            // The fallback cached the script
+            assertEquals(2L, connection.pipeline(Collections.singletonList(evalsha))[0]);
+            
+            // And is taken again once the server forgets it
+            connection.pipeline(Collections.singletonList(new Object[]{"SCRIPT", "FLUSH"}));
+            assertEquals(3, storage.incrementIfBelow("key", 1, 10, EXPIRY));
+            assertEquals(3, storage.get("key"));
+        }
+    }
+    
+    private RespConnection connect() throws IOException {
+        return new RespConnection(address, RedisRateLimitStorage.DEFAULT_TIMEOUT_MILLIS);
+    }
+}
\ No newline at end of file